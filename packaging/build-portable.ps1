@@ -33,7 +33,9 @@ if ($LASTEXITCODE -ne 0) {
 
 Write-Host ""
 Write-Host "[3/3] 创建便携版应用..." -ForegroundColor Yellow
-mvn jpackage:jpackage `"-Djpackage.type=APP_IMAGE`"
+# 便携版的应用目录可写，启用 AppCDS 归档：第一次退出时在 app\commit-pal.jsa 生成。归档记录的是绝对路径，
+# 所以不在打包时预先生成，目录移动后要删除它才会重新生成
+mvn jpackage:jpackage `"-Djpackage.type=APP_IMAGE`" `"-Djpackage.cds.autocreate=-XX:+AutoCreateSharedArchive`"
 if ($LASTEXITCODE -ne 0) {
     Write-Host "✗ 打包失败" -ForegroundColor Red
     exit 1
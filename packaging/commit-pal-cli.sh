@@ -0,0 +1,37 @@
+#!/bin/bash
+
+# Commit Pal 命令行入口，不依赖 JavaFX，适用于无图形界面的 Linux 服务器和批处理任务
+# 需要先执行 mvn package；也可以通过 COMMIT_PAL_HOME 指向包含 commit-pal-*.jar 和 lib/ 的目录
+# 额外的 JVM 参数可以通过 COMMIT_PAL_JAVA_OPTS 传入，例如 -Dcommitpal.home=/path/to/config-dir
+#
+# 示例:
+#   ./commit-pal-cli.sh generate --project ~/work/my-repo --json
+#   ./commit-pal-cli.sh report --from 2024-06-03 --to 2024-06-07 --all-projects --json
+
+SCRIPT_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+APP_DIR="${COMMIT_PAL_HOME:-$SCRIPT_DIR/../target}"
+
+JAR=$(ls "$APP_DIR"/commit-pal-*.jar 2>/dev/null | head -n 1)
+if [ -z "$JAR" ]; then
+    echo "✗ 未找到 commit-pal jar，请先执行 mvn package 或设置 COMMIT_PAL_HOME" >&2
+    exit 2
+fi
+
+if [ -n "$JAVA_HOME" ]; then
+    JAVA="$JAVA_HOME/bin/java"
+else
+    JAVA=java
+fi
+
+# AppCDS: 第一次运行结束时把加载过的类写入归档，之后的启动直接映射；jar 或 JDK 变化后自动重新生成
+# 归档放在用户目录下（可通过 COMMIT_PAL_CDS_DIR 修改），安装目录只读时也能使用；目录不可写时只使用 JDK 默认归档
+CDS_DIR="${COMMIT_PAL_CDS_DIR:-$HOME/.commit-pal}"
+# JVM 日志默认写到 stdout，改为 stderr 以免混入结果；生成归档时跳过动态代理类的警告无需提示
+CDS_OPTS=(-Xshare:auto -Xlog:disable "-Xlog:all=warning,cds=error:stderr")
+if mkdir -p "$CDS_DIR" 2>/dev/null && [ -w "$CDS_DIR" ]; then
+    CDS_OPTS+=(-XX:+AutoCreateSharedArchive "-XX:SharedArchiveFile=$CDS_DIR/commit-pal-cli.jsa")
+fi
+
+# 短生命周期进程: 只用 C1 编译器和 Serial GC 以缩短启动时间
+exec "$JAVA" -XX:TieredStopAtLevel=1 -XX:+UseSerialGC "${CDS_OPTS[@]}" -Dfile.encoding=UTF-8 \
+    $COMMIT_PAL_JAVA_OPTS -cp "$JAR:$APP_DIR/lib/*" com.junjie.githelper.cli.CommitPalCli "$@"
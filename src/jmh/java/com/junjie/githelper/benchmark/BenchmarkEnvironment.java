@@ -0,0 +1,29 @@
+package com.junjie.githelper.benchmark;
+
+import java.nio.file.Path;
+
+/**
+ * Locations used by the benchmarks. Both are set by the {@code benchmark} Maven profile.
+ */
+final class BenchmarkEnvironment {
+
+    private BenchmarkEnvironment() {
+    }
+
+    /**
+     * Fails unless the application home is redirected, so benchmarks never overwrite the user's
+     * {@code ~/.commit-pal} configuration and caches.
+     */
+    static void requireIsolatedHome() {
+        if (System.getProperty("commitpal.home") == null) {
+            throw new IllegalStateException("Run the benchmarks with -Dcommitpal.home=<scratch dir>, "
+                + "e.g. via mvn -Pbenchmark test-compile exec:exec");
+        }
+    }
+
+    static Path reposDir() {
+        requireIsolatedHome();
+        String repos = System.getProperty("commitpal.benchmark.repos");
+        return repos != null ? Path.of(repos) : Path.of(System.getProperty("commitpal.home"), "repos");
+    }
+}
@@ -0,0 +1,76 @@
+package com.junjie.githelper.benchmark;
+
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.service.GitService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GitService#getCommitLogs} over date ranges of generated histories.
+ * With diffs, every commit diff is on disk after the first call, so the numbers show the steady state of
+ * repeated fetches rather than the first one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommitLogBenchmark {
+
+    public enum Range {
+        WEEK(7), MONTH(30), YEAR(365);
+
+        final int days;
+
+        Range(int days) {
+            this.days = days;
+        }
+    }
+
+    @Param({"SMALL", "MEDIUM", "MONOREPO"})
+    public SyntheticRepository.Size size;
+
+    @Param({"WEEK", "MONTH", "YEAR"})
+    public Range range;
+
+    @Param({"false", "true"})
+    public boolean includeDiff;
+
+    private Project project;
+    private GitService service;
+    private LocalDate startDate;
+    private LocalDate endDate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        project = new Project("bench", size.name(), SyntheticRepository.obtain(size).toString(), "");
+        service = new GitService();
+        endDate = SyntheticRepository.lastCommitDate();
+        startDate = endDate.minusDays(range.days - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    public String commitLogs() throws Exception {
+        return service.getCommitLogs(project, startDate, endDate, includeDiff);
+    }
+}
@@ -0,0 +1,82 @@
+package com.junjie.githelper.benchmark;
+
+import com.junjie.githelper.model.AppConfig;
+import com.junjie.githelper.model.LLMSettings;
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.service.ConfigService;
+import com.junjie.githelper.service.ConfigStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ConfigService#loadConfig} and {@link ConfigService#saveConfig} with many projects, and what a save costs the
+ * calling thread with a {@link ConfigStore}, which writes in the background.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigServiceBenchmark {
+
+    @Param({"10", "300", "1000"})
+    public int projects;
+
+    private ConfigService service;
+    private ConfigStore store;
+    private AppConfig config;
+    private int updates;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.requireIsolatedHome();
+        List<Project> projectList = new ArrayList<>(projects);
+        for (int i = 0; i < projects; i++) {
+            projectList.add(new Project("project-" + i, "repo-" + i, "/home/bench/work/repo-" + i,
+                "Please generate a concise commit message based on the code changes.\n- Conventional Commits\n- present tense\n",
+                i % 2 == 0 ? String.format("%040x", i) : null));
+        }
+        config = new AppConfig("1.0", new LLMSettings("openai", "bench-key", "gpt-4o", "https://api.openai.com/v1"),
+            projectList, "project-0");
+        service = new ConfigService();
+        service.saveConfig(config);
+        store = new ConfigStore(service);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public AppConfig load() throws Exception {
+        return service.loadConfig();
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        service.saveConfig(config);
+    }
+
+    @Benchmark
+    public AppConfig storeUpdate() {
+        String prompt = "Commit log " + updates++ + ":\n";
+        return store.update(current -> current.withWeeklyReportPrompt(prompt));
+    }
+}
@@ -0,0 +1,82 @@
+package com.junjie.githelper.benchmark;
+
+import com.junjie.githelper.model.LLMSettings;
+import com.junjie.githelper.service.LLMService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LLMService} request construction, transport and response parsing against a local stub,
+ * for blocking and streamed responses. Requests are sent with {@code regenerate}, so the response
+ * cache is bypassed on reads (responses are still written to it, as in the application).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LLMServiceBenchmark {
+
+    // Below the chunked-generation threshold, so every call is exactly one request
+    @Param({"4", "64"})
+    public int diffKb;
+
+    @Param({"2000"})
+    public int completionChars;
+
+    private LLMStubServer stub;
+    private LLMService service;
+    private LLMSettings settings;
+    private String diff;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.requireIsolatedHome();
+        Random random = new Random(42);
+        StringBuilder completion = new StringBuilder();
+        while (completion.length() < completionChars) {
+            completion.append("feat: change ").append(Integer.toHexString(random.nextInt())).append('\n');
+        }
+        stub = new LLMStubServer(completion.substring(0, completionChars));
+        service = new LLMService();
+        settings = new LLMSettings("openai", "bench-key", "bench-model", stub.baseUrl());
+
+        StringBuilder text = new StringBuilder("diff --git a/Bench.java b/Bench.java\n--- a/Bench.java\n+++ b/Bench.java\n@@ -1,1 +1,1 @@\n");
+        while (text.length() < diffKb * 1024) {
+            text.append(random.nextBoolean() ? '+' : '-').append("    int value = ").append(random.nextInt()).append(";\n");
+        }
+        diff = text.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public String blocking() {
+        return service.generateCommitMessage(settings, "Write a commit message.", diff, "feat: previous", true, null);
+    }
+
+    @Benchmark
+    public String streaming(Blackhole blackhole) {
+        return service.generateCommitMessage(settings, "Write a commit message.", diff, "feat: previous", true, blackhole::consume);
+    }
+}
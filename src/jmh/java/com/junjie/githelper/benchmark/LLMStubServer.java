@@ -0,0 +1,83 @@
+package com.junjie.githelper.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal OpenAI-compatible chat completions endpoint on the loopback interface.
+ * It answers every request with the same canned completion, as one JSON body or as a server-sent event
+ * stream when the request asks for {@code "stream": true}, so the benchmarks measure the client side only.
+ */
+final class LLMStubServer implements AutoCloseable {
+
+    private static final int STREAM_CHUNKS = 200;
+
+    private final HttpServer server;
+    private final String completion;
+
+    LLMStubServer(String completion) throws IOException {
+        this.completion = completion;
+        // Without it, the headers and body writes of a response wait on delayed ACKs (~40 ms per request)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v1/chat/completions", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        boolean stream = request.contains("\"stream\":true");
+
+        if (!stream) {
+            byte[] response = ("{\"id\":\"bench\",\"object\":\"chat.completion\",\"choices\":[{\"index\":0,"
+                + "\"message\":{\"role\":\"assistant\",\"content\":" + quote(completion) + "},\"finish_reason\":\"stop\"}],"
+                + "\"usage\":{\"prompt_tokens\":" + request.length() / 4 + ",\"completion_tokens\":" + completion.length() / 4 + "}}")
+                .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(response);
+            }
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream output = exchange.getResponseBody()) {
+            int chunkLength = Math.max(1, completion.length() / STREAM_CHUNKS);
+            for (int start = 0; start < completion.length(); start += chunkLength) {
+                String delta = completion.substring(start, Math.min(completion.length(), start + chunkLength));
+                output.write(("data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":" + quote(delta) + "}}]}\n\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            }
+            output.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+}
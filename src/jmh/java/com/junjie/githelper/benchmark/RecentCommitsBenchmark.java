@@ -0,0 +1,53 @@
+package com.junjie.githelper.benchmark;
+
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.service.GitService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GitService#getRecentCommitMessages}, which runs before every commit message generation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecentCommitsBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "MONOREPO"})
+    public SyntheticRepository.Size size;
+
+    private Project project;
+    private GitService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        project = new Project("bench", size.name(), SyntheticRepository.obtain(size).toString(), "");
+        service = new GitService();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    public String recentCommitMessages() throws Exception {
+        return service.getRecentCommitMessages(project);
+    }
+}
@@ -0,0 +1,102 @@
+package com.junjie.githelper.benchmark;
+
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.service.GitService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GitService#getStagedChanges} on generated repositories with small and large staged changes:
+ * <ul>
+ *     <li>{@code cold}: a fresh service, i.e. opening the repository and diffing the whole index.</li>
+ *     <li>{@code indexChanged}: one index entry changed since the previous call, as after a {@code git add}.</li>
+ *     <li>{@code unchanged}: repeated refreshes of an unchanged index.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StagedChangesBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "MONOREPO"})
+    public SyntheticRepository.Size size;
+
+    @Param({"10", "1000"})
+    public int stagedFiles;
+
+    Project project;
+    GitService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path repository = SyntheticRepository.obtain(size);
+        SyntheticRepository.stage(repository, stagedFiles, 0);
+        project = new Project("bench", size.name(), repository.toString(), "");
+        service = new GitService();
+        service.getStagedChanges(project);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        service.close();
+        SyntheticRepository.stage(Path.of(project.path()), 0, 0);
+    }
+
+    @State(Scope.Thread)
+    public static class ColdService {
+        GitService service;
+
+        @Setup(Level.Invocation)
+        public void open() {
+            service = new GitService();
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            service.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ChangingIndex {
+        int variant;
+
+        @Setup(Level.Invocation)
+        public void restage(StagedChangesBenchmark benchmark) throws Exception {
+            variant ^= 1;
+            SyntheticRepository.stage(Path.of(benchmark.project.path()), benchmark.stagedFiles, variant);
+        }
+    }
+
+    @Benchmark
+    public String cold(ColdService cold) throws Exception {
+        return cold.service.getStagedChanges(project);
+    }
+
+    @Benchmark
+    public String indexChanged(ChangingIndex index) throws Exception {
+        return service.getStagedChanges(project);
+    }
+
+    @Benchmark
+    public String unchanged() throws Exception {
+        return service.getStagedChanges(project);
+    }
+}
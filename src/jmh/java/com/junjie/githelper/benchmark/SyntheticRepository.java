@@ -0,0 +1,299 @@
+package com.junjie.githelper.benchmark;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.stream.Stream;
+
+/**
+ * Generates deterministic Git repositories for the benchmarks.
+ * <p>
+ * The same size always produces the same history (fixed seed, fixed author dates spread over 2024), so
+ * results of different runs and machines are comparable. Generated repositories are kept under
+ * {@code -Dcommitpal.benchmark.repos} and reused by later runs.
+ */
+public final class SyntheticRepository {
+
+    /**
+     * Repository scales: number of files, directories the files are spread over, and commits.
+     */
+    public enum Size {
+        SMALL(60, 6, 300),
+        MEDIUM(800, 40, 3000),
+        MONOREPO(6000, 200, 20000);
+
+        final int files;
+        final int modules;
+        final int commits;
+
+        Size(int files, int modules, int commits) {
+            this.files = files;
+            this.modules = modules;
+            this.commits = commits;
+        }
+    }
+
+    // Bump when the generator changes, so stale repositories are not reused
+    private static final int GENERATOR_VERSION = 1;
+    private static final Instant FIRST_COMMIT = LocalDate.of(2024, 1, 1).atTime(9, 0).toInstant(ZoneOffset.UTC);
+    private static final Duration HISTORY_SPAN = Duration.ofDays(365);
+    private static final String[] AUTHORS = {"alice", "bob", "carol", "dave", "erin"};
+    private static final String[] TYPES = {"feat", "fix", "refactor", "perf", "docs", "test", "chore"};
+
+    private SyntheticRepository() {
+    }
+
+    /**
+     * The day of the newest commit; date ranges in the benchmarks end here.
+     */
+    public static LocalDate lastCommitDate() {
+        return FIRST_COMMIT.plus(HISTORY_SPAN).atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    /**
+     * Returns the working tree of a generated repository, generating it on first use.
+     */
+    public static synchronized Path obtain(Size size) throws IOException {
+        Path dir = BenchmarkEnvironment.reposDir().resolve(size.name().toLowerCase() + "-v" + GENERATOR_VERSION);
+        Path marker = dir.resolve(".git").resolve("synthetic-complete");
+        if (Files.exists(marker)) {
+            return dir;
+        }
+        if (Files.exists(dir)) {
+            deleteRecursively(dir);
+        }
+        long started = System.nanoTime();
+        generate(dir, size);
+        Files.writeString(marker, size.name());
+        System.out.printf("Generated %s repository in %d ms: %s%n",
+            size, Duration.ofNanos(System.nanoTime() - started).toMillis(), dir);
+        return dir;
+    }
+
+    /**
+     * Rewrites the index as HEAD plus modifications of {@code fileCount} files, i.e. a staged change.
+     * @param variant Selects the content of the first modified file, so alternating variants changes exactly one
+     *                index entry; the same variant always yields the same index.
+     */
+    public static void stage(Path workTree, int fileCount, int variant) throws IOException {
+        try (Repository repository = open(workTree);
+             ObjectInserter inserter = repository.newObjectInserter();
+             ObjectReader reader = repository.newObjectReader();
+             RevWalk revWalk = new RevWalk(reader);
+             TreeWalk treeWalk = new TreeWalk(reader)) {
+
+            ObjectId headTree = revWalk.parseCommit(repository.resolve(Constants.HEAD)).getTree();
+            treeWalk.addTree(headTree);
+            treeWalk.setRecursive(true);
+
+            List<String> paths = new ArrayList<>();
+            List<ObjectId> blobs = new ArrayList<>();
+            while (treeWalk.next()) {
+                paths.add(treeWalk.getPathString());
+                blobs.add(treeWalk.getObjectId(0));
+            }
+            // Spread the staged files over the whole tree
+            int step = Math.max(1, paths.size() / Math.max(1, fileCount));
+            for (int i = 0, staged = 0; i < paths.size() && staged < fileCount; i += step, staged++) {
+                String content = new String(reader.open(blobs.get(i)).getBytes(), StandardCharsets.UTF_8);
+                String modified = stagedContent(content, staged == 0 ? variant : 0, i);
+                blobs.set(i, inserter.insert(Constants.OBJ_BLOB, modified.getBytes(StandardCharsets.UTF_8)));
+            }
+            inserter.flush();
+
+            DirCache index = repository.lockDirCache();
+            try {
+                DirCacheBuilder builder = index.builder();
+                for (int i = 0; i < paths.size(); i++) {
+                    DirCacheEntry entry = new DirCacheEntry(paths.get(i));
+                    entry.setFileMode(FileMode.REGULAR_FILE);
+                    entry.setObjectId(blobs.get(i));
+                    builder.add(entry);
+                }
+                builder.finish();
+                index.write();
+                index.commit();
+            } finally {
+                index.unlock();
+            }
+        }
+    }
+
+    private static String stagedContent(String content, int variant, int fileIndex) {
+        String[] lines = content.split("\n", -1);
+        int middle = lines.length / 2;
+        lines[middle] = "    // staged change " + variant + " in file " + fileIndex;
+        return String.join("\n", lines) + "    int staged" + variant + " = " + fileIndex + ";\n";
+    }
+
+    private static void generate(Path dir, Size size) throws IOException {
+        Files.createDirectories(dir);
+        Random random = new Random(20240101L + size.ordinal());
+        int filesPerModule = size.files / size.modules;
+
+        try (Repository repository = FileRepositoryBuilder.create(dir.resolve(".git").toFile())) {
+            repository.create();
+            try (ObjectInserter inserter = repository.newObjectInserter()) {
+                // [module][file] contents and blob ids; trees are rebuilt only for the modules a commit touches
+                List<List<List<String>>> contents = new ArrayList<>();
+                ObjectId[][] blobs = new ObjectId[size.modules][filesPerModule];
+                ObjectId[] moduleTrees = new ObjectId[size.modules];
+                for (int module = 0; module < size.modules; module++) {
+                    List<List<String>> moduleContents = new ArrayList<>();
+                    for (int file = 0; file < filesPerModule; file++) {
+                        List<String> lines = initialContent(random, module, file);
+                        moduleContents.add(lines);
+                        blobs[module][file] = insertBlob(inserter, lines);
+                    }
+                    contents.add(moduleContents);
+                    moduleTrees[module] = moduleTree(inserter, blobs[module]);
+                }
+
+                long commitInterval = HISTORY_SPAN.toSeconds() / size.commits;
+                ObjectId parent = null;
+                for (int commit = 0; commit < size.commits; commit++) {
+                    int module = random.nextInt(size.modules);
+                    int changedFiles = 1 + random.nextInt(3);
+                    for (int i = 0; i < changedFiles; i++) {
+                        int file = random.nextInt(filesPerModule);
+                        List<String> lines = contents.get(module).get(file);
+                        mutate(random, lines, commit);
+                        blobs[module][file] = insertBlob(inserter, lines);
+                    }
+                    moduleTrees[module] = moduleTree(inserter, blobs[module]);
+
+                    TreeFormatter root = new TreeFormatter();
+                    for (int m = 0; m < size.modules; m++) {
+                        root.append(moduleName(m), FileMode.TREE, moduleTrees[m]);
+                    }
+
+                    String author = AUTHORS[random.nextInt(AUTHORS.length)];
+                    Instant time = FIRST_COMMIT.plusSeconds(commit * commitInterval);
+                    PersonIdent ident = new PersonIdent(author, author + "@example.com",
+                        Date.from(time), TimeZone.getTimeZone("UTC"));
+
+                    CommitBuilder builder = new CommitBuilder();
+                    builder.setTreeId(inserter.insert(root));
+                    if (parent != null) {
+                        builder.setParentId(parent);
+                    }
+                    builder.setAuthor(ident);
+                    builder.setCommitter(ident);
+                    builder.setMessage(TYPES[random.nextInt(TYPES.length)] + "(" + moduleName(module) + "): update "
+                        + changedFiles + " file(s), change #" + commit + "\n\nGenerated change for benchmarking.\n");
+                    parent = inserter.insert(builder);
+                }
+                inserter.flush();
+
+                RefUpdate head = repository.updateRef(Constants.HEAD);
+                head.setNewObjectId(parent);
+                head.forceUpdate();
+            }
+
+            try (Git git = new Git(repository)) {
+                git.gc().call();
+            } catch (Exception e) {
+                throw new IOException("Failed to pack generated repository", e);
+            }
+        }
+        // Index equal to HEAD: nothing staged
+        stage(dir, 0, 0);
+    }
+
+    private static List<String> initialContent(Random random, int module, int file) {
+        List<String> lines = new ArrayList<>();
+        lines.add("package " + moduleName(module).replace('-', '_') + ";");
+        lines.add("");
+        lines.add("public class " + fileName(file).replace(".java", "") + " {");
+        int body = 30 + random.nextInt(90);
+        for (int i = 0; i < body; i++) {
+            lines.add(randomLine(random, i));
+        }
+        lines.add("}");
+        return lines;
+    }
+
+    private static void mutate(Random random, List<String> lines, int commit) {
+        int bodyLines = lines.size() - 4;
+        if (bodyLines > 0) {
+            lines.set(3 + random.nextInt(bodyLines), randomLine(random, commit));
+        }
+        if (random.nextInt(4) == 0) {
+            int at = 3 + random.nextInt(Math.max(1, lines.size() - 4));
+            for (int i = 0; i < 3; i++) {
+                lines.add(at, randomLine(random, commit + i));
+            }
+        }
+    }
+
+    private static String randomLine(Random random, int seed) {
+        return switch (random.nextInt(4)) {
+            case 0 -> "    private int field" + seed + " = " + random.nextInt(10000) + ";";
+            case 1 -> "    // TODO revisit " + Long.toHexString(random.nextLong());
+            case 2 -> "    public String name" + seed + "() { return \"" + Integer.toHexString(random.nextInt()) + "\"; }";
+            default -> "    static final long LIMIT_" + seed + " = " + random.nextInt(1 << 20) + "L;";
+        };
+    }
+
+    private static ObjectId insertBlob(ObjectInserter inserter, List<String> lines) throws IOException {
+        return inserter.insert(Constants.OBJ_BLOB, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ObjectId moduleTree(ObjectInserter inserter, ObjectId[] blobs) throws IOException {
+        TreeFormatter tree = new TreeFormatter();
+        for (int file = 0; file < blobs.length; file++) {
+            tree.append(fileName(file), FileMode.REGULAR_FILE, blobs[file]);
+        }
+        return inserter.insert(tree);
+    }
+
+    // Zero-padded so that numeric order is Git's tree order
+    private static String moduleName(int module) {
+        return String.format("module-%03d", module);
+    }
+
+    private static String fileName(int file) {
+        return String.format("File%05d.java", file);
+    }
+
+    private static Repository open(Path workTree) throws IOException {
+        return new FileRepositoryBuilder().setGitDir(workTree.resolve(".git").toFile()).build();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
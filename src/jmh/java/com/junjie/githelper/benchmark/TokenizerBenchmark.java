@@ -0,0 +1,58 @@
+package com.junjie.githelper.benchmark;
+
+import com.junjie.githelper.service.Tokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Tokenizer#count} over a generated diff of about 100 KB, as counted before every commit message request.
+ * Whether the counts are exact depends on the vocabularies available to the run; without them the estimate
+ * path is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+
+    @Param({"gpt-4", "gpt-4o"})
+    public String model;
+
+    private Tokenizer tokenizer;
+    private String diff;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tokenizer = Tokenizer.forModel(model);
+        StringBuilder text = new StringBuilder();
+        for (int file = 0; text.length() < 100_000; file++) {
+            text.append("diff --git a/src/Module").append(file).append(".java b/src/Module").append(file).append(".java\n")
+                .append("@@ -10,6 +10,12 @@ public class Module").append(file).append(" {\n");
+            for (int line = 0; line < 40; line++) {
+                text.append(line % 3 == 0 ? "-" : "+")
+                    .append("        int total").append(line).append(" = items.stream().mapToInt(Item::count).sum(); ")
+                    .append(line % 10 == 0 ? "// 合计数量\n" : "\n");
+            }
+        }
+        diff = text.toString();
+    }
+
+    @Benchmark
+    public int count() {
+        return tokenizer.count(diff);
+    }
+}
@@ -4,7 +4,12 @@ import atlantafx.base.theme.PrimerLight;
 // import atlantafx.base.theme.PrimerDark; // 深色主题
 // import atlantafx.base.theme.NordLight; // 另一个浅色主题选择
 // import atlantafx.base.theme.NordDark; // 另一个深色主题选择
+import com.junjie.githelper.controller.MainViewController;
+import com.junjie.githelper.service.ConfigService;
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.StartupTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
@@ -12,8 +17,14 @@ import javafx.stage.Stage;
 import java.io.IOException;
 
 public class MainApplication extends Application {
+    // 完成一次完整启动后立即退出：用于测量启动时间，或在便携版所在目录预先生成 AppCDS 归档
+    private static final String EXIT_AFTER_STARTUP = "--exit-after-startup";
+
+    private MainViewController controller;
+
     @Override
     public void start(Stage stage) throws IOException {
+        StartupTimer.mark("JavaFX toolkit started");
         // 应用 AtlantaFX 主题 - Primer Light (GitHub 风格)
         Application.setUserAgentStylesheet(new PrimerLight().getUserAgentStylesheet());
         
@@ -24,14 +35,29 @@ public class MainApplication extends Application {
         
         FXMLLoader fxmlLoader = new FXMLLoader(MainApplication.class.getResource("main-view.fxml"));
         Scene scene = new Scene(fxmlLoader.load(), 1200, 700);
+        controller = fxmlLoader.getController();
+        StartupTimer.mark("main view loaded");
         stage.setTitle("Commit Pal");
         stage.setScene(scene);
         stage.setMinWidth(800);
         stage.setMinHeight(500);
         stage.show();
+        StartupTimer.mark("window shown");
+
+        if (getParameters().getRaw().contains(EXIT_AFTER_STARTUP)) {
+            controller.ready().whenComplete((result, error) -> Platform.runLater(Platform::exit));
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (controller != null) {
+            controller.shutdown();
+        }
     }
 
     public static void main(String[] args) {
+        Logger.startFileOutput(ConfigService.LOGS_DIR, "app");
         launch(args);
     }
 }
@@ -0,0 +1,109 @@
+package com.junjie.githelper.cli;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parsed command line: a command followed by {@code --option value}, {@code --option=value} and {@code --flag} arguments.
+ * Options may be repeated.
+ */
+final class CliArguments {
+
+    private final String command;
+    private final Map<String, List<String>> options;
+    private final Set<String> flags;
+
+    private CliArguments(String command, Map<String, List<String>> options, Set<String> flags) {
+        this.command = command;
+        this.options = options;
+        this.flags = flags;
+    }
+
+    /**
+     * @param knownFlags Options that take no value.
+     * @throws IllegalArgumentException On malformed arguments.
+     */
+    static CliArguments parse(String[] args, Set<String> knownFlags) {
+        if (args.length == 0) {
+            return new CliArguments(null, Map.of(), Set.of());
+        }
+        Map<String, List<String>> options = new HashMap<>();
+        Set<String> flags = new HashSet<>();
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--") || arg.length() == 2) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String name = arg.substring(2);
+            String value = null;
+            int equals = name.indexOf('=');
+            if (equals >= 0) {
+                value = name.substring(equals + 1);
+                name = name.substring(0, equals);
+            }
+            if (knownFlags.contains(name)) {
+                if (value != null) {
+                    throw new IllegalArgumentException("--" + name + " does not take a value");
+                }
+                flags.add(name);
+                continue;
+            }
+            if (value == null) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("--" + name + " requires a value");
+                }
+                value = args[++i];
+            }
+            options.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        return new CliArguments(args[0], options, flags);
+    }
+
+    String command() {
+        return command;
+    }
+
+    boolean flag(String name) {
+        return flags.contains(name);
+    }
+
+    /**
+     * @return The last value of the option, or {@code null} if it was not given.
+     */
+    String option(String name) {
+        List<String> values = options.get(name);
+        return values == null ? null : values.get(values.size() - 1);
+    }
+
+    List<String> options(String name) {
+        return options.getOrDefault(name, List.of());
+    }
+
+    String required(String name) {
+        String value = option(name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Missing required option --" + name);
+        }
+        return value;
+    }
+
+    /**
+     * @throws IllegalArgumentException If an option outside {@code allowed} was given.
+     */
+    void rejectUnknown(Set<String> allowed) {
+        for (String name : options.keySet()) {
+            if (!allowed.contains(name)) {
+                throw new IllegalArgumentException("Unknown option --" + name + " for " + command);
+            }
+        }
+        for (String name : flags) {
+            if (!allowed.contains(name)) {
+                throw new IllegalArgumentException("Unknown option --" + name + " for " + command);
+            }
+        }
+    }
+}
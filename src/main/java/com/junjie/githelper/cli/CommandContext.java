@@ -0,0 +1,156 @@
+package com.junjie.githelper.cli;
+
+import com.junjie.githelper.model.AppConfig;
+import com.junjie.githelper.model.LLMSettings;
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.service.CommitMessageBatch;
+import com.junjie.githelper.service.ConfigService;
+import com.junjie.githelper.service.ConfigStore;
+import com.junjie.githelper.service.GitService;
+import com.junjie.githelper.service.LLMService;
+import com.junjie.githelper.service.ProjectCommitMessage;
+import com.junjie.githelper.service.PromptEstimate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Configuration and services shared by the commands of one process. Services are created on first use,
+ * and the configuration is held by a {@link ConfigStore} that merges changes made on disk, so a long-running
+ * daemon picks up settings saved by the desktop application. Safe for concurrent use.
+ */
+final class CommandContext implements AutoCloseable {
+
+    private ConfigStore configStore;
+    private GitService gitService;
+    // Read by the configuration listener without the lock, which close() holds while the store flushes
+    private volatile LLMService llmService;
+
+    AppConfig config() {
+        return store().get();
+    }
+
+    private synchronized ConfigStore store() {
+        if (configStore == null) {
+            try {
+                configStore = new ConfigStore(new ConfigService());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to load configuration: " + e.getMessage(), e);
+            }
+            configStore.addListener(this::onConfigChanged);
+        }
+        return configStore;
+    }
+
+    private void onConfigChanged(AppConfig config) {
+        LLMService llm = llmService;
+        if (llm != null) {
+            llm.onSettingsChanged(config.llm_settings());
+        }
+    }
+
+    LLMSettings settings() {
+        return config().llm_settings();
+    }
+
+    synchronized GitService git() {
+        if (gitService == null) {
+            gitService = new GitService();
+        }
+        return gitService;
+    }
+
+    synchronized LLMService llm() {
+        if (llmService == null) {
+            llmService = new LLMService();
+        }
+        return llmService;
+    }
+
+    /**
+     * Finds a configured project by id, name or path. Any other Git working tree is used as an ad-hoc project
+     * with the default commit prompt.
+     * @throws IllegalArgumentException If the reference matches no project, or more than one.
+     */
+    Project resolveProject(String reference) {
+        AppConfig appConfig = config();
+        Path path = Path.of(reference).toAbsolutePath().normalize();
+        List<Project> matches = appConfig.projects().stream()
+            .filter(project -> reference.equals(project.id())
+                || reference.equals(project.name())
+                || path.equals(Path.of(project.path()).toAbsolutePath().normalize()))
+            .toList();
+        if (matches.size() > 1) {
+            throw new IllegalArgumentException("Project reference is ambiguous, use its id: " + reference);
+        }
+        if (matches.size() == 1) {
+            return matches.get(0);
+        }
+        if (Files.isDirectory(path.resolve(".git"))) {
+            return new Project(path.toString(), path.getFileName().toString(), path.toString());
+        }
+        throw new IllegalArgumentException("Unknown project: " + reference);
+    }
+
+    /**
+     * Generates a commit message for the staged changes of a project.
+     * @param onDelta Receives streamed fragments; {@code null} for a blocking request.
+     */
+    String generateMessage(Project project, boolean regenerate, Consumer<String> onDelta) throws Exception {
+        String diff = git().getStagedChanges(project);
+        if (diff.isEmpty()) {
+            throw new IllegalStateException("No staged changes in " + project.path());
+        }
+        String recentCommits = git().getRecentCommitMessages(project);
+        return llm().generateCommitMessage(settings(), project.custom_prompt(), diff, recentCommits, regenerate, onDelta);
+    }
+
+    /**
+     * Estimates the tokens and cost of {@link #generateMessage} without sending a request.
+     */
+    PromptEstimate estimateMessage(Project project) throws Exception {
+        String diff = git().getStagedChanges(project);
+        if (diff.isEmpty()) {
+            throw new IllegalStateException("No staged changes in " + project.path());
+        }
+        String recentCommits = git().getRecentCommitMessages(project);
+        return llm().estimateCommitMessage(settings(), project.custom_prompt(), diff, recentCommits);
+    }
+
+    /**
+     * Generates commit messages for the staged changes of several projects concurrently.
+     * @param onResult Receives each result as it completes, on a background thread.
+     * @return The results, in project order.
+     */
+    List<ProjectCommitMessage> generateMessages(List<Project> projects, boolean regenerate,
+                                                Consumer<ProjectCommitMessage> onResult) throws IOException {
+        return new CommitMessageBatch(git(), llm()).generate(projects, settings(), regenerate, onResult);
+    }
+
+    /**
+     * Remembers the watermark of a configured project's report, as the desktop application does.
+     */
+    void saveReportWatermark(Project project, String watermarkCommit) {
+        boolean configured = config().projects().stream().anyMatch(configuredProject -> configuredProject.id().equals(project.id()));
+        if (!configured || watermarkCommit == null) {
+            return;
+        }
+        store().update(config -> config.withProject(project.id(), configuredProject -> configuredProject.withLastReportCommit(watermarkCommit)));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (configStore != null) {
+            configStore.close();
+        }
+        if (gitService != null) {
+            gitService.close();
+        }
+        if (llmService != null) {
+            llmService.close();
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.junjie.githelper.cli;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.service.CommitLogFormatter;
+import com.junjie.githelper.service.CommitLogQuery;
+import com.junjie.githelper.service.CommitLogResult;
+import com.junjie.githelper.service.ConfigService;
+import com.junjie.githelper.service.DiffOptions;
+import com.junjie.githelper.service.ProjectCommitLogs;
+import com.junjie.githelper.service.ProjectCommitMessage;
+import com.junjie.githelper.service.PromptEstimate;
+import com.junjie.githelper.service.SpillBuffer;
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Command line entry point for scripts and batch jobs. It uses the configuration and services of the desktop
+ * application, but never loads JavaFX, so it starts quickly and runs on headless machines.
+ * <p>
+ * Results are written to stdout, as a single JSON document with {@code --json}; logs go to stderr.
+ * Exit codes: 0 on success, 1 if a command failed, 2 on invalid usage.
+ */
+public final class CommitPalCli implements AutoCloseable {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILURE = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final Duration METRICS_EXPORT_INTERVAL = Duration.ofSeconds(30);
+
+    private static final Set<String> FLAGS = Set.of(
+        "json", "regenerate", "stream", "all-projects", "merged", "include-diff", "since-last-report", "generate", "estimate", "verbose", "help");
+
+    private static final String USAGE = """
+            Usage: commit-pal <command> [options]
+
+            Commands:
+              generate  (--project <id|name|path>... | --all-projects) [--regenerate] [--stream] [--estimate]
+                        Generate a commit message for the staged changes. With several projects, the
+                        messages are generated concurrently, within the request quotas of the LLM
+                        endpoints, and printed as they complete; --stream is ignored then.
+                        With --estimate, only print the tokens and cost of one project's request.
+              commit    --project <id|name|path> (--message <text> | --message-file <file|-> | --generate)
+                        Commit the staged changes.
+              report    --from <yyyy-mm-dd> [--to <yyyy-mm-dd>] (--project <id|name|path>... | --all-projects)
+                        [--author <name>] [--path <path>]... [--include-diff] [--since-last-report] [--regenerate]
+                        [--merged]
+                        Generate a commit report per project, or with --merged one report over all of them.
+                        The repositories are read concurrently.
+              projects  List the configured projects.
+              daemon    [--socket <path>]
+                        Keep services warm and answer requests of the prepare-commit-msg hook on a
+                        Unix domain socket, ~/.commit-pal/daemon.sock by default. Metrics are written
+                        to ~/.commit-pal/metrics/daemon.prom and daemon.json every 30 seconds.
+
+            Common options:
+              --json     Write the result as JSON.
+              --verbose  Write debug logs to stderr.
+
+            A project is a configured project id or name, or the path of any Git working tree.
+            """;
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private final CommandContext context = new CommandContext();
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().serializeNulls().create();
+
+    record GenerateResult(String project, String message) {
+    }
+
+    record BatchGenerateResult(String project, String message, String error) {
+    }
+
+    record CommitResult(String project, String commit, String message) {
+    }
+
+    record ReportResult(String project, String from, String to, int commits, String watermarkCommit, String report, String error) {
+    }
+
+    record MergedReportResult(String from, String to, int commits, List<ReportResult> projects, String report, String error) {
+    }
+
+    record ProjectInfo(String id, String name, String path, String lastReportCommit) {
+    }
+
+    record ErrorResult(String error) {
+    }
+
+    CommitPalCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        // stdout is reserved for results
+        Logger.setOutput(System.err);
+        int exitCode;
+        try (CommitPalCli cli = new CommitPalCli(new PrintStream(System.out, true, StandardCharsets.UTF_8), System.err)) {
+            exitCode = cli.run(args);
+        }
+        System.exit(exitCode);
+    }
+
+    int run(String[] args) {
+        CliArguments arguments;
+        try {
+            arguments = CliArguments.parse(args, FLAGS);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        if (arguments.command() == null || arguments.flag("help") || arguments.command().equals("help")) {
+            (arguments.command() == null ? err : out).print(USAGE);
+            return arguments.command() == null ? EXIT_USAGE : EXIT_OK;
+        }
+        Logger.setDebugEnabled(arguments.flag("verbose"));
+
+        boolean json = arguments.flag("json");
+        try {
+            return switch (arguments.command()) {
+                case "generate" -> generate(arguments, json);
+                case "commit" -> commit(arguments, json);
+                case "report" -> report(arguments, json);
+                case "projects" -> projects(arguments, json);
+                case "daemon" -> daemon(arguments);
+                default -> throw new IllegalArgumentException("Unknown command: " + arguments.command());
+            };
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        } catch (Exception e) {
+            Logger.debug(() -> "Command failed: " + e);
+            if (json) {
+                out.println(gson.toJson(new ErrorResult(e.getMessage())));
+            } else {
+                err.println("Error: " + e.getMessage());
+            }
+            return EXIT_FAILURE;
+        }
+    }
+
+    private int generate(CliArguments arguments, boolean json) throws Exception {
+        arguments.rejectUnknown(Set.of("project", "all-projects", "regenerate", "stream", "estimate", "json", "verbose"));
+        boolean batch = arguments.flag("all-projects") || arguments.options("project").size() > 1;
+        if (batch && arguments.flag("estimate")) {
+            throw new IllegalArgumentException("--estimate needs a single --project");
+        }
+        if (batch) {
+            return generateBatch(arguments, json);
+        }
+        Project project = context.resolveProject(arguments.required("project"));
+        if (arguments.flag("estimate")) {
+            PromptEstimate estimate = context.estimateMessage(project);
+            out.println(json ? gson.toJson(estimate) : estimate.describe());
+            return EXIT_OK;
+        }
+        boolean stream = arguments.flag("stream") && !json;
+
+        String message = context.generateMessage(project, arguments.flag("regenerate"), stream ? this::printDelta : null);
+        if (json) {
+            out.println(gson.toJson(new GenerateResult(project.name(), message)));
+        } else if (stream) {
+            out.println();
+        } else {
+            out.println(message);
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * Generates the messages of several projects. Projects without staged changes are reported, not failed.
+     */
+    private int generateBatch(CliArguments arguments, boolean json) throws Exception {
+        List<Project> projects = new ArrayList<>();
+        if (arguments.flag("all-projects")) {
+            projects.addAll(context.config().projects());
+        }
+        for (String reference : arguments.options("project")) {
+            projects.add(context.resolveProject(reference));
+        }
+        if (projects.isEmpty()) {
+            throw new IllegalStateException("No projects are configured");
+        }
+
+        List<ProjectCommitMessage> results = context.generateMessages(projects, arguments.flag("regenerate"),
+            json ? result -> { } : this::printMessage);
+        if (json) {
+            out.println(gson.toJson(results.stream()
+                .map(result -> new BatchGenerateResult(result.project().name(), result.message(), result.error()))
+                .toList()));
+        }
+        return results.stream().anyMatch(result -> result.error() != null) ? EXIT_FAILURE : EXIT_OK;
+    }
+
+    private void printMessage(ProjectCommitMessage result) {
+        // Results arrive on several threads; keep each block together
+        synchronized (out) {
+            out.println("== " + result.project().name() + " ==");
+            if (result.error() != null) {
+                out.println("Error: " + result.error());
+            } else if (result.message() == null) {
+                out.println("No staged changes.");
+            } else {
+                out.println(result.message());
+            }
+            out.println();
+        }
+    }
+
+    private int commit(CliArguments arguments, boolean json) throws Exception {
+        arguments.rejectUnknown(Set.of("project", "message", "message-file", "generate", "regenerate", "json", "verbose"));
+        Project project = context.resolveProject(arguments.required("project"));
+
+        String message;
+        if (arguments.option("message") != null) {
+            message = arguments.option("message");
+        } else if (arguments.option("message-file") != null) {
+            String file = arguments.option("message-file");
+            message = file.equals("-")
+                ? new String(System.in.readAllBytes(), StandardCharsets.UTF_8)
+                : Files.readString(Path.of(file));
+        } else if (arguments.flag("generate")) {
+            message = context.generateMessage(project, arguments.flag("regenerate"), null);
+        } else {
+            throw new IllegalArgumentException("commit needs --message, --message-file or --generate");
+        }
+        if (message.isBlank()) {
+            throw new IllegalStateException("The commit message is empty");
+        }
+
+        String commitId = context.git().commit(project, message.strip());
+        if (json) {
+            out.println(gson.toJson(new CommitResult(project.name(), commitId, message.strip())));
+        } else {
+            out.println(commitId);
+        }
+        return EXIT_OK;
+    }
+
+    private int report(CliArguments arguments, boolean json) throws IOException {
+        arguments.rejectUnknown(Set.of("from", "to", "project", "all-projects", "merged", "author", "path", "include-diff",
+            "since-last-report", "regenerate", "json", "verbose"));
+        LocalDate from = parseDate(arguments.required("from"));
+        LocalDate to = arguments.option("to") != null ? parseDate(arguments.option("to")) : LocalDate.now();
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("--from cannot be after --to");
+        }
+
+        List<Project> projects = new ArrayList<>();
+        if (arguments.flag("all-projects")) {
+            projects.addAll(context.config().projects());
+        }
+        for (String reference : arguments.options("project")) {
+            projects.add(context.resolveProject(reference));
+        }
+        if (projects.isEmpty()) {
+            throw new IllegalArgumentException("report needs --project or --all-projects");
+        }
+
+        boolean sinceLastReport = arguments.flag("since-last-report");
+        List<ProjectCommitLogs> logs = context.git().getCommitLogEntries(projects,
+            project -> new CommitLogQuery(from, to, arguments.option("author"), arguments.options("path"),
+                sinceLastReport ? project.last_report_commit() : null, arguments.flag("include-diff"), DiffOptions.DEFAULT));
+        if (arguments.flag("merged")) {
+            return mergedReport(logs, from, to, arguments.flag("regenerate"), json);
+        }
+
+        List<ReportResult> results = new ArrayList<>();
+        for (ProjectCommitLogs projectLogs : logs) {
+            ReportResult result = reportProject(projectLogs, from, to, arguments.flag("regenerate"));
+            results.add(result);
+            if (!json) {
+                printReport(result);
+            }
+        }
+        if (json) {
+            out.println(gson.toJson(results));
+        }
+        return results.stream().anyMatch(result -> result.error() != null) ? EXIT_FAILURE : EXIT_OK;
+    }
+
+    private ReportResult reportProject(ProjectCommitLogs projectLogs, LocalDate from, LocalDate to, boolean regenerate) {
+        Project project = projectLogs.project();
+        CommitLogResult logs = projectLogs.result();
+        if (logs == null) {
+            return new ReportResult(project.name(), from.toString(), to.toString(), 0, null, null, projectLogs.error());
+        }
+        if (logs.entries().isEmpty()) {
+            return new ReportResult(project.name(), from.toString(), to.toString(), 0, logs.watermarkCommit(), null, null);
+        }
+        try (SpillBuffer commitLogs = new SpillBuffer()) {
+            CommitLogFormatter.write(commitLogs, logs.entries(), from, to);
+            String report = context.llm().generateWeeklyReport(context.settings(), context.config().getWeeklyReportPrompt(),
+                commitLogs, regenerate, null);
+            context.saveReportWatermark(project, logs.watermarkCommit());
+            return new ReportResult(project.name(), from.toString(), to.toString(), logs.entries().size(), logs.watermarkCommit(), report, null);
+        } catch (Exception e) {
+            Logger.debug(() -> "Report failed for " + project.name() + ": " + e);
+            return new ReportResult(project.name(), from.toString(), to.toString(), 0, null, null, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes one report over all projects. Watermarks are saved only if the report was generated, and only for the
+     * projects that could be read.
+     */
+    private int mergedReport(List<ProjectCommitLogs> logs, LocalDate from, LocalDate to, boolean regenerate, boolean json)
+            throws IOException {
+        List<ReportResult> projects = logs.stream()
+            .map(projectLogs -> new ReportResult(projectLogs.project().name(), from.toString(), to.toString(),
+                projectLogs.commitCount(), projectLogs.result() != null ? projectLogs.result().watermarkCommit() : null,
+                null, projectLogs.error()))
+            .toList();
+        int commits = logs.stream().mapToInt(ProjectCommitLogs::commitCount).sum();
+
+        String report = null;
+        String error = null;
+        if (commits > 0) {
+            try (SpillBuffer mergedLogs = new SpillBuffer()) {
+                CommitLogFormatter.writeMerged(mergedLogs, logs, from, to);
+                report = context.llm().generateMultiProjectReport(context.settings(), context.config().getWeeklyReportPrompt(),
+                    mergedLogs, logs, regenerate, null);
+            } catch (IOException | RuntimeException e) {
+                Logger.debug(() -> "Merged report failed: " + e);
+                error = e.getMessage();
+            }
+        }
+        if (report != null) {
+            for (ProjectCommitLogs projectLogs : logs) {
+                if (projectLogs.result() != null) {
+                    context.saveReportWatermark(projectLogs.project(), projectLogs.result().watermarkCommit());
+                }
+            }
+        }
+
+        MergedReportResult result = new MergedReportResult(from.toString(), to.toString(), commits, projects, report, error);
+        if (json) {
+            out.println(gson.toJson(result));
+        } else {
+            for (ReportResult project : projects) {
+                out.println("- " + project.project() + ": "
+                    + (project.error() != null ? "Error: " + project.error() : project.commits() + " commits"));
+            }
+            out.println();
+            out.println(error != null ? "Error: " + error : report != null ? report : "No commits found.");
+        }
+        boolean failed = error != null || projects.stream().anyMatch(project -> project.error() != null);
+        return failed ? EXIT_FAILURE : EXIT_OK;
+    }
+
+    private void printReport(ReportResult result) {
+        out.println("== " + result.project() + " (" + result.commits() + " commits, " + result.from() + " to " + result.to() + ") ==");
+        if (result.error() != null) {
+            out.println("Error: " + result.error());
+        } else if (result.report() == null) {
+            out.println("No commits found.");
+        } else {
+            out.println(result.report());
+        }
+        out.println();
+    }
+
+    private int projects(CliArguments arguments, boolean json) throws IOException {
+        arguments.rejectUnknown(Set.of("json", "verbose"));
+        List<ProjectInfo> projects = context.config().projects().stream()
+            .map(project -> new ProjectInfo(project.id(), project.name(), project.path(), project.last_report_commit()))
+            .toList();
+        if (json) {
+            out.println(gson.toJson(projects));
+        } else {
+            projects.forEach(project -> out.println(project.id() + "\t" + project.name() + "\t" + project.path()));
+        }
+        return EXIT_OK;
+    }
+
+    private int daemon(CliArguments arguments) throws IOException, InterruptedException {
+        arguments.rejectUnknown(Set.of("socket", "verbose"));
+        Path socket = arguments.option("socket") != null
+            ? Path.of(arguments.option("socket"))
+            : ConfigService.CONFIG_DIR.resolve(CommitPalDaemon.SOCKET_NAME);
+        try (CommitPalDaemon daemon = new CommitPalDaemon(context, socket)) {
+            Logger.startFileOutput(ConfigService.LOGS_DIR, "daemon");
+            daemon.start();
+            Metrics.startExport(ConfigService.METRICS_DIR.resolve("daemon"), METRICS_EXPORT_INTERVAL);
+            err.println("Listening on " + socket.toAbsolutePath());
+            daemon.awaitShutdown();
+        } finally {
+            Metrics.stopExport();
+        }
+        return EXIT_OK;
+    }
+
+    private void printDelta(String text) {
+        out.print(text);
+        out.flush();
+    }
+
+    private static LocalDate parseDate(String text) {
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date, expected yyyy-mm-dd: " + text);
+        }
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,278 @@
+package com.junjie.githelper.cli;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resident server for the prepare-commit-msg hook. It keeps the configuration, the open repositories and the
+ * LLM connections of one {@link CommandContext} warm, so a hook does not pay for JVM startup, repository
+ * opening and a TLS handshake on every commit.
+ * <p>
+ * Protocol: a client connects to the Unix domain socket, writes one JSON request terminated by a newline and
+ * reads the reply until the server closes the connection. Requests:
+ * <pre>
+ * {"command":"generate","repo":"/path/to/work-tree","regenerate":false,"raw":false}
+ * {"command":"ping"}
+ * {"command":"stats"}
+ * {"command":"shutdown"}
+ * </pre>
+ * {@code stats} answers with the daemon's metrics in the Prometheus text format.
+ * The reply is {@code {"ok":true,"message":...}} or {@code {"ok":false,"error":...}}; with {@code "raw":true}
+ * it is the bare commit message, or nothing if generation failed. Every connection is served on its own
+ * virtual thread; requests for the same repository run one at a time.
+ */
+final class CommitPalDaemon implements AutoCloseable {
+
+    static final String SOCKET_NAME = "daemon.sock";
+
+    private static final int MAX_REQUEST_BYTES = 64 * 1024;
+
+    private final CommandContext context;
+    private final Path socket;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final Map<String, ReentrantLock> repositoryLocks = new ConcurrentHashMap<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final Thread shutdownHook = new Thread(this::deleteSocket, "daemon-shutdown");
+    private ServerSocketChannel server;
+
+    record Request(String command, String repo, boolean regenerate, boolean raw) {
+    }
+
+    record Response(boolean ok, String message, String error) {
+    }
+
+    CommitPalDaemon(CommandContext context, Path socket) {
+        this.context = context;
+        this.socket = socket.toAbsolutePath();
+    }
+
+    /**
+     * Binds the socket, replacing a stale socket file left by a daemon that did not exit cleanly.
+     * @throws IllegalStateException If another daemon is already listening on the socket.
+     */
+    void start() throws IOException {
+        Files.createDirectories(socket.getParent());
+        if (Files.exists(socket)) {
+            if (isListening(socket)) {
+                throw new IllegalStateException("Another daemon is already listening on " + socket);
+            }
+            Files.delete(socket);
+        }
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        bind();
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        Thread.ofPlatform().name("daemon-acceptor").daemon(true).start(this::acceptLoop);
+        Logger.info("Daemon listening on " + socket);
+    }
+
+    /**
+     * Only the owner may ask for diffs of their repositories. The socket is bound in a directory only the owner
+     * can enter and moved into place once its permissions are restricted, so no one else can connect in between.
+     */
+    private void bind() throws IOException {
+        Path directory;
+        try {
+            // Short names, the path of a socket is limited to about 100 bytes
+            directory = Files.createTempDirectory(socket.getParent(), ".d",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+            Logger.debug("Cannot restrict socket permissions on this file system");
+            server.bind(UnixDomainSocketAddress.of(socket));
+            return;
+        }
+        Path bound = directory.resolve("s");
+        try {
+            server.bind(UnixDomainSocketAddress.of(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.move(bound, socket, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(bound);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Blocks until a shutdown request arrives or the daemon is closed.
+     */
+    void awaitShutdown() throws InterruptedException {
+        stopped.await();
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                Logger.error("Failed to accept daemon connection", e);
+                continue;
+            }
+            Thread.ofVirtual().name("daemon-client").start(() -> serve(channel));
+        }
+        stopped.countDown();
+    }
+
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            String line;
+            try {
+                line = readRequest(channel);
+            } catch (IllegalArgumentException e) {
+                // Not a request of ours; the rest is not read
+                Logger.info("Daemon request rejected: " + e.getMessage());
+                write(channel, gson.toJson(new Response(false, null, e.getMessage())) + "\n");
+                return;
+            }
+            if (line.isBlank()) {
+                // Liveness probe of a starting daemon
+                return;
+            }
+            Request request = null;
+            Response response;
+            try {
+                request = gson.fromJson(line, Request.class);
+                response = handle(request);
+            } catch (IllegalArgumentException | IllegalStateException | JsonParseException e) {
+                response = new Response(false, null, e.getMessage());
+            } catch (Exception e) {
+                Logger.error("Daemon request failed", e);
+                response = new Response(false, null, e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+            if (!response.ok()) {
+                Logger.info("Daemon request failed: " + response.error());
+            }
+
+            String reply;
+            if (request != null && request.raw()) {
+                reply = response.ok() ? response.message() : "";
+            } else {
+                reply = gson.toJson(response) + "\n";
+            }
+            write(channel, reply);
+        } catch (IOException e) {
+            Logger.debug(() -> "Daemon client disconnected: " + e.getMessage());
+        }
+    }
+
+    private static void write(SocketChannel channel, String reply) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(reply.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private Response handle(Request request) throws Exception {
+        if (request == null || request.command() == null) {
+            throw new IllegalArgumentException("Missing command");
+        }
+        return switch (request.command()) {
+            case "ping" -> new Response(true, "pong", null);
+            case "stats" -> new Response(true, Metrics.toPrometheus(), null);
+            case "generate" -> new Response(true, generate(request), null);
+            case "shutdown" -> {
+                Logger.info("Daemon shutdown requested");
+                stopped.countDown();
+                yield new Response(true, "bye", null);
+            }
+            default -> throw new IllegalArgumentException("Unknown command: " + request.command());
+        };
+    }
+
+    private String generate(Request request) throws Exception {
+        if (request.repo() == null || request.repo().isBlank()) {
+            throw new IllegalArgumentException("generate needs a repo");
+        }
+        Project project = context.resolveProject(request.repo());
+        // Hooks of one repository queue up, different repositories proceed in parallel
+        ReentrantLock lock = repositoryLocks.computeIfAbsent(project.path(), path -> new ReentrantLock());
+        lock.lock();
+        try {
+            long started = System.nanoTime();
+            String message = context.generateMessage(project, request.regenerate(), null);
+            Logger.info("Generated message for " + project.name() + " in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String readRequest(SocketChannel channel) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte next = buffer.get();
+                if (next == '\n') {
+                    return request.toString(StandardCharsets.UTF_8);
+                }
+                request.write(next);
+            }
+            buffer.clear();
+            if (request.size() > MAX_REQUEST_BYTES) {
+                throw new IllegalArgumentException("Request too large");
+            }
+        }
+        return request.toString(StandardCharsets.UTF_8);
+    }
+
+    private static boolean isListening(Path socket) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void deleteSocket() {
+        try {
+            Files.deleteIfExists(socket);
+        } catch (IOException e) {
+            Logger.debug(() -> "Failed to delete daemon socket: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            Logger.debug(() -> "Failed to close daemon socket: " + e.getMessage());
+        }
+        deleteSocket();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down, the hook deletes the socket as well
+        }
+        stopped.countDown();
+    }
+}
@@ -0,0 +1,119 @@
+package com.junjie.githelper.controller;
+
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.service.ProjectCommitMessage;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextArea;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shows the results of generating commit messages for all projects, one row per project in the order they
+ * complete. The message of the selected row can be edited before it is committed; edits are kept per project
+ * while other rows are selected.
+ */
+class BatchPanel {
+
+    private final ListView<ProjectCommitMessage> results;
+    private final TextArea message;
+    private final Label status;
+    // Edited messages by project id
+    private final Map<String, String> edits = new HashMap<>();
+    private int total;
+    private int committed;
+
+    BatchPanel(ListView<ProjectCommitMessage> results, TextArea message, Label status) {
+        this.results = results;
+        this.message = message;
+        this.status = status;
+        results.setPlaceholder(new Label("Generate commit messages for the staged changes of all projects at once."));
+        results.setCellFactory(listView -> new ListCell<>() {
+            @Override
+            protected void updateItem(ProjectCommitMessage item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : item.project().name() + "  —  " + summary(item));
+            }
+        });
+        results.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
+            if (oldValue != null && oldValue.message() != null && results.getItems().contains(oldValue)) {
+                edits.put(oldValue.project().id(), message.getText());
+            }
+            show(newValue);
+        });
+        message.setEditable(false);
+    }
+
+    void start(int projects) {
+        results.getItems().clear();
+        edits.clear();
+        total = projects;
+        committed = 0;
+        message.clear();
+        status.setText("Generating commit messages for " + projects + " projects...");
+    }
+
+    void add(ProjectCommitMessage result) {
+        results.getItems().add(result);
+        if (results.getSelectionModel().isEmpty() && result.message() != null) {
+            results.getSelectionModel().select(result);
+        }
+        status.setText(results.getItems().size() + committed + " of " + total + " done");
+    }
+
+    void finish(String text) {
+        status.setText(text);
+    }
+
+    /**
+     * @return The selected result with a message, or {@code null}.
+     */
+    ProjectCommitMessage selected() {
+        ProjectCommitMessage selected = results.getSelectionModel().getSelectedItem();
+        return selected != null && selected.message() != null ? selected : null;
+    }
+
+    /**
+     * @return The message to commit for the selected result, as edited.
+     */
+    String selectedMessage() {
+        return message.getText();
+    }
+
+    /**
+     * Removes a committed project's row.
+     */
+    void markCommitted(Project project) {
+        results.getItems().removeIf(result -> result.project().id().equals(project.id()));
+        edits.remove(project.id());
+        committed++;
+        status.setText("Committed " + project.name());
+    }
+
+    private void show(ProjectCommitMessage result) {
+        if (result == null) {
+            message.clear();
+            message.setEditable(false);
+        } else if (result.message() != null) {
+            message.setText(edits.getOrDefault(result.project().id(), result.message()));
+            message.setEditable(true);
+        } else {
+            message.setText(result.error() != null ? "Error: " + result.error() : "No staged changes.");
+            message.setEditable(false);
+        }
+    }
+
+    private static String summary(ProjectCommitMessage result) {
+        if (result.error() != null) {
+            return "failed";
+        }
+        if (result.message() == null) {
+            return "no staged changes";
+        }
+        String text = result.message().strip();
+        int newline = text.indexOf('\n');
+        return newline < 0 ? text : text.substring(0, newline);
+    }
+}
@@ -0,0 +1,365 @@
+package com.junjie.githelper.controller;
+
+import com.junjie.githelper.model.DiffFile;
+import javafx.application.Platform;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextFlow;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Virtualized view of a diff or of plain text such as commit logs, backed by a ListView.
+ * <p>
+ * Every file is a header row followed by blocks of at most {@link #BLOCK_LINES} lines, so only the rows
+ * on screen are laid out, however large the diff is. Large and binary files start collapsed; clicking a
+ * file row expands or collapses it. Line colouring is computed on a background thread the first time a
+ * block is shown, until then the block is displayed as plain text.
+ */
+class DiffView {
+
+    private static final int BLOCK_LINES = 200;
+    private static final int COLLAPSE_LINES = 400;
+
+    private static final String MONOSPACE = "-fx-font-family: monospace;";
+    private static final String[] LINE_STYLES = {
+        MONOSPACE + "-fx-fill: -color-fg-default;",
+        MONOSPACE + "-fx-fill: -color-success-fg;",
+        MONOSPACE + "-fx-fill: -color-danger-fg;",
+        MONOSPACE + "-fx-fill: -color-accent-fg;",
+        MONOSPACE + "-fx-fill: -color-fg-muted;"
+    };
+    private static final byte CONTEXT = 0;
+    private static final byte ADDED = 1;
+    private static final byte REMOVED = 2;
+    private static final byte HUNK = 3;
+    private static final byte META = 4;
+
+    private static final ExecutorService HIGHLIGHTER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "diff-highlighter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ListView<Row> listView;
+    private final Label placeholder = new Label();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    abstract static class Row {
+    }
+
+    static final class FileRow extends Row {
+        final DiffFile file;
+        boolean expanded;
+        int blockCount;
+
+        FileRow(DiffFile file) {
+            this.file = file;
+        }
+    }
+
+    static final class BlockRow extends Row {
+        final String text;
+        volatile List<Run> highlight;
+        boolean highlightRequested;
+
+        BlockRow(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * Consecutive lines of the same kind, rendered as one Text node.
+     */
+    private record Run(byte kind, String text) {
+    }
+
+    DiffView(ListView<Row> listView) {
+        this.listView = listView;
+        listView.setPlaceholder(placeholder);
+        listView.setCellFactory(view -> new RowCell());
+    }
+
+    /**
+     * Clears the view and shows a message instead.
+     */
+    void showMessage(String message) {
+        placeholder.setText(message);
+        listView.getItems().clear();
+    }
+
+    void showRows(List<Row> rows) {
+        listView.getItems().setAll(rows);
+        listView.scrollTo(0);
+    }
+
+    /**
+     * @return A thread-safe consumer that appends files to the view in batches. The current content is
+     *         replaced when the first batch arrives; files are discarded once {@code active} turns false.
+     */
+    Consumer<DiffFile> fileSink(BooleanSupplier active) {
+        return new FileSink(active);
+    }
+
+    /**
+     * Splits plain text into rows. Safe to call off the FX thread.
+     */
+    static List<Row> textRows(String text) {
+        return new ArrayList<>(blocks(text));
+    }
+
+    /**
+     * Splits streamed text into rows without reading it into one string first. Safe to call off the FX thread.
+     */
+    static List<Row> textRows(Reader text) throws IOException {
+        List<Row> rows = new ArrayList<>();
+        StringBuilder block = new StringBuilder();
+        int lines = 0;
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = text.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n' && ++lines == BLOCK_LINES) {
+                    block.append(buffer, start, i + 1 - start);
+                    rows.add(new BlockRow(block.toString()));
+                    block.setLength(0);
+                    lines = 0;
+                    start = i + 1;
+                }
+            }
+            block.append(buffer, start, read - start);
+        }
+        if (!block.isEmpty()) {
+            rows.add(new BlockRow(block.toString()));
+        }
+        return rows;
+    }
+
+    /**
+     * Builds the rows of a file: its header row, followed by its blocks unless the file starts collapsed.
+     * Safe to call off the FX thread.
+     */
+    static List<Row> fileRows(DiffFile file) {
+        FileRow fileRow = new FileRow(file);
+        List<Row> rows = new ArrayList<>();
+        rows.add(fileRow);
+        if (!file.binary() && file.additions() + file.deletions() <= COLLAPSE_LINES) {
+            List<BlockRow> blocks = fileBlocks(file);
+            fileRow.expanded = true;
+            fileRow.blockCount = blocks.size();
+            rows.addAll(blocks);
+        }
+        return rows;
+    }
+
+    private void toggle(FileRow fileRow) {
+        int index = listView.getItems().indexOf(fileRow);
+        if (index < 0) {
+            return;
+        }
+        if (fileRow.expanded) {
+            listView.getItems().remove(index + 1, index + 1 + fileRow.blockCount);
+            fileRow.blockCount = 0;
+        } else {
+            List<BlockRow> blocks = fileBlocks(fileRow.file);
+            listView.getItems().addAll(index + 1, blocks);
+            fileRow.blockCount = blocks.size();
+        }
+        fileRow.expanded = !fileRow.expanded;
+        listView.refresh();
+    }
+
+    private static List<BlockRow> fileBlocks(DiffFile file) {
+        List<BlockRow> blocks = new ArrayList<>(blocks(file.header()));
+        for (String hunk : file.hunks()) {
+            blocks.addAll(blocks(hunk));
+        }
+        return blocks;
+    }
+
+    private static List<BlockRow> blocks(String text) {
+        List<BlockRow> blocks = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = start;
+            for (int lines = 0; lines < BLOCK_LINES && end < text.length(); lines++) {
+                int lineEnd = text.indexOf('\n', end);
+                end = lineEnd < 0 ? text.length() : lineEnd + 1;
+            }
+            blocks.add(new BlockRow(text.substring(start, end)));
+            start = end;
+        }
+        return blocks;
+    }
+
+    private void requestHighlight(BlockRow block) {
+        if (block.highlightRequested) {
+            return;
+        }
+        block.highlightRequested = true;
+        HIGHLIGHTER.execute(() -> {
+            block.highlight = highlight(block.text);
+            // One refresh for all blocks highlighted in the meantime
+            if (refreshPending.compareAndSet(false, true)) {
+                Platform.runLater(() -> {
+                    refreshPending.set(false);
+                    listView.refresh();
+                });
+            }
+        });
+    }
+
+    private static List<Run> highlight(String text) {
+        List<Run> runs = new ArrayList<>();
+        int runStart = 0;
+        byte runKind = -1;
+        int lineStart = 0;
+        while (lineStart < text.length()) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            lineEnd = lineEnd < 0 ? text.length() : lineEnd + 1;
+            byte kind = kindOf(text, lineStart);
+            if (kind != runKind) {
+                if (runKind >= 0) {
+                    runs.add(new Run(runKind, text.substring(runStart, lineStart)));
+                }
+                runKind = kind;
+                runStart = lineStart;
+            }
+            lineStart = lineEnd;
+        }
+        if (runKind >= 0) {
+            runs.add(new Run(runKind, stripTrailingNewline(text.substring(runStart))));
+        }
+        return runs;
+    }
+
+    private static byte kindOf(String text, int lineStart) {
+        if (text.startsWith("+++ ", lineStart) || text.startsWith("--- ", lineStart)) {
+            int pathStart = lineStart + 4;
+            if (text.startsWith("a/", pathStart) || text.startsWith("b/", pathStart) || text.startsWith("/dev/null", pathStart)) {
+                return META;
+            }
+        }
+        if (text.startsWith("diff --git ", lineStart) || text.startsWith("index ", lineStart)) {
+            return META;
+        }
+        if (text.startsWith("@@", lineStart)) {
+            return HUNK;
+        }
+        if (text.startsWith("+", lineStart)) {
+            return ADDED;
+        }
+        if (text.startsWith("-", lineStart)) {
+            return REMOVED;
+        }
+        return CONTEXT;
+    }
+
+    private static String stripTrailingNewline(String text) {
+        return text.endsWith("\n") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private static String title(FileRow row) {
+        DiffFile file = row.file;
+        String marker = row.expanded ? "▼ " : "▶ ";
+        String stats = file.binary() ? "binary" : "+" + file.additions() + " -" + file.deletions();
+        return marker + file.path() + "  (" + stats + ")";
+    }
+
+    private final class RowCell extends ListCell<Row> {
+
+        RowCell() {
+            setOnMouseClicked(event -> {
+                if (getItem() instanceof FileRow fileRow) {
+                    toggle(fileRow);
+                }
+            });
+        }
+
+        @Override
+        protected void updateItem(Row row, boolean empty) {
+            super.updateItem(row, empty);
+            if (empty || row == null) {
+                setText(null);
+                setGraphic(null);
+                setStyle(null);
+            } else if (row instanceof FileRow fileRow) {
+                setGraphic(null);
+                setText(title(fileRow));
+                setStyle("-fx-font-weight: bold;");
+            } else if (row instanceof BlockRow block) {
+                setStyle(MONOSPACE);
+                List<Run> runs = block.highlight;
+                if (runs == null) {
+                    setGraphic(null);
+                    setText(stripTrailingNewline(block.text));
+                    requestHighlight(block);
+                } else {
+                    TextFlow flow = new TextFlow();
+                    for (Run run : runs) {
+                        Text text = new Text(run.text());
+                        text.setStyle(LINE_STYLES[run.kind()]);
+                        flow.getChildren().add(text);
+                    }
+                    setText(null);
+                    setGraphic(flow);
+                }
+            }
+        }
+    }
+
+    private final class FileSink implements Consumer<DiffFile> {
+        private final BooleanSupplier active;
+        private final List<Row> pending = new ArrayList<>();
+        private boolean flushScheduled;
+        private boolean started;
+
+        FileSink(BooleanSupplier active) {
+            this.active = active;
+        }
+
+        @Override
+        public void accept(DiffFile file) {
+            if (!active.getAsBoolean()) {
+                return;
+            }
+            List<Row> rows = fileRows(file);
+            synchronized (this) {
+                pending.addAll(rows);
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    Platform.runLater(this::flush);
+                }
+            }
+        }
+
+        private void flush() {
+            List<Row> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                flushScheduled = false;
+            }
+            if (!active.getAsBoolean()) {
+                return;
+            }
+            if (!started) {
+                started = true;
+                listView.getItems().setAll(batch);
+            } else {
+                listView.getItems().addAll(batch);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.junjie.githelper.controller;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
+import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
@@ -11,19 +12,45 @@ import javafx.scene.input.ClipboardContent;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import com.junjie.githelper.model.AppConfig;
+import com.junjie.githelper.model.DiffFile;
 import com.junjie.githelper.model.LLMSettings;
 import com.junjie.githelper.model.Project;
+import com.junjie.githelper.service.CommitLogFormatter;
+import com.junjie.githelper.service.CommitLogQuery;
+import com.junjie.githelper.service.CommitLogSummary;
+import com.junjie.githelper.service.CommitMessageBatch;
 import com.junjie.githelper.service.ConfigService;
+import com.junjie.githelper.service.ConfigStore;
+import com.junjie.githelper.service.DiffOptions;
 import com.junjie.githelper.service.GitService;
+import com.junjie.githelper.service.IndexWatcher;
 import com.junjie.githelper.service.LLMService;
+import com.junjie.githelper.service.ProjectCommitLogs;
+import com.junjie.githelper.service.ProjectCommitMessage;
+import com.junjie.githelper.service.SpillBuffer;
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
+import com.junjie.githelper.util.StartupTimer;
 
 public class MainViewController {
 
+    @FXML private BorderPane rootPane;
+
     // Left Pane
     @FXML private ListView<Project> projectListView;
     @FXML private Button addProjectButton;
@@ -33,23 +60,49 @@ public class MainViewController {
     @FXML private javafx.scene.control.TabPane mainTabPane;
     @FXML private javafx.scene.control.Tab commitTab;
     @FXML private javafx.scene.control.Tab weeklyReportTab;
+    @FXML private javafx.scene.control.Tab batchTab;
+    @FXML private javafx.scene.control.Tab statsTab;
 
     // Center Pane - Commit Tab
-    @FXML private TextArea stagedChangesTextArea;
+    @FXML private ListView<DiffView.Row> stagedChangesListView;
     @FXML private Button refreshButton;
     @FXML private TextArea commitMessageTextArea;
     @FXML private Button generateButton;
+    @FXML private Button regenerateButton;
+    @FXML private Button cancelButton;
     @FXML private Button copyButton;
     @FXML private Button commitButton;
+    @FXML private Label commitEstimateLabel;
     
+    // Center Pane - Stats Tab
+    @FXML private TextArea statsTextArea;
+
+    // Batch Commit Tab
+    @FXML private Button batchGenerateButton;
+    @FXML private Button batchRegenerateButton;
+    @FXML private Button batchCancelButton;
+    @FXML private Label batchStatusLabel;
+    @FXML private ListView<ProjectCommitMessage> batchResultsListView;
+    @FXML private TextArea batchMessageTextArea;
+    @FXML private Button batchCopyButton;
+    @FXML private Button batchCommitButton;
+
     // Center Pane - Weekly Report Tab
     @FXML private javafx.scene.control.DatePicker startDatePicker;
     @FXML private javafx.scene.control.DatePicker endDatePicker;
     @FXML private Button fetchLogsButton;
-    @FXML private TextArea commitLogsTextArea;
+    @FXML private TextField authorFilterTextField;
+    @FXML private TextField pathFilterTextField;
+    @FXML private CheckBox sinceLastReportCheckBox;
+    @FXML private CheckBox includeDiffCheckBox;
+    @FXML private CheckBox allProjectsCheckBox;
+    @FXML private ListView<DiffView.Row> commitLogsListView;
     @FXML private TextArea weeklyReportTextArea;
     @FXML private Button generateReportButton;
+    @FXML private Button regenerateReportButton;
+    @FXML private Button cancelReportButton;
     @FXML private Button copyReportButton;
+    @FXML private Label reportEstimateLabel;
 
     // Right Pane
     @FXML private TextField providerTextField;
@@ -62,29 +115,65 @@ public class MainViewController {
     @FXML private Button saveSettingsButton;
     @FXML private VBox commitPromptSection;
     @FXML private TextArea customPromptTextArea;
+    @FXML private TextField diffExcludesTextField;
     @FXML private Button savePromptButton;
     @FXML private VBox weeklyReportPromptSection;
     @FXML private TextArea weeklyReportPromptTextArea;
     @FXML private Button saveReportPromptButton;
 
-    private ConfigService configService;
+    private static final String STAGED_CHANGES_TASK = "staged-changes";
+    private static final String GENERATE_COMMIT_TASK = "generate-commit";
+    private static final String COMMIT_LOGS_TASK = "commit-logs";
+    private static final String GENERATE_REPORT_TASK = "generate-report";
+    private static final String BATCH_COMMIT_TASK = "batch-commit";
+    private static final String ESTIMATE_COMMIT_TASK = "estimate-commit";
+    private static final String ESTIMATE_REPORT_TASK = "estimate-report";
+    private static final String STARTUP_TASK = "startup";
+    private static final Duration METRICS_EXPORT_INTERVAL = Duration.ofSeconds(30);
+
+    private final TaskScheduler taskScheduler = new TaskScheduler();
+    private ConfigStore configStore;
     private GitService gitService;
     private LLMService llmService;
+    private IndexWatcher indexWatcher;
     private AppConfig appConfig;
+    private DiffView stagedChangesView;
+    private DiffView commitLogsView;
+    private StatsPanel statsPanel;
+    private BatchPanel batchPanel;
+    // Generation reads the loaded data, never the text shown in the views
+    private List<DiffFile> stagedFiles = List.of();
+    // Shared with a running report task, which retains it; released when replaced
+    private SpillBuffer fetchedLogs;
+    // HEAD of each project in the last fetched commit logs, becomes its report watermark once a report is generated
+    private Map<Project, String> fetchedLogsWatermarks = Map.of();
+    // Per-project logs when all projects were fetched, null for a single project
+    private List<ProjectCommitLogs> fetchedProjectLogs;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    /**
+     * Everything the controller needs that is too slow to build on the FX thread.
+     */
+    private record Startup(ConfigStore configStore, AppConfig appConfig, GitService gitService,
+                           LLMService llmService, IndexWatcher indexWatcher) {
+    }
 
     @FXML
     public void initialize() {
-        System.out.println("MainViewController initializing...");
-        configService = new ConfigService();
-        gitService = new GitService();
-        llmService = new LLMService();
-        try {
-            appConfig = configService.loadConfig();
-            populateUIFromConfig();
-        } catch (IOException e) {
-            // Handle error (e.g., show an alert)
-            e.printStackTrace();
-        }
+        Logger.debug("MainViewController initializing...");
+        stagedChangesView = new DiffView(stagedChangesListView);
+        commitLogsView = new DiffView(commitLogsListView);
+        statsPanel = new StatsPanel(statsTextArea);
+        batchPanel = new BatchPanel(batchResultsListView, batchMessageTextArea, batchStatusLabel);
+        Metrics.startExport(ConfigService.METRICS_DIR.resolve("app"), METRICS_EXPORT_INTERVAL);
+        // Show the window right away; configuration and services are loaded in the background
+        rootPane.setDisable(true);
+        projectListView.setPlaceholder(new Label("Loading..."));
+        taskScheduler.run(STARTUP_TASK, null, task -> loadStartup(), this::onStartupLoaded, e -> {
+            Logger.error("Failed to start", e);
+            projectListView.setPlaceholder(new Label("Failed to start: " + e.getMessage()));
+            ready.completeExceptionally(e);
+        });
         // Listen for selection changes in the project list
         projectListView.getSelectionModel().selectedItemProperty().addListener(
                 (observable, oldValue, newValue) -> onProjectSelected(newValue)
@@ -93,8 +182,10 @@ public class MainViewController {
         // Add button actions - Commit Tab
         addProjectButton.setOnAction(event -> onAddProject());
         removeProjectButton.setOnAction(event -> onRemoveProject());
-        refreshButton.setOnAction(event -> refreshStagedChanges());
-        generateButton.setOnAction(event -> onGenerateCommitMessage());
+        refreshButton.setOnAction(event -> refreshStagedChanges(true));
+        generateButton.setOnAction(event -> onGenerateCommitMessage(false));
+        regenerateButton.setOnAction(event -> onGenerateCommitMessage(true));
+        cancelButton.setOnAction(event -> onCancelCommitMessage());
         saveSettingsButton.setOnAction(event -> onSaveSettings());
         savePromptButton.setOnAction(event -> onSavePrompt());
         copyButton.setOnAction(event -> onCopy());
@@ -102,9 +193,18 @@ public class MainViewController {
         
         // Add button actions - Weekly Report Tab
         fetchLogsButton.setOnAction(event -> onFetchCommitLogs());
-        generateReportButton.setOnAction(event -> onGenerateWeeklyReport());
+        generateReportButton.setOnAction(event -> onGenerateWeeklyReport(false));
+        regenerateReportButton.setOnAction(event -> onGenerateWeeklyReport(true));
+        cancelReportButton.setOnAction(event -> onCancelReport());
         copyReportButton.setOnAction(event -> onCopyWeeklyReport());
         saveReportPromptButton.setOnAction(event -> onSaveReportPrompt());
+
+        // Add button actions - Batch Commit Tab
+        batchGenerateButton.setOnAction(event -> onGenerateBatch(false));
+        batchRegenerateButton.setOnAction(event -> onGenerateBatch(true));
+        batchCancelButton.setOnAction(event -> onCancelBatch());
+        batchCopyButton.setOnAction(event -> onCopyBatchMessage());
+        batchCommitButton.setOnAction(event -> onCommitBatchMessage());
         
         // Bind proxy input fields to checkbox state
         proxyHostTextField.disableProperty().bind(useProxyCheckBox.selectedProperty().not());
@@ -115,13 +215,100 @@ public class MainViewController {
         
         // Listen for Tab selection changes to show/hide corresponding prompt sections
         mainTabPane.getSelectionModel().selectedItemProperty().addListener(
-                (observable, oldTab, newTab) -> updatePromptSectionVisibility(newTab)
+                (observable, oldTab, newTab) -> {
+                    updatePromptSectionVisibility(newTab);
+                    statsPanel.setVisible(newTab == statsTab);
+                }
         );
         
         // Initialize prompt section visibility
         updatePromptSectionVisibility(mainTabPane.getSelectionModel().getSelectedItem());
     }
 
+    /**
+     * Completes once the configuration is shown and the services are usable.
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    private Startup loadStartup() {
+        ConfigStore configStore = null;
+        AppConfig appConfig = null;
+        try {
+            configStore = new ConfigStore(new ConfigService());
+            appConfig = configStore.get();
+        } catch (IOException e) {
+            // Handle error (e.g., show an alert)
+            Logger.error("Failed to load configuration", e);
+        }
+        StartupTimer.mark("configuration loaded");
+        GitService gitService = new GitService();
+        LLMService llmService = new LLMService();
+        IndexWatcher indexWatcher = startIndexWatcher(appConfig);
+        StartupTimer.mark("services created");
+        return new Startup(configStore, appConfig, gitService, llmService, indexWatcher);
+    }
+
+    private void onStartupLoaded(Startup startup) {
+        configStore = startup.configStore();
+        appConfig = startup.appConfig();
+        gitService = startup.gitService();
+        llmService = startup.llmService();
+        indexWatcher = startup.indexWatcher();
+        projectListView.setPlaceholder(null);
+        if (appConfig != null) {
+            populateUIFromConfig();
+            configStore.addListener(config -> Platform.runLater(() -> onConfigChangedOnDisk(config)));
+        }
+        rootPane.setDisable(false);
+        StartupTimer.mark("configuration shown");
+        ready.complete(null);
+    }
+
+    private void onCancelCommitMessage() {
+        if (taskScheduler.cancel(GENERATE_COMMIT_TASK)) {
+            commitMessageTextArea.setText("Generation cancelled.");
+        }
+    }
+
+    private void onCancelReport() {
+        if (taskScheduler.cancel(COMMIT_LOGS_TASK)) {
+            commitLogsView.showMessage("Fetching cancelled.");
+        }
+        if (taskScheduler.cancel(GENERATE_REPORT_TASK)) {
+            weeklyReportTextArea.setText("Generation cancelled.");
+        }
+    }
+
+    private void onCancelBatch() {
+        if (taskScheduler.cancel(BATCH_COMMIT_TASK)) {
+            batchPanel.finish("Generation cancelled.");
+        }
+    }
+
+    /**
+     * Cancels background work and releases repositories and connections. Called when the application exits.
+     */
+    public void shutdown() {
+        if (indexWatcher != null) {
+            indexWatcher.close();
+        }
+        taskScheduler.shutdown();
+        statsPanel.setVisible(false);
+        Metrics.stopExport();
+        if (gitService != null) {
+            gitService.close();
+        }
+        if (llmService != null) {
+            llmService.close();
+        }
+        if (configStore != null) {
+            configStore.close();
+        }
+        releaseFetchedLogs();
+    }
+
     private void onCopy() {
         Clipboard clipboard = Clipboard.getSystemClipboard();
         ClipboardContent content = new ClipboardContent();
@@ -151,11 +338,11 @@ public class MainViewController {
             alert.showAndWait();
             
             // Refresh staged changes
-            refreshStagedChanges();
+            refreshStagedChanges(true);
             commitMessageTextArea.clear();
         } catch (Exception e) {
             // Show error alert
-            e.printStackTrace();
+            Logger.error("Failed to commit", e);
         }
     }
 
@@ -183,24 +370,18 @@ public class MainViewController {
                 proxyHostTextField.getText(),
                 proxyPort,
                 useProxyCheckBox.isSelected()
-        );
-        appConfig = new AppConfig(appConfig.version(), newSettings, appConfig.projects(), appConfig.selected_project_id());
-        try {
-            configService.saveConfig(appConfig);
-            // Show confirmation alert
-            Alert alert = new Alert(Alert.AlertType.INFORMATION);
-            alert.setTitle("Settings Saved");
-            alert.setHeaderText(null);
-            alert.setContentText("LLM and proxy settings have been saved successfully.");
-            alert.showAndWait();
-        } catch (IOException e) {
-            e.printStackTrace();
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Error");
-            alert.setHeaderText("Failed to save settings");
-            alert.setContentText("An error occurred while saving the settings: " + e.getMessage());
-            alert.showAndWait();
-        }
+        ).withRoutingOf(savedSettings());
+        appConfig = configStore.update(config -> config.withLlmSettings(newSettings));
+        llmService.onSettingsChanged(newSettings);
+        // Another model may count and price the prompts differently
+        estimateCommitMessage(projectListView.getSelectionModel().getSelectedItem(), stagedFiles);
+        estimateReport();
+        // Show confirmation alert
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Settings Saved");
+        alert.setHeaderText(null);
+        alert.setContentText("LLM and proxy settings have been saved successfully.");
+        alert.showAndWait();
     }
 
     private void onSavePrompt() {
@@ -211,41 +392,33 @@ public class MainViewController {
         }
 
         String newPrompt = customPromptTextArea.getText();
-        Project updatedProject = new Project(
-                selectedProject.id(),
-                selectedProject.name(),
-                selectedProject.path(),
-                newPrompt
-        );
-
-        var updatedProjects = new ArrayList<>(appConfig.projects());
-        int projectIndex = updatedProjects.indexOf(selectedProject);
+        // Comma separated .gitignore patterns; none means only the default ones apply
+        List<String> excludes = Arrays.stream(diffExcludesTextField.getText().split(","))
+                .map(String::trim)
+                .filter(pattern -> !pattern.isEmpty())
+                .toList();
+        List<String> newExcludes = excludes.isEmpty() ? null : excludes;
+        int projectIndex = projectListView.getItems().indexOf(selectedProject);
         if (projectIndex != -1) {
-            updatedProjects.set(projectIndex, updatedProject);
-            appConfig = new AppConfig(appConfig.version(), appConfig.llm_settings(), updatedProjects, appConfig.selected_project_id());
-            try {
-                configService.saveConfig(appConfig);
-                // Refresh the list view to reflect the change
-                projectListView.getItems().set(projectIndex, updatedProject);
-                Alert alert = new Alert(Alert.AlertType.INFORMATION);
-                alert.setTitle("Prompt Saved");
-                alert.setHeaderText(null);
-                alert.setContentText("Commit prompt has been saved.");
-                alert.showAndWait();
-            } catch (IOException e) {
-                e.printStackTrace(); // Show error alert
-                Alert alert = new Alert(Alert.AlertType.ERROR);
-                alert.setTitle("Error");
-                alert.setHeaderText("Failed to save");
-                alert.setContentText("An error occurred while saving the commit prompt: " + e.getMessage());
-                alert.showAndWait();
-            }
+            appConfig = configStore.update(config -> config.withProject(selectedProject.id(),
+                    project -> project.withCustomPrompt(newPrompt).withDiffExcludes(newExcludes)));
+            // Refresh the list view to reflect the change
+            projectListView.getItems().set(projectIndex,
+                    selectedProject.withCustomPrompt(newPrompt).withDiffExcludes(newExcludes));
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Prompt Saved");
+            alert.setHeaderText(null);
+            alert.setContentText("Commit prompt has been saved.");
+            alert.showAndWait();
         }
     }
 
-    private void onGenerateCommitMessage() {
-        String diffContent = stagedChangesTextArea.getText();
-        if (diffContent.isEmpty() || diffContent.startsWith("No staged changes")) {
+    /**
+     * @param regenerate Ask the model again even if an identical request was answered before.
+     */
+    private void onGenerateCommitMessage(boolean regenerate) {
+        List<DiffFile> files = stagedFiles;
+        if (files.isEmpty()) {
             commitMessageTextArea.setText("There are no staged changes to generate a commit message from.");
             return;
         }
@@ -277,54 +450,234 @@ public class MainViewController {
                 proxyHostTextField.getText(),
                 proxyPort,
                 useProxyCheckBox.isSelected()
-        );
+        ).withRoutingOf(savedSettings());
+
+        // A second click with identical inputs joins the running request instead of paying for another one
+        List<Object> fingerprint = List.of(selectedProject.id(), settings, customPrompt, files, regenerate);
+        if (taskScheduler.isRunning(GENERATE_COMMIT_TASK, fingerprint)) {
+            return;
+        }
 
         commitMessageTextArea.setText("Generating commit message...");
-        new Thread(() -> {
+        taskScheduler.run(GENERATE_COMMIT_TASK, fingerprint,
+                task -> {
+                    // The prompt gets a leaner diff than the one shown: less context, renames, noise summarized
+                    String diffContent = gitService.getStagedChanges(selectedProject);
+                    String recentCommits = gitService.getRecentCommitMessages(selectedProject);
+                    return llmService.generateCommitMessage(settings, customPrompt, diffContent, recentCommits,
+                            regenerate, new TextAreaAppender(commitMessageTextArea, task::isActive));
+                },
+                commitMessage -> commitMessageTextArea.setText(commitMessage),
+                e -> {
+                    commitMessageTextArea.setText("Error: " + e.getMessage());
+                    Logger.error("Failed to generate commit message", e);
+                });
+    }
+
+    /**
+     * Generates commit messages for the staged changes of every project, showing each as it completes.
+     * Requests are limited by the quotas of the LLM endpoints, so many projects do not run into 429 responses.
+     */
+    private void onGenerateBatch(boolean regenerate) {
+        List<Project> projects = List.copyOf(projectListView.getItems());
+        if (projects.isEmpty()) {
+            batchPanel.finish("Please add a project.");
+            return;
+        }
+
+        // Parse proxy port
+        Integer proxyPort = null;
+        if (!proxyPortTextField.getText().trim().isEmpty()) {
             try {
-                String recentCommits = gitService.getRecentCommitMessages(selectedProject);
-                String commitMessage = llmService.generateCommitMessage(settings, customPrompt, diffContent, recentCommits);
-                Platform.runLater(() -> commitMessageTextArea.setText(commitMessage));
-            } catch (Exception e) {
-                Platform.runLater(() -> commitMessageTextArea.setText("Error: " + e.getMessage()));
-                e.printStackTrace();
+                proxyPort = Integer.parseInt(proxyPortTextField.getText().trim());
+            } catch (NumberFormatException e) {
+                batchPanel.finish("Error: Invalid proxy port number.");
+                return;
+            }
+        }
+
+        LLMSettings settings = new LLMSettings(
+                providerTextField.getText(),
+                apiKeyField.getText(),
+                modelTextField.getText(),
+                baseUrlTextField.getText(),
+                proxyHostTextField.getText(),
+                proxyPort,
+                useProxyCheckBox.isSelected()
+        ).withRoutingOf(savedSettings());
+
+        List<Object> fingerprint = List.of(projects, settings, regenerate);
+        if (taskScheduler.isRunning(BATCH_COMMIT_TASK, fingerprint)) {
+            return;
+        }
+
+        batchPanel.start(projects.size());
+        CommitMessageBatch batch = new CommitMessageBatch(gitService, llmService);
+        taskScheduler.run(BATCH_COMMIT_TASK, fingerprint,
+                task -> batch.generate(projects, settings, regenerate, result -> Platform.runLater(() -> {
+                    if (task.isActive()) {
+                        batchPanel.add(result);
+                    }
+                })),
+                results -> {
+                    long generated = results.stream().filter(result -> result.message() != null).count();
+                    long failed = results.stream().filter(result -> result.error() != null).count();
+                    batchPanel.finish(generated + " generated, " + failed + " failed, "
+                            + (results.size() - generated - failed) + " without staged changes");
+                },
+                e -> {
+                    batchPanel.finish("Error: " + e.getMessage());
+                    Logger.error("Failed to generate commit messages", e);
+                });
+    }
+
+    private void onCopyBatchMessage() {
+        if (batchPanel.selected() == null) {
+            return;
+        }
+        Clipboard clipboard = Clipboard.getSystemClipboard();
+        ClipboardContent content = new ClipboardContent();
+        content.putString(batchPanel.selectedMessage());
+        clipboard.setContent(content);
+    }
+
+    private void onCommitBatchMessage() {
+        ProjectCommitMessage selected = batchPanel.selected();
+        if (selected == null || batchPanel.selectedMessage().isBlank()) {
+            return;
+        }
+        Project project = selected.project();
+        try {
+            gitService.commit(project, batchPanel.selectedMessage().strip());
+            batchPanel.markCommitted(project);
+            if (project.equals(projectListView.getSelectionModel().getSelectedItem())) {
+                refreshStagedChanges(true);
             }
-        }).start();
+        } catch (Exception e) {
+            batchPanel.finish("Failed to commit " + project.name() + ": " + e.getMessage());
+            Logger.error("Failed to commit", e);
+        }
     }
 
     private void onProjectSelected(Project selectedProject) {
         if (selectedProject != null) {
             // Update the custom prompt text area
             customPromptTextArea.setText(selectedProject.custom_prompt());
-            refreshStagedChanges();
+            diffExcludesTextField.setText(selectedProject.diff_excludes() == null
+                    ? "" : String.join(", ", selectedProject.diff_excludes()));
+            refreshStagedChanges(true);
             // TODO: Update and save the selected_project_id in the config
         } else {
-            stagedChangesTextArea.clear();
+            stagedFiles = List.of();
+            stagedChangesView.showMessage("");
         }
     }
 
-    private void refreshStagedChanges() {
+    /**
+     * Keeps the staged changes view current when the index changes outside the application, e.g. after
+     * {@code git add} in a terminal.
+     */
+    private IndexWatcher startIndexWatcher(AppConfig appConfig) {
+        try {
+            IndexWatcher indexWatcher = new IndexWatcher(project -> Platform.runLater(() -> {
+                Project selectedProject = projectListView.getSelectionModel().getSelectedItem();
+                if (selectedProject != null && selectedProject.id().equals(project.id())) {
+                    refreshStagedChanges(false);
+                }
+            }));
+            if (appConfig != null) {
+                appConfig.projects().forEach(indexWatcher::watch);
+            }
+            return indexWatcher;
+        } catch (IOException e) {
+            Logger.error("Failed to start index watcher", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param showLoading Replace the view with a placeholder while loading; background refreshes keep the old diff visible.
+     */
+    private void refreshStagedChanges(boolean showLoading) {
         Project selectedProject = projectListView.getSelectionModel().getSelectedItem();
         if (selectedProject == null) {
-            stagedChangesTextArea.setText("Please select a project.");
+            stagedFiles = List.of();
+            stagedChangesView.showMessage("Please select a project.");
+            estimateCommitMessage(null, stagedFiles);
             return;
         }
 
-        stagedChangesTextArea.setText("Loading...");
-        // Run git operation in a background thread
-        new Thread(() -> {
-            try {
-                String changes = gitService.getStagedChanges(selectedProject);
-                Platform.runLater(() -> {
-                    stagedChangesTextArea.setText(changes.isEmpty() ? "No staged changes found." : changes);
-                });
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    stagedChangesTextArea.setText("Error loading changes: " + e.getMessage());
+        if (showLoading) {
+            stagedFiles = List.of();
+            stagedChangesView.showMessage("Loading...");
+        } else {
+            // A load that is already running may have read the index before it changed
+            taskScheduler.cancel(STAGED_CHANGES_TASK);
+        }
+        // Run git operation in the background; selecting another project cancels the previous load
+        taskScheduler.run(STAGED_CHANGES_TASK, selectedProject.path(),
+                task -> gitService.getStagedDiff(selectedProject, stagedChangesView.fileSink(task::isActive)),
+                files -> {
+                    stagedFiles = files;
+                    if (files.isEmpty()) {
+                        stagedChangesView.showMessage("No staged changes found.");
+                    }
+                    estimateCommitMessage(selectedProject, files);
+                },
+                e -> {
+                    stagedFiles = List.of();
+                    stagedChangesView.showMessage("Error loading changes: " + e.getMessage());
+                    estimateCommitMessage(null, stagedFiles);
+                    Logger.error("Failed to load staged changes", e);
                 });
-                e.printStackTrace();
-            }
-        }).start();
+    }
+
+    /**
+     * @return The saved LLM settings, or {@code null} if the configuration could not be loaded.
+     */
+    private LLMSettings savedSettings() {
+        return appConfig != null ? appConfig.llm_settings() : null;
+    }
+
+    /**
+     * Shows the tokens and cost of generating a commit message for the staged changes, with the saved settings,
+     * before anything is sent. Counting a large diff takes a moment, so it runs in the background.
+     */
+    private void estimateCommitMessage(Project project, List<DiffFile> files) {
+        commitEstimateLabel.setText("");
+        LLMSettings settings = savedSettings();
+        if (project == null || files.isEmpty() || settings == null) {
+            taskScheduler.cancel(ESTIMATE_COMMIT_TASK);
+            return;
+        }
+        String customPrompt = customPromptTextArea.getText();
+        taskScheduler.run(ESTIMATE_COMMIT_TASK, List.of(project, settings, customPrompt, files),
+                task -> llmService.estimateCommitMessage(settings, customPrompt,
+                        gitService.getStagedChanges(project), gitService.getRecentCommitMessages(project)),
+                estimate -> commitEstimateLabel.setText(estimate.describe()),
+                e -> Logger.error("Failed to estimate the commit message prompt", e));
+    }
+
+    /**
+     * Shows the tokens and cost of generating a report from the fetched commit logs, with the saved settings.
+     */
+    private void estimateReport() {
+        reportEstimateLabel.setText("");
+        SpillBuffer commitLogs = fetchedLogs;
+        LLMSettings settings = savedSettings();
+        if (commitLogs == null || commitLogs.isEmpty() || settings == null) {
+            taskScheduler.cancel(ESTIMATE_REPORT_TASK);
+            return;
+        }
+        String reportPrompt = weeklyReportPromptTextArea.getText();
+        List<ProjectCommitLogs> projectLogs = fetchedProjectLogs;
+        // The task holds the logs until it is done, or releases them if it never starts
+        taskScheduler.run(ESTIMATE_REPORT_TASK, List.of(settings, reportPrompt, commitLogs), commitLogs.retain(),
+                task -> projectLogs != null
+                        ? llmService.estimateMultiProjectReport(settings, reportPrompt, commitLogs, projectLogs)
+                        : llmService.estimateWeeklyReport(settings, reportPrompt, commitLogs),
+                estimate -> reportEstimateLabel.setText(estimate.describe()),
+                e -> Logger.error("Failed to estimate the commit report prompt", e));
     }
 
     private void onRemoveProject() {
@@ -345,22 +698,14 @@ public class MainViewController {
 
         confirmAlert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                var updatedProjects = new ArrayList<>(appConfig.projects());
-                updatedProjects.remove(selectedProject);
-
-                appConfig = new AppConfig(
-                        appConfig.version(),
-                        appConfig.llm_settings(),
-                        updatedProjects,
-                        appConfig.selected_project_id()
-                );
-
-                try {
-                    configService.saveConfig(appConfig);
-                    projectListView.getItems().setAll(appConfig.projects());
-                } catch (IOException e) {
-                    e.printStackTrace(); // Show error alert
+                appConfig = configStore.update(config -> config.withProjects(config.projects().stream()
+                        .filter(project -> !project.id().equals(selectedProject.id()))
+                        .toList()));
+                gitService.releaseRepository(selectedProject);
+                if (indexWatcher != null) {
+                    indexWatcher.unwatch(selectedProject);
                 }
+                projectListView.getItems().setAll(appConfig.projects());
             }
         });
     }
@@ -376,34 +721,17 @@ public class MainViewController {
                 Project newProject = new Project(
                         UUID.randomUUID().toString(),
                         selectedDirectory.getName(),
-                        selectedDirectory.getAbsolutePath(),
-                        """
-                           Please generate a concise commit message based on the code changes.
-
-                           Requirements:
-
-                           - The message should follow the Conventional Commits specification.
-                           - Use present tense (e.g., 'add feature' not 'added feature').
-                           - Only output the commit message content, without any markdown formatting.
-                           - in chinese.
-                        """
-                );
-
-                var updatedProjects = new ArrayList<>(appConfig.projects());
-                updatedProjects.add(newProject);
-
-                appConfig = new AppConfig(
-                        appConfig.version(),
-                        appConfig.llm_settings(),
-                        updatedProjects,
-                        appConfig.selected_project_id()
+                        selectedDirectory.getAbsolutePath()
                 );
 
-                try {
-                    configService.saveConfig(appConfig);
-                    projectListView.getItems().setAll(appConfig.projects());
-                } catch (IOException e) {
-                    e.printStackTrace(); // Show error alert
+                appConfig = configStore.update(config -> {
+                    var updatedProjects = new ArrayList<>(config.projects());
+                    updatedProjects.add(newProject);
+                    return config.withProjects(updatedProjects);
+                });
+                projectListView.getItems().setAll(appConfig.projects());
+                if (indexWatcher != null) {
+                    indexWatcher.watch(newProject);
                 }
             } else {
                 // Show an alert that it's not a valid git repo
@@ -435,23 +763,92 @@ public class MainViewController {
             }
         });
 
+        showSettings(appConfig.llm_settings());
+
+        // Populate Weekly Report Prompt
+        weeklyReportPromptTextArea.setText(appConfig.getWeeklyReportPrompt());
+    }
+
+    private void showSettings(LLMSettings settings) {
         // Populate LLM Settings
-        providerTextField.setText(appConfig.llm_settings().provider());
-        apiKeyField.setText(appConfig.llm_settings().api_key());
-        modelTextField.setText(appConfig.llm_settings().model());
-        baseUrlTextField.setText(appConfig.llm_settings().base_url());
-        
+        providerTextField.setText(settings.provider());
+        apiKeyField.setText(settings.api_key());
+        modelTextField.setText(settings.model());
+        baseUrlTextField.setText(settings.base_url());
+
         // Populate Proxy Settings
-        useProxyCheckBox.setSelected(Boolean.TRUE.equals(appConfig.llm_settings().use_proxy()));
-        if (appConfig.llm_settings().proxy_host() != null) {
-            proxyHostTextField.setText(appConfig.llm_settings().proxy_host());
+        useProxyCheckBox.setSelected(Boolean.TRUE.equals(settings.use_proxy()));
+        if (settings.proxy_host() != null) {
+            proxyHostTextField.setText(settings.proxy_host());
         }
-        if (appConfig.llm_settings().proxy_port() != null) {
-            proxyPortTextField.setText(String.valueOf(appConfig.llm_settings().proxy_port()));
+        if (settings.proxy_port() != null) {
+            proxyPortTextField.setText(String.valueOf(settings.proxy_port()));
+        }
+    }
+
+    /**
+     * @return Whether the settings fields still show these settings, i.e. have not been edited since.
+     */
+    private boolean isShowingSettings(LLMSettings settings) {
+        return Objects.equals(providerTextField.getText(), settings.provider())
+                && Objects.equals(apiKeyField.getText(), settings.api_key())
+                && Objects.equals(modelTextField.getText(), settings.model())
+                && Objects.equals(baseUrlTextField.getText(), settings.base_url())
+                && useProxyCheckBox.isSelected() == Boolean.TRUE.equals(settings.use_proxy());
+    }
+
+    /**
+     * Shows a configuration that another process changed on disk, merged with the changes made here. Text that
+     * is being edited is kept.
+     */
+    private void onConfigChangedOnDisk(AppConfig config) {
+        AppConfig previous = appConfig;
+        appConfig = config;
+
+        if (!config.projects().equals(previous.projects())) {
+            Map<String, Project> previousById = previous.projects().stream()
+                    .collect(Collectors.toMap(Project::id, project -> project, (first, second) -> first));
+            Map<String, Project> currentById = config.projects().stream()
+                    .collect(Collectors.toMap(Project::id, project -> project, (first, second) -> first));
+            previousById.forEach((id, project) -> {
+                Project current = currentById.get(id);
+                if (current == null || !current.path().equals(project.path())) {
+                    gitService.releaseRepository(project);
+                    if (indexWatcher != null) {
+                        indexWatcher.unwatch(project);
+                    }
+                }
+            });
+            currentById.forEach((id, project) -> {
+                Project old = previousById.get(id);
+                if (indexWatcher != null && (old == null || !old.path().equals(project.path()))) {
+                    indexWatcher.watch(project);
+                }
+            });
+
+            Project selected = projectListView.getSelectionModel().getSelectedItem();
+            String editedPrompt = selected != null && !customPromptTextArea.getText().equals(selected.custom_prompt())
+                    ? customPromptTextArea.getText() : null;
+            projectListView.getItems().setAll(config.projects());
+            if (selected != null && currentById.containsKey(selected.id())) {
+                projectListView.getSelectionModel().select(currentById.get(selected.id()));
+                if (editedPrompt != null) {
+                    customPromptTextArea.setText(editedPrompt);
+                }
+            }
+        }
+
+        if (!config.llm_settings().equals(previous.llm_settings())) {
+            llmService.onSettingsChanged(config.llm_settings());
+            if (isShowingSettings(previous.llm_settings())) {
+                showSettings(config.llm_settings());
+            }
+        }
+
+        if (!config.getWeeklyReportPrompt().equals(previous.getWeeklyReportPrompt())
+                && weeklyReportPromptTextArea.getText().equals(previous.getWeeklyReportPrompt())) {
+            weeklyReportPromptTextArea.setText(config.getWeeklyReportPrompt());
         }
-        
-        // Populate Weekly Report Prompt
-        weeklyReportPromptTextArea.setText(appConfig.getWeeklyReportPrompt());
     }
     
     // ==================== Weekly Report Methods ====================
@@ -469,9 +866,14 @@ public class MainViewController {
     }
     
     private void onFetchCommitLogs() {
+        boolean allProjects = allProjectsCheckBox.isSelected();
         Project selectedProject = projectListView.getSelectionModel().getSelectedItem();
-        if (selectedProject == null) {
-            commitLogsTextArea.setText("Please select a project.");
+        if (allProjects && (appConfig == null || appConfig.projects().isEmpty())) {
+            commitLogsView.showMessage("Please add a project.");
+            return;
+        }
+        if (!allProjects && selectedProject == null) {
+            commitLogsView.showMessage("Please select a project.");
             return;
         }
         
@@ -479,34 +881,134 @@ public class MainViewController {
         java.time.LocalDate endDate = endDatePicker.getValue();
         
         if (startDate == null || endDate == null) {
-            commitLogsTextArea.setText("Please select a start and end date.");
+            commitLogsView.showMessage("Please select a start and end date.");
             return;
         }
         
         if (startDate.isAfter(endDate)) {
-            commitLogsTextArea.setText("Start date cannot be after end date.");
+            commitLogsView.showMessage("Start date cannot be after end date.");
             return;
         }
         
-        commitLogsTextArea.setText("Fetching commit logs...");
-        
-        // Fetch logs in a background thread (without code diffs to avoid excessive context length)
-        new Thread(() -> {
-            try {
-                String logs = gitService.getCommitLogs(selectedProject, startDate, endDate, false);
-                Platform.runLater(() -> commitLogsTextArea.setText(logs));
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    commitLogsTextArea.setText("Failed to fetch commit logs: " + e.getMessage());
-                    e.printStackTrace();
+        List<String> paths = Arrays.stream(pathFilterTextField.getText().split(","))
+                .map(String::trim)
+                .filter(path -> !path.isEmpty())
+                .toList();
+        boolean sinceLastReport = sinceLastReportCheckBox.isSelected();
+        String author = authorFilterTextField.getText();
+        boolean includeDiff = includeDiffCheckBox.isSelected();
+
+        commitLogsView.showMessage("Fetching commit logs...");
+        releaseFetchedLogs();
+        fetchedLogsWatermarks = Map.of();
+        fetchedProjectLogs = null;
+
+        if (allProjects) {
+            List<Project> projects = List.copyOf(appConfig.projects());
+            List<Object> fingerprint = List.of(projects, startDate, endDate, String.valueOf(author), paths, sinceLastReport, includeDiff);
+            // Every repository is read at the same time; a project that fails is reported in the log
+            taskScheduler.run(COMMIT_LOGS_TASK, fingerprint,
+                    task -> {
+                        List<ProjectCommitLogs> logs = gitService.getCommitLogEntries(projects,
+                                project -> new CommitLogQuery(startDate, endDate, author, paths,
+                                        sinceLastReport ? project.last_report_commit() : null, includeDiff, DiffOptions.DEFAULT));
+                        Map<Project, String> watermarks = new LinkedHashMap<>();
+                        for (ProjectCommitLogs projectLogs : logs) {
+                            if (projectLogs.result() != null && projectLogs.result().watermarkCommit() != null) {
+                                watermarks.put(projectLogs.project(), projectLogs.result().watermarkCommit());
+                            }
+                        }
+                        return fetchedLogs(text -> CommitLogFormatter.writeMerged(text, logs, startDate, endDate), watermarks, logs);
+                    },
+                    this::onCommitLogsFetched,
+                    e -> {
+                        commitLogsView.showMessage("Failed to fetch commit logs: " + e.getMessage());
+                        Logger.error("Failed to fetch commit logs", e);
+                    });
+            return;
+        }
+
+        String sinceCommit = sinceLastReport ? selectedProject.last_report_commit() : null;
+        CommitLogQuery query = new CommitLogQuery(startDate, endDate, author, paths, sinceCommit, includeDiff, DiffOptions.DEFAULT);
+
+        // Fetch logs in the background (code diffs are opt-in, they can exceed the model's context length)
+        taskScheduler.run(COMMIT_LOGS_TASK, List.of(selectedProject.id(), query),
+                task -> {
+                    // Written as the commits are diffed; a long range with diffs ends up on disk, not on the heap
+                    Map<Project, String> watermarks = new HashMap<>();
+                    return fetchedLogs(text -> {
+                        CommitLogSummary summary = gitService.writeCommitLogs(selectedProject, query, text);
+                        if (summary.watermarkCommit() != null) {
+                            watermarks.put(selectedProject, summary.watermarkCommit());
+                        }
+                    }, watermarks, null);
+                },
+                this::onCommitLogsFetched,
+                e -> {
+                    commitLogsView.showMessage("Failed to fetch commit logs: " + e.getMessage());
+                    Logger.error("Failed to fetch commit logs", e);
                 });
-            }
-        }).start();
     }
     
-    private void onGenerateWeeklyReport() {
-        String commitLogs = commitLogsTextArea.getText();
-        if (commitLogs.isEmpty() || !commitLogs.toLowerCase().startsWith("found")) {
+    @FunctionalInterface
+    private interface LogWriter {
+        void write(SpillBuffer text) throws Exception;
+    }
+
+    /**
+     * Writes commit logs into a new buffer and splits them into rows for display. Runs off the FX thread.
+     */
+    private static FetchedLogs fetchedLogs(LogWriter writer, Map<Project, String> watermarkCommits,
+                                           List<ProjectCommitLogs> projectLogs) throws Exception {
+        SpillBuffer text = new SpillBuffer();
+        try {
+            writer.write(text);
+            List<DiffView.Row> rows;
+            try (Reader reader = text.openReader()) {
+                rows = DiffView.textRows(reader);
+            }
+            return new FetchedLogs(text, watermarkCommits, projectLogs, rows);
+        } catch (Exception e) {
+            text.close();
+            throw e;
+        }
+    }
+
+    private void releaseFetchedLogs() {
+        if (fetchedLogs != null) {
+            fetchedLogs.close();
+            fetchedLogs = null;
+        }
+    }
+
+    private void onCommitLogsFetched(FetchedLogs fetched) {
+        releaseFetchedLogs();
+        fetchedLogs = fetched.text();
+        fetchedLogsWatermarks = fetched.watermarkCommits();
+        fetchedProjectLogs = fetched.projectLogs();
+        commitLogsView.showRows(fetched.rows());
+        estimateReport();
+    }
+
+    /**
+     * Commit logs formatted for the report prompt, with the rows that display them. Closed by the scheduler if
+     * the fetch is superseded before it is shown.
+     * @param projectLogs The logs per project when all projects were fetched, {@code null} for a single project.
+     */
+    private record FetchedLogs(SpillBuffer text, Map<Project, String> watermarkCommits, List<ProjectCommitLogs> projectLogs,
+                               List<DiffView.Row> rows) implements AutoCloseable {
+        @Override
+        public void close() {
+            text.close();
+        }
+    }
+
+    /**
+     * @param regenerate Ask the model again even if an identical request was answered before.
+     */
+    private void onGenerateWeeklyReport(boolean regenerate) {
+        SpillBuffer commitLogs = fetchedLogs;
+        if (commitLogs == null || commitLogs.isEmpty()) {
             weeklyReportTextArea.setText("Please fetch the commit logs first.");
             return;
         }
@@ -536,24 +1038,54 @@ public class MainViewController {
                 proxyHostTextField.getText(),
                 proxyPort,
                 useProxyCheckBox.isSelected()
-        );
+        ).withRoutingOf(savedSettings());
         
+        Map<Project, String> reportWatermarks = fetchedLogsWatermarks;
+        List<ProjectCommitLogs> projectLogs = fetchedProjectLogs;
+
+        List<Object> fingerprint = List.of(settings, reportPrompt, commitLogs, regenerate);
+        if (taskScheduler.isRunning(GENERATE_REPORT_TASK, fingerprint)) {
+            return;
+        }
+
         weeklyReportTextArea.setText("Generating commit report...");
         
-        // Generate commit report in a background thread
-        new Thread(() -> {
-            try {
-                String weeklyReport = llmService.generateWeeklyReport(settings, reportPrompt, commitLogs);
-                Platform.runLater(() -> weeklyReportTextArea.setText(weeklyReport));
-            } catch (Exception e) {
-                Platform.runLater(() -> {
+        // Generate commit report in the background; the logs stay readable even if they are fetched again meanwhile
+        taskScheduler.run(GENERATE_REPORT_TASK, fingerprint, commitLogs.retain(),
+                task -> {
+                    TextAreaAppender appender = new TextAreaAppender(weeklyReportTextArea, task::isActive);
+                    return projectLogs != null
+                            ? llmService.generateMultiProjectReport(settings, reportPrompt, commitLogs, projectLogs, regenerate, appender)
+                            : llmService.generateWeeklyReport(settings, reportPrompt, commitLogs, regenerate, appender);
+                },
+                weeklyReport -> {
+                    weeklyReportTextArea.setText(weeklyReport);
+                    reportWatermarks.forEach(this::saveReportWatermark);
+                },
+                e -> {
                     weeklyReportTextArea.setText("Failed to generate commit report: " + e.getMessage());
-                    e.printStackTrace();
+                    Logger.error("Failed to generate commit report", e);
                 });
-            }
-        }).start();
     }
     
+    /**
+     * Remembers the watermark of a report, the newest commit it covered, so "Only since last report" skips that
+     * commit and its ancestors next time. Nothing is saved for logs that offer no watermark.
+     */
+    private void saveReportWatermark(Project project, String watermarkCommit) {
+        if (project == null || watermarkCommit == null) {
+            return;
+        }
+        appConfig = configStore.update(config -> config.withProject(project.id(),
+                configuredProject -> configuredProject.withLastReportCommit(watermarkCommit)));
+        List<Project> items = projectListView.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).id().equals(project.id())) {
+                items.set(i, items.get(i).withLastReportCommit(watermarkCommit));
+            }
+        }
+    }
+
     private void onCopyWeeklyReport() {
         Clipboard clipboard = Clipboard.getSystemClipboard();
         ClipboardContent content = new ClipboardContent();
@@ -579,29 +1111,12 @@ public class MainViewController {
             return;
         }
         
-        appConfig = new AppConfig(
-                appConfig.version(),
-                appConfig.llm_settings(),
-                appConfig.projects(),
-                appConfig.selected_project_id(),
-                newPrompt
-        );
-        
-        try {
-            configService.saveConfig(appConfig);
-            Alert alert = new Alert(Alert.AlertType.INFORMATION);
-            alert.setTitle("Success");
-            alert.setHeaderText(null);
-            alert.setContentText("Commit report prompt has been saved.");
-            alert.showAndWait();
-        } catch (IOException e) {
-            e.printStackTrace();
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Error");
-            alert.setHeaderText("Failed to save");
-            alert.setContentText("An error occurred while saving the commit report prompt: " + e.getMessage());
-            alert.showAndWait();
-        }
+        appConfig = configStore.update(config -> config.withWeeklyReportPrompt(newPrompt));
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Success");
+        alert.setHeaderText(null);
+        alert.setContentText("Commit report prompt has been saved.");
+        alert.showAndWait();
     }
     
     /**
@@ -0,0 +1,144 @@
+package com.junjie.githelper.controller;
+
+import com.junjie.githelper.util.Histogram;
+import com.junjie.githelper.util.Metrics;
+import javafx.animation.KeyFrame;
+import javafx.animation.Animation;
+import javafx.animation.Timeline;
+import javafx.scene.control.TextArea;
+import javafx.util.Duration;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Shows the in-process metrics as plain-text tables. Refreshes every two seconds, but only while visible.
+ */
+class StatsPanel {
+
+    private static final Duration REFRESH_INTERVAL = Duration.seconds(2);
+
+    private final TextArea target;
+    private final Timeline refresh;
+
+    StatsPanel(TextArea target) {
+        this.target = target;
+        target.setStyle("-fx-font-family: monospace;");
+        refresh = new Timeline(new KeyFrame(REFRESH_INTERVAL, event -> refresh()));
+        refresh.setCycleCount(Animation.INDEFINITE);
+    }
+
+    void setVisible(boolean visible) {
+        if (visible) {
+            refresh();
+            refresh.play();
+        } else {
+            refresh.stop();
+        }
+    }
+
+    void refresh() {
+        double scrollTop = target.getScrollTop();
+        target.setText(render(Metrics.histograms(), Metrics.counters()));
+        target.setScrollTop(scrollTop);
+    }
+
+    static String render(List<Metrics.HistogramSample> histograms, List<Metrics.CounterSample> counters) {
+        StringBuilder text = new StringBuilder();
+
+        text.append(String.format("%-32s %7s %10s %10s %10s %10s%n", "Git operation", "count", "p50", "p90", "p99", "max"));
+        for (Metrics.HistogramSample sample : histograms) {
+            if (sample.name().equals(Metrics.GIT_OPERATION_SECONDS)) {
+                Histogram.Snapshot micros = sample.micros();
+                text.append(String.format("%-32s %7d %10s %10s %10s %10s%n", sample.labels().get("operation"), micros.count(),
+                    duration(micros.p50()), duration(micros.p90()), duration(micros.p99()), duration(micros.max())));
+            }
+        }
+
+        // Per model: requests by outcome, latencies and tokens
+        Map<String, long[]> requests = new TreeMap<>();
+        Map<String, long[]> tokens = new TreeMap<>();
+        Map<String, long[]> caches = new TreeMap<>();
+        Map<String, long[]> attempts = new TreeMap<>();
+        for (Metrics.CounterSample sample : counters) {
+            Map<String, String> labels = sample.labels();
+            switch (sample.name()) {
+                case Metrics.LLM_REQUESTS -> requests.computeIfAbsent(labels.get("model"), model -> new long[3])
+                    [switch (labels.get("outcome")) { case "ok" -> 0; case "error" -> 1; default -> 2; }] += sample.value();
+                case Metrics.LLM_TOKENS -> tokens.computeIfAbsent(labels.get("model"), model -> new long[3])
+                    [switch (labels.get("type")) { case "prompt" -> 0; case "completion" -> 1; default -> 2; }] += sample.value();
+                case Metrics.LLM_ATTEMPTS -> attempts.computeIfAbsent(labels.get("endpoint"), endpoint -> new long[4])
+                    [switch (labels.get("outcome")) { case "ok" -> 0; case "failed" -> 1; case "lost" -> 2; default -> 3; }]
+                    += sample.value();
+                case Metrics.CACHE_LOOKUPS -> caches.computeIfAbsent(labels.get("cache"), cache -> new long[2])
+                    ["hit".equals(labels.get("result")) ? 0 : 1] += sample.value();
+                default -> {
+                }
+            }
+        }
+
+        text.append(String.format("%n%-24s %5s %6s %9s %21s %21s%n", "LLM model", "ok", "error", "cancelled",
+            "first token p50/p99", "request p50/p99"));
+        for (Map.Entry<String, long[]> model : requests.entrySet()) {
+            Histogram.Snapshot firstToken = find(histograms, Metrics.LLM_FIRST_TOKEN_SECONDS, "model", model.getKey());
+            Histogram.Snapshot request = find(histograms, Metrics.LLM_REQUEST_SECONDS, "model", model.getKey());
+            long[] counts = model.getValue();
+            text.append(String.format("%-24s %5d %6d %9d %21s %21s%n", model.getKey(), counts[0], counts[1], counts[2],
+                percentiles(firstToken), percentiles(request)));
+        }
+
+        if (!attempts.isEmpty()) {
+            text.append(String.format("%n%-40s %6s %7s %6s %8s %11s %21s%n", "LLM endpoint", "ok", "failed", "lost",
+                "skipped", "quota waits", "quota wait p50/p99"));
+            for (Map.Entry<String, long[]> endpoint : attempts.entrySet()) {
+                long[] counts = endpoint.getValue();
+                Histogram.Snapshot wait = find(histograms, Metrics.LLM_RATE_LIMIT_WAIT_SECONDS, "endpoint", endpoint.getKey());
+                text.append(String.format("%-40s %6d %7d %6d %8d %11d %21s%n", endpoint.getKey(), counts[0], counts[1],
+                    counts[2], counts[3], wait == null ? 0 : wait.count(), percentiles(wait)));
+            }
+        }
+
+        text.append(String.format("%n%-24s %12s %12s %12s %9s%n", "Tokens", "prompt", "completion", "cached", "cached %"));
+        for (Map.Entry<String, long[]> model : tokens.entrySet()) {
+            long[] counts = model.getValue();
+            text.append(String.format("%-24s %12d %12d %12d %9s%n", model.getKey(), counts[0], counts[1], counts[2],
+                ratio(counts[2], counts[0])));
+        }
+
+        text.append(String.format("%n%-24s %10s %10s %9s%n", "Cache", "hits", "misses", "hit rate"));
+        for (Map.Entry<String, long[]> cache : caches.entrySet()) {
+            long[] counts = cache.getValue();
+            text.append(String.format("%-24s %10d %10d %9s%n", cache.getKey(), counts[0], counts[1],
+                ratio(counts[0], counts[0] + counts[1])));
+        }
+        return text.toString();
+    }
+
+    private static Histogram.Snapshot find(List<Metrics.HistogramSample> histograms, String name, String label,
+                                           String value) {
+        return histograms.stream()
+            .filter(sample -> sample.name().equals(name) && value.equals(sample.labels().get(label)))
+            .map(Metrics.HistogramSample::micros)
+            .findFirst()
+            .orElse(null);
+    }
+
+    private static String percentiles(Histogram.Snapshot micros) {
+        return micros == null || micros.count() == 0 ? "-" : duration(micros.p50()) + " / " + duration(micros.p99());
+    }
+
+    private static String duration(long micros) {
+        if (micros < 1_000) {
+            return micros + " us";
+        }
+        if (micros < 1_000_000) {
+            return String.format("%.1f ms", micros / 1_000.0);
+        }
+        return String.format("%.2f s", micros / 1_000_000.0);
+    }
+
+    private static String ratio(long part, long whole) {
+        return whole == 0 ? "-" : String.format("%.1f%%", 100.0 * part / whole);
+    }
+}
@@ -0,0 +1,194 @@
+package com.junjie.githelper.controller;
+
+import com.junjie.githelper.util.Logger;
+import javafx.application.Platform;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs background work for the views on virtual threads.
+ * <p>
+ * Every task belongs to a view key (e.g. the staged changes pane). A key has at most one current task:
+ * <ul>
+ *     <li>Submitting a task with the same fingerprint as the running one is coalesced into it (single flight),
+ *         so a double-clicked Generate sends only one request.</li>
+ *     <li>Submitting a task with a different fingerprint cancels the running one (latest wins), so a
+ *         superseded result never overwrites a newer one.</li>
+ * </ul>
+ * Cancellation interrupts the worker thread, which aborts in-flight HTTP requests and is checked by the
+ * long-running Git loops. Result callbacks run on the FX thread, and only for the current, uncancelled task.
+ * <p>
+ * A task may own a resource, e.g. a retained buffer. It is closed when the work ends, and also when the work
+ * never runs because the task was coalesced or cancelled before it started. A result that is
+ * {@link AutoCloseable} belongs to the success callback; when the task is superseded or cancelled after its
+ * work returned, nobody receives the result, so it is closed instead.
+ */
+class TaskScheduler {
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("commit-pal-task-", 0).factory());
+    private final Map<String, Task> current = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    interface Work<T> {
+        T run(Task task) throws Exception;
+    }
+
+    final class Task {
+        private final String key;
+        private final Object fingerprint;
+        private final AutoCloseable resource;
+        // Set by whichever comes first: the work starting, or the task being dropped before it started
+        private final AtomicBoolean resourceClaimed = new AtomicBoolean();
+        private volatile Future<?> future;
+        private volatile boolean cancelled;
+
+        private Task(String key, Object fingerprint, AutoCloseable resource) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.resource = resource;
+        }
+
+        /**
+         * @return Whether the task is still the current one of its key and has not been cancelled.
+         *         Work that publishes partial results (e.g. streamed text) must stop doing so once this is false.
+         */
+        boolean isActive() {
+            return !cancelled && current.get(key) == this;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            Future<?> running = future;
+            if (running != null) {
+                running.cancel(true);
+            }
+            releaseUnstarted();
+        }
+
+        private void releaseUnstarted() {
+            if (resourceClaimed.compareAndSet(false, true)) {
+                closeQuietly(resource);
+            }
+        }
+    }
+
+    /**
+     * Runs work in the background and delivers its outcome on the FX thread.
+     * @param key The view the task belongs to.
+     * @param fingerprint Identifies the request; an equal running request is reused instead of started again.
+     * @return The task now current for the key.
+     */
+    <T> Task run(String key, Object fingerprint, Work<T> work, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        return run(key, fingerprint, null, work, onSuccess, onError);
+    }
+
+    /**
+     * Runs work that owns a resource.
+     * @param resource Closed once the work is done, or right away if the work never runs; may be {@code null}.
+     */
+    <T> Task run(String key, Object fingerprint, AutoCloseable resource, Work<T> work, Consumer<T> onSuccess,
+                 Consumer<Exception> onError) {
+        Task previous = current.get(key);
+        if (previous != null && !previous.cancelled && Objects.equals(previous.fingerprint, fingerprint)) {
+            closeQuietly(resource);
+            return previous;
+        }
+        if (previous != null) {
+            previous.cancel();
+        }
+
+        Task task = new Task(key, fingerprint, resource);
+        current.put(key, task);
+        try {
+            task.future = executor.submit(() -> execute(task, work, onSuccess, onError));
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            current.remove(key, task);
+            task.releaseUnstarted();
+            return task;
+        }
+        if (task.cancelled) {
+            task.future.cancel(true);
+        }
+        return task;
+    }
+
+    private <T> void execute(Task task, Work<T> work, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        if (!task.resourceClaimed.compareAndSet(false, true)) {
+            // Dropped before it started; the resource is already closed
+            return;
+        }
+        try {
+            T result = work.run(task);
+            Platform.runLater(() -> {
+                if (complete(task)) {
+                    onSuccess.accept(result);
+                } else if (result instanceof AutoCloseable closeable) {
+                    closeQuietly(closeable);
+                }
+            });
+        } catch (Exception e) {
+            Platform.runLater(() -> {
+                if (complete(task)) {
+                    onError.accept(e);
+                }
+            });
+        } finally {
+            closeQuietly(task.resource);
+        }
+    }
+
+    /**
+     * Cancels the current task of a key.
+     * @return Whether a task was running.
+     */
+    boolean cancel(String key) {
+        Task task = current.remove(key);
+        if (task == null) {
+            return false;
+        }
+        task.cancel();
+        return true;
+    }
+
+    /**
+     * @return Whether a request with this fingerprint is already running for the key, i.e. would be coalesced.
+     */
+    boolean isRunning(String key, Object fingerprint) {
+        Task task = current.get(key);
+        return task != null && !task.cancelled && Objects.equals(task.fingerprint, fingerprint);
+    }
+
+    /**
+     * Cancels all tasks and stops accepting new ones. Called when the application exits.
+     */
+    void shutdown() {
+        current.values().forEach(Task::cancel);
+        current.clear();
+        executor.shutdownNow();
+    }
+
+    private boolean complete(Task task) {
+        return current.remove(task.key, task) && !task.cancelled;
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (Exception e) {
+            Logger.error("Failed to release the resource or result of a task", e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.junjie.githelper.controller;
+
+import javafx.application.Platform;
+import javafx.scene.control.TextArea;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Appends streamed text fragments to a TextArea from a background thread.
+ * Fragments are buffered and flushed in batches, so at most one Platform.runLater is pending at a time
+ * no matter how fast the producer is. The placeholder text is replaced by the first flush.
+ * Once the owning task is no longer active, remaining fragments are discarded.
+ */
+class TextAreaAppender implements Consumer<String> {
+
+    private final TextArea target;
+    private final BooleanSupplier active;
+    private final StringBuilder pending = new StringBuilder();
+    private boolean flushScheduled;
+    private boolean started;
+
+    TextAreaAppender(TextArea target) {
+        this(target, () -> true);
+    }
+
+    TextAreaAppender(TextArea target, BooleanSupplier active) {
+        this.target = target;
+        this.active = active;
+    }
+
+    @Override
+    public synchronized void accept(String fragment) {
+        if (!active.getAsBoolean()) {
+            return;
+        }
+        pending.append(fragment);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            Platform.runLater(this::flush);
+        }
+    }
+
+    private void flush() {
+        String text;
+        synchronized (this) {
+            text = pending.toString();
+            pending.setLength(0);
+            flushScheduled = false;
+        }
+        if (!active.getAsBoolean()) {
+            return;
+        }
+        if (!started) {
+            target.clear();
+            started = true;
+        }
+        target.appendText(text);
+    }
+}
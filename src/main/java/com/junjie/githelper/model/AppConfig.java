@@ -1,6 +1,7 @@
 package com.junjie.githelper.model;
 
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 public record AppConfig(
     String version,
@@ -34,4 +35,23 @@ public record AppConfig(
     public String getWeeklyReportPrompt() {
         return weekly_report_prompt != null ? weekly_report_prompt : getDefaultWeeklyReportPrompt();
     }
+
+    public AppConfig withLlmSettings(LLMSettings settings) {
+        return new AppConfig(version, settings, projects, selected_project_id, weekly_report_prompt);
+    }
+
+    public AppConfig withProjects(List<Project> newProjects) {
+        return new AppConfig(version, llm_settings, List.copyOf(newProjects), selected_project_id, weekly_report_prompt);
+    }
+
+    public AppConfig withWeeklyReportPrompt(String prompt) {
+        return new AppConfig(version, llm_settings, projects, selected_project_id, prompt);
+    }
+
+    // 按 id 修改项目，找不到时原样返回，这样基于旧快照的修改也能安全地应用到新配置上
+    public AppConfig withProject(String id, UnaryOperator<Project> change) {
+        return withProjects(projects.stream()
+            .map(project -> project.id().equals(id) ? change.apply(project) : project)
+            .toList());
+    }
 }
@@ -0,0 +1,15 @@
+package com.junjie.githelper.model;
+
+import java.time.Instant;
+
+/**
+ * A single commit in a commit log.
+ * @param diff The code changes of the commit, or {@code null} when diffs were not requested.
+ */
+public record CommitLogEntry(
+    String id,
+    String author,
+    Instant time,
+    String message,
+    String diff
+) {}
@@ -0,0 +1,24 @@
+package com.junjie.githelper.model;
+
+import java.util.List;
+
+/**
+ * The changes of one file in a unified diff.
+ * @param header Everything before the first hunk: the "diff --git" line, mode and index lines, ---/+++ lines.
+ * @param hunks The hunks, each starting with its "@@" line. Empty for binary files and pure renames or mode changes.
+ */
+public record DiffFile(
+    String path,
+    String header,
+    List<String> hunks,
+    int additions,
+    int deletions,
+    boolean binary
+) {
+    // 还原为统一diff格式的文本
+    public String text() {
+        StringBuilder text = new StringBuilder(header);
+        hunks.forEach(text::append);
+        return text.toString();
+    }
+}
@@ -0,0 +1,12 @@
+package com.junjie.githelper.model;
+
+public record LLMEndpoint(
+    String provider,
+    String api_key,
+    String model,
+    String base_url,
+    // 该端点的配额，留空时从响应头中获知，不沿用主端点的设置
+    Integer requests_per_minute,
+    Integer tokens_per_minute
+) {
+}
@@ -1,5 +1,8 @@
 package com.junjie.githelper.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public record LLMSettings(
     String provider,
     String api_key,
@@ -7,15 +10,64 @@ public record LLMSettings(
     String base_url,
     String proxy_host,
     Integer proxy_port,
-    Boolean use_proxy
+    Boolean use_proxy,
+    // 备用端点，按顺序在前面的端点失败时使用；留空的字段沿用主端点的设置
+    List<LLMEndpoint> fallback_endpoints,
+    // 请求过慢时同时向下一个端点发送，先返回的结果生效
+    Boolean hedge_requests,
+    // 主端点的每分钟请求数和 token 数配额，留空时从响应头中获知
+    Integer requests_per_minute,
+    Integer tokens_per_minute,
+    // 模型的上下文长度（token 数）和每百万 token 的价格（美元），留空时按模型名称使用内置的数值
+    Integer context_window,
+    Double prompt_price_per_million,
+    Double completion_price_per_million
 ) {
     // 默认构造器，不使用代理
     public LLMSettings(String provider, String api_key, String model, String base_url) {
         this(provider, api_key, model, base_url, null, null, false);
     }
+
+    // 只有一个端点
+    public LLMSettings(String provider, String api_key, String model, String base_url,
+                       String proxy_host, Integer proxy_port, Boolean use_proxy) {
+        this(provider, api_key, model, base_url, proxy_host, proxy_port, use_proxy, null, null, null, null, null, null, null);
+    }
     
     // 判断是否启用代理
     public boolean isProxyEnabled() {
         return Boolean.TRUE.equals(use_proxy) && proxy_host != null && !proxy_host.trim().isEmpty() && proxy_port != null;
     }
+
+    public boolean isHedgingEnabled() {
+        return Boolean.TRUE.equals(hedge_requests);
+    }
+
+    // 依次尝试的端点：主端点在前，每个端点都是单端点的设置，代理设置相同
+    public List<LLMSettings> endpoints() {
+        List<LLMSettings> endpoints = new ArrayList<>();
+        endpoints.add(new LLMSettings(provider, api_key, model, base_url, proxy_host, proxy_port, use_proxy,
+            null, null, requests_per_minute, tokens_per_minute, null, null, null));
+        if (fallback_endpoints != null) {
+            for (LLMEndpoint endpoint : fallback_endpoints) {
+                if (endpoint == null || endpoint.base_url() == null || endpoint.base_url().isBlank()) {
+                    continue;
+                }
+                endpoints.add(new LLMSettings(
+                    endpoint.provider() != null ? endpoint.provider() : provider,
+                    endpoint.api_key() != null ? endpoint.api_key() : api_key,
+                    endpoint.model() != null ? endpoint.model() : model,
+                    endpoint.base_url(), proxy_host, proxy_port, use_proxy,
+                    null, null, endpoint.requests_per_minute(), endpoint.tokens_per_minute(), null, null, null));
+            }
+        }
+        return endpoints;
+    }
+
+    // 设置界面只编辑主端点，保存时沿用已有的备用端点、对冲选项、配额和模型参数
+    public LLMSettings withRoutingOf(LLMSettings other) {
+        return other == null ? this : new LLMSettings(provider, api_key, model, base_url, proxy_host, proxy_port, use_proxy,
+            other.fallback_endpoints(), other.hedge_requests(), other.requests_per_minute(), other.tokens_per_minute(),
+            other.context_window(), other.prompt_price_per_million(), other.completion_price_per_million());
+    }
 }
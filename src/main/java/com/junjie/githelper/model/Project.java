@@ -1,8 +1,55 @@
 package com.junjie.githelper.model;
 
+import java.util.List;
+
 public record Project(
     String id,
     String name,
     String path,
-    String custom_prompt
-) {}
+    String custom_prompt,
+    String last_report_commit,
+    // 生成提交信息时只保留一行摘要的路径，写法同 .gitignore，追加在默认规则（锁文件、压缩文件等）之后；以 ! 开头的规则保留完整差异
+    List<String> diff_excludes,
+    // 生成提交信息时每处改动前后保留的上下文行数，null 时使用默认值
+    Integer diff_context_lines
+) {
+    // 使用默认差异过滤规则
+    public Project(String id, String name, String path, String custom_prompt, String last_report_commit) {
+        this(id, name, path, custom_prompt, last_report_commit, null, null);
+    }
+
+    // 默认构造器，尚未生成过提交报告
+    public Project(String id, String name, String path, String custom_prompt) {
+        this(id, name, path, custom_prompt, null);
+    }
+
+    // 新项目构造器，使用默认的提交提示词
+    public Project(String id, String name, String path) {
+        this(id, name, path, getDefaultCustomPrompt());
+    }
+
+    public Project withCustomPrompt(String prompt) {
+        return new Project(id, name, path, prompt, last_report_commit, diff_excludes, diff_context_lines);
+    }
+
+    public Project withLastReportCommit(String commit) {
+        return new Project(id, name, path, custom_prompt, commit, diff_excludes, diff_context_lines);
+    }
+
+    public Project withDiffExcludes(List<String> excludes) {
+        return new Project(id, name, path, custom_prompt, last_report_commit, excludes, diff_context_lines);
+    }
+
+    private static String getDefaultCustomPrompt() {
+        return """
+                  Please generate a concise commit message based on the code changes.
+
+                  Requirements:
+
+                  - The message should follow the Conventional Commits specification.
+                  - Use present tense (e.g., 'add feature' not 'added feature').
+                  - Only output the commit message content, without any markdown formatting.
+                  - in chinese.
+               """;
+    }
+}
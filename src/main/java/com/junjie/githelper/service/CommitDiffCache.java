@@ -0,0 +1,388 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Persistent, content-addressed cache of commit diffs.
+ * <p>
+ * Commits are immutable, so the diff of a commit only depends on its SHA and the {@link DiffOptions}.
+ * Entries are deflated and appended to a single data file; an in-memory index maps each key to its
+ * record and is rebuilt by scanning the record headers on open. When the file grows past the size cap
+ * it is compacted: the most recently used entries are rewritten to a new file until half the cap is
+ * filled, and the rest are dropped.
+ * <p>
+ * The desktop app, the command line and the daemon share the file. Appends and compactions take a
+ * {@link SharedFileLock}; before writing, an instance reads the records other processes appended since it last
+ * looked, and reopens the file if the compaction counter in the lock file shows that another process replaced
+ * it. Reads go without the lock: a record is checked against its key, and a replaced file stays readable
+ * through the channel opened before. A miss takes the lock to catch up only if the file size or the counter
+ * shows a change.
+ * <p>
+ * Record layout: {@code int keyLength, key (UTF-8), int rawLength, int dataLength, data (deflated UTF-8)}.
+ */
+public class CommitDiffCache {
+
+    private static final String DATA_FILE = "commit-diffs.dat";
+    private static final String LOCK_FILE = "commit-diffs.lock";
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final int MAX_KEY_LENGTH = 1024;
+
+    private final Path dataFile;
+    private final Path lockFile;
+    private final long maxBytes;
+    // Access-ordered, so iteration starts at the least recently used entry. Guarded by this.
+    private final Map<String, Location> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private FileChannel channel;
+    // Compactions of the data file, as counted in the lock file when it was opened
+    private long generation;
+    // End of the records read into the index
+    private long indexedEnd;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param offset Start of the record, i.e. of its key length.
+     */
+    private record Location(long offset, int keyLength, int rawLength, int dataLength) {
+        int recordLength() {
+            return 12 + keyLength + dataLength;
+        }
+    }
+
+    public CommitDiffCache(Path directory) {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    public CommitDiffCache(Path directory, long maxBytes) {
+        this.dataFile = directory.resolve(DATA_FILE);
+        this.lockFile = directory.resolve(LOCK_FILE);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Builds the cache key of a commit diff.
+     */
+    public static String key(String commitId, DiffOptions options) {
+        // Keys without renames stay as they were, so existing entries remain valid
+        return commitId + ":ctx=" + options.contextLines() + ":all-parents=" + options.mergesAgainstAllParents()
+            + (options.detectRenames() ? ":renames" : "");
+    }
+
+    /**
+     * @return The cached diff, or {@code null} when it is not cached.
+     */
+    public synchronized String get(String key) {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Logger.error("Failed to open commit diff cache: " + e.getMessage());
+            miss();
+            return null;
+        }
+        Location location = index.get(key);
+        if (location == null && changedElsewhere()) {
+            // Another process may have cached it since
+            try (SharedFileLock lock = SharedFileLock.acquire(lockFile)) {
+                sync(lock);
+            } catch (IOException e) {
+                Logger.error("Failed to read commit diff cache: " + e.getMessage());
+            }
+            location = index.get(key);
+        }
+        if (location == null) {
+            miss();
+            return null;
+        }
+        try {
+            ByteBuffer record = ByteBuffer.allocate(location.recordLength());
+            readFully(location.offset(), record);
+            // Another instance may have compacted the file under us, so the record must still be ours
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            if (record.getInt(0) != keyBytes.length
+                    || !ByteBuffer.wrap(keyBytes).equals(record.slice(4, keyBytes.length))) {
+                throw new IOException("record at byte " + location.offset() + " belongs to another key");
+            }
+            hit();
+            return inflate(record.array(), 12 + keyBytes.length, location.dataLength(), location.rawLength());
+        } catch (IOException | DataFormatException e) {
+            Logger.error("Dropping unreadable commit diff cache entry " + key + ": " + e.getMessage());
+            index.remove(key);
+            miss();
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, String diff) {
+        try {
+            ensureOpen();
+            if (index.containsKey(key)) {
+                return;
+            }
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] raw = diff.getBytes(StandardCharsets.UTF_8);
+            byte[] data = deflate(raw);
+            ByteBuffer record = ByteBuffer.allocate(12 + keyBytes.length + data.length);
+            record.putInt(keyBytes.length).put(keyBytes).putInt(raw.length).putInt(data.length).put(data).flip();
+
+            try (SharedFileLock lock = SharedFileLock.acquire(lockFile)) {
+                sync(lock);
+                if (index.containsKey(key)) {
+                    return;
+                }
+                long offset = channel.size();
+                while (record.hasRemaining()) {
+                    channel.write(record, offset + record.position());
+                }
+                index.put(key, new Location(offset, keyBytes.length, raw.length, data.length));
+                indexedEnd = offset + record.limit();
+
+                if (indexedEnd > maxBytes) {
+                    compact(lock);
+                }
+            }
+        } catch (IOException e) {
+            Logger.error("Failed to write commit diff cache: " + e.getMessage());
+        }
+    }
+
+    private void hit() {
+        hits++;
+        Metrics.increment(Metrics.CACHE_LOOKUPS, "cache", "commit_diff", "result", "hit");
+    }
+
+    private void miss() {
+        misses++;
+        Metrics.increment(Metrics.CACHE_LOOKUPS, "cache", "commit_diff", "result", "miss");
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Logger.error("Failed to close commit diff cache: " + e.getMessage());
+            }
+            channel = null;
+        }
+        index.clear();
+        indexedEnd = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        try (SharedFileLock lock = SharedFileLock.acquire(lockFile)) {
+            open(lock);
+        }
+        Logger.debug(() -> "Commit diff cache opened with " + index.size() + " entries");
+    }
+
+    /**
+     * Opens the data file and reads its index. Called with the lock held.
+     */
+    private void open(SharedFileLock lock) throws IOException {
+        generation = lock.readCounter();
+        channel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        indexedEnd = 0;
+        loadIndex();
+    }
+
+    /**
+     * Tells without the lock whether another process appended to or compacted the data file since the index was
+     * read, so a miss only waits for the lock when there is something to catch up with. An outdated answer costs
+     * no more than a miss.
+     */
+    private boolean changedElsewhere() {
+        try {
+            return Files.size(dataFile) != indexedEnd || SharedFileLock.peekCounter(lockFile) != generation;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Catches up with the writes of other processes: reopens the data file if it was compacted, and reads the
+     * records appended since the index was last read. Called with the lock held.
+     */
+    private void sync(SharedFileLock lock) throws IOException {
+        if (lock.readCounter() != generation || channel.size() < indexedEnd) {
+            channel.close();
+            open(lock);
+            Logger.debug(() -> "Commit diff cache reopened after a compaction, " + index.size() + " entries");
+        } else if (channel.size() > indexedEnd) {
+            loadIndex();
+        }
+    }
+
+    /**
+     * Scans the record headers from the end of the indexed records. A torn record at the end of the file
+     * (e.g. after a crash) is cut off; all writers hold the lock, so it is not one still being written.
+     */
+    private void loadIndex() throws IOException {
+        long size = channel.size();
+        long position = indexedEnd;
+        ByteBuffer header = ByteBuffer.allocate(4);
+        ByteBuffer lengths = ByteBuffer.allocate(8);
+        while (position < size) {
+            header.clear();
+            if (size - position < 4 || !tryRead(position, header)) {
+                break;
+            }
+            int keyLength = header.getInt(0);
+            if (keyLength <= 0 || keyLength > MAX_KEY_LENGTH || position + 12 + keyLength > size) {
+                break;
+            }
+            ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+            lengths.clear();
+            if (!tryRead(position + 4, keyBuffer) || !tryRead(position + 4 + keyLength, lengths)) {
+                break;
+            }
+            int rawLength = lengths.getInt(0);
+            int dataLength = lengths.getInt(4);
+            long dataOffset = position + 12 + keyLength;
+            if (rawLength < 0 || dataLength < 0 || dataOffset + dataLength > size) {
+                break;
+            }
+            index.put(new String(keyBuffer.array(), StandardCharsets.UTF_8), new Location(position, keyLength, rawLength, dataLength));
+            position = dataOffset + dataLength;
+        }
+        if (position < size) {
+            Logger.info("Truncating damaged commit diff cache at byte " + position + " of " + size);
+            channel.truncate(position);
+        }
+        indexedEnd = position;
+    }
+
+    /**
+     * Rewrites the most recently used entries into a new file and drops the rest. Called with the lock held and
+     * the index in sync, so no record of another process is lost.
+     */
+    private void compact(SharedFileLock lock) throws IOException {
+        long budget = maxBytes / 2;
+        List<Map.Entry<String, Location>> kept = new ArrayList<>();
+        long keptBytes = 0;
+        // Walk from the most recently used end
+        List<Map.Entry<String, Location>> byRecency = new ArrayList<>(index.entrySet());
+        for (int i = byRecency.size() - 1; i >= 0; i--) {
+            Map.Entry<String, Location> entry = byRecency.get(i);
+            long recordBytes = entry.getValue().recordLength();
+            if (keptBytes + recordBytes > budget) {
+                break;
+            }
+            kept.add(entry);
+            keptBytes += recordBytes;
+        }
+
+        Path compacted = dataFile.resolveSibling(DATA_FILE + ".compact");
+        Map<String, Location> newIndex = new LinkedHashMap<>();
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long offset = 0;
+            // Oldest first, so the file order keeps approximating recency after a restart
+            for (int i = kept.size() - 1; i >= 0; i--) {
+                Map.Entry<String, Location> entry = kept.get(i);
+                Location location = entry.getValue();
+                ByteBuffer record = ByteBuffer.allocate(location.recordLength());
+                readFully(location.offset(), record);
+                record.flip();
+                while (record.hasRemaining()) {
+                    target.write(record, offset + record.position());
+                }
+                newIndex.put(entry.getKey(), new Location(offset, location.keyLength(), location.rawLength(), location.dataLength()));
+                offset += record.limit();
+            }
+        }
+
+        channel.close();
+        Files.move(compacted, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(dataFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Other processes reopen the file on their next write or miss
+        generation++;
+        lock.writeCounter(generation);
+        Logger.debug(() -> "Compacted commit diff cache from " + index.size() + " to " + newIndex.size() + " entries");
+        index.clear();
+        index.putAll(newIndex);
+        indexedEnd = channel.size();
+    }
+
+    private void readFully(long position, ByteBuffer buffer) throws IOException {
+        if (!tryRead(position, buffer)) {
+            throw new IOException("Unexpected end of cache file at byte " + position);
+        }
+    }
+
+    private boolean tryRead(long position, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position() - start);
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String inflate(byte[] data, int dataOffset, int dataLength, int rawLength) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, dataOffset, dataLength);
+            byte[] raw = new byte[rawLength];
+            int offset = 0;
+            while (offset < rawLength && !inflater.finished()) {
+                int length = inflater.inflate(raw, offset, rawLength - offset);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated cache entry");
+                }
+                offset += length;
+            }
+            return new String(raw, 0, offset, StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.junjie.githelper.service;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Produces the diffs of many commits concurrently.
+ * <p>
+ * Each worker thread owns one {@link ObjectReader} and one {@link DiffFormatter} for the whole run,
+ * so pack windows and the delta base cache stay warm between the commits it handles. Workers are
+ * platform threads of a fixed pool rather than virtual threads, because a per-task virtual thread
+ * would get a fresh reader for every commit. Results are returned in the order of the input commits.
+ * <p>
+ * Formatting does not respond to interrupts, so workers check for cancellation before every file. A
+ * worker closes its reader itself when it stops, and a cancelled run returns without waiting for it.
+ */
+final class CommitDiffPipeline {
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    /**
+     * @param text The diff, or a note explaining why it could not be produced.
+     * @param complete Whether {@code text} is the real diff; incomplete results must not be cached.
+     */
+    record CommitDiff(String text, boolean complete) {}
+
+    private CommitDiffPipeline() {
+    }
+
+    /**
+     * Diffs every commit against its parent(s).
+     * @return The diff of each commit, in input order.
+     */
+    static List<CommitDiff> diff(Repository repository, List<RevCommit> commits, DiffOptions options)
+            throws IOException, InterruptedException {
+        if (commits.isEmpty()) {
+            return List.of();
+        }
+
+        int workerCount = Math.min(commits.size(), Runtime.getRuntime().availableProcessors());
+        if (workerCount == 1) {
+            try (DiffWorker worker = new DiffWorker(repository, options)) {
+                List<CommitDiff> diffs = new ArrayList<>(commits.size());
+                for (RevCommit commit : commits) {
+                    diffs.add(worker.diff(commit));
+                }
+                return diffs;
+            }
+        }
+
+        int poolId = POOL_COUNTER.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "commit-diff-" + poolId + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Every worker takes the next commit until none is left; the slots are read after all workers are done
+            CommitDiff[] diffs = new CommitDiff[commits.size()];
+            AtomicInteger next = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                futures.add(pool.submit(() -> {
+                    try (DiffWorker worker = new DiffWorker(repository, options)) {
+                        for (int index = next.getAndIncrement(); index < diffs.length; index = next.getAndIncrement()) {
+                            diffs[index] = worker.diff(commits.get(index));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return Arrays.asList(diffs);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to diff commits: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            // Workers stop at their next file and close their own readers
+            pool.shutdownNow();
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Diff generation cancelled");
+        }
+    }
+
+    /**
+     * Diff state owned by a single thread.
+     */
+    private static final class DiffWorker implements AutoCloseable {
+        private final ObjectReader reader;
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final DiffFormatter formatter = new DiffFormatter(output);
+        private final boolean allParents;
+
+        DiffWorker(Repository repository, DiffOptions options) {
+            this.reader = repository.newObjectReader();
+            this.allParents = options.mergesAgainstAllParents();
+            formatter.setReader(reader, repository.getConfig());
+            formatter.setContext(options.contextLines());
+            if (options.detectRenames()) {
+                formatter.setDetectRenames(true);
+            }
+        }
+
+        CommitDiff diff(RevCommit commit) throws InterruptedException {
+            checkInterrupted();
+            if (commit.getParentCount() == 0) {
+                // An initial import may hold the whole project, too much for a report. The note is free to produce,
+                // so it is not cached
+                return new CommitDiff("[Initial commit - showing all new files]\n", false);
+            }
+            output.reset();
+            try {
+                if (commit.getParentCount() == 1 || !allParents) {
+                    format(commit.getParent(0), commit);
+                } else {
+                    for (RevCommit parent : commit.getParents()) {
+                        formatter.flush();
+                        output.write(("--- Changes against parent " + parent.abbreviate(8).name() + " ---\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                        format(parent, commit);
+                    }
+                }
+                formatter.flush();
+                return new CommitDiff(output.toString(StandardCharsets.UTF_8), true);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                return new CommitDiff("[Could not get code changes for this commit: " + e.getMessage() + "]\n", false);
+            }
+        }
+
+        /**
+         * Formats file by file, so a cancelled run stops after the current file rather than the whole commit.
+         */
+        private void format(RevCommit parent, RevCommit commit) throws IOException, InterruptedException {
+            for (DiffEntry entry : formatter.scan(parent, commit)) {
+                checkInterrupted();
+                formatter.format(entry);
+            }
+        }
+
+        @Override
+        public void close() {
+            formatter.close();
+            reader.close();
+        }
+    }
+}
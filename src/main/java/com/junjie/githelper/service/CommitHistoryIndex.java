@@ -0,0 +1,586 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.util.Logger;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A local index of the commit history of each repository, to find the earlier commits that touched the same
+ * files as the staged changes. Their messages show the model how changes to these files are usually described.
+ * <p>
+ * Every non-merge commit is a document of path terms: the paths it changed, their file names and their
+ * directories. The staged paths are scored against them with BM25, so a commit that changed the same file
+ * ranks above one that changed its neighbours, directories that most commits touch count for little, and
+ * sweeping commits count less than focused ones. Ties go to the newer commit.
+ * <p>
+ * The index of a repository is appended to a file in the cache directory and loaded on first use. Updates walk
+ * from HEAD, newest first, down to the tips indexed before, so only new commits are read; they run in the
+ * background and are persisted in batches. A query waits briefly for a pending update and otherwise answers
+ * from the commits indexed so far.
+ * <p>
+ * Record layout: {@code byte type}, then for a commit ({@code 'C'}) {@code 20 byte id, int time, int
+ * messageLength, message (UTF-8), short pathCount} and per path {@code short length, path (UTF-8)}; for an
+ * indexed tip ({@code 'T'}) {@code 20 byte id}. Several processes may append to the file; each batch is written
+ * and each load reads under a lock on {@code <file>.lock}, so batches never interleave and only a crash leaves a
+ * torn record. A commit may be recorded twice; the duplicate is skipped on load.
+ */
+final class CommitHistoryIndex {
+
+    // Newest commits walked per update; older history says little about today's style
+    private static final int MAX_COMMITS = 200_000;
+    // A commit touching more files is a sweeping change; its first paths are enough to place it
+    private static final int MAX_PATHS_PER_COMMIT = 64;
+    private static final int MAX_MESSAGE_CHARS = 300;
+    // Tips an update stops at; the most recent ones cover the branches in use
+    private static final int MAX_TIPS = 16;
+    private static final int BATCH_COMMITS = 512;
+    private static final long UPDATE_WAIT_MILLIS = 300;
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final byte COMMIT_RECORD = 'C';
+    private static final byte TIP_RECORD = 'T';
+
+    private final Path directory;
+    private final RepositoryCache repositoryCache;
+    private final Map<String, RepositoryIndex> indexes = new ConcurrentHashMap<>();
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param directory Where the index files are kept.
+     */
+    CommitHistoryIndex(Path directory, RepositoryCache repositoryCache) {
+        this.directory = directory;
+        this.repositoryCache = repositoryCache;
+    }
+
+    /**
+     * @param paths The paths of the staged changes.
+     * @return The messages of up to {@code count} earlier commits that share path terms with the paths, most
+     *         related first, without duplicates.
+     */
+    List<String> related(Project project, Collection<String> paths, int count) throws IOException {
+        RepositoryIndex index;
+        try (RepositoryCache.Lease lease = repositoryCache.acquire(project)) {
+            String gitDir = lease.repository().getDirectory().getAbsolutePath();
+            index = indexes.computeIfAbsent(gitDir, key -> new RepositoryIndex(directory.resolve(fileName(key))));
+        }
+        Future<?> update = index.scheduleUpdate(() -> update(project, index));
+        try {
+            update.get(UPDATE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Logger.debug(() -> "Commit history of " + project.name() + " still being indexed, "
+                + index.size() + " commits so far");
+        } catch (ExecutionException e) {
+            Logger.error("Failed to index the commit history of " + project.name(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Looking up related commits interrupted");
+        }
+        long startNanos = System.nanoTime();
+        List<String> messages = index.query(paths, count);
+        Logger.debug(() -> String.format("%d related commits of %d indexed found in %.2f ms", messages.size(),
+            index.size(), (System.nanoTime() - startNanos) / 1e6));
+        return messages;
+    }
+
+    void close() {
+        updater.shutdownNow();
+    }
+
+    private Future<?> submit(Runnable task) {
+        return updater.submit(task);
+    }
+
+    private void update(Project project, RepositoryIndex index) {
+        try (RepositoryCache.Lease lease = repositoryCache.acquire(project)) {
+            index.update(lease.repository());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String fileName(String gitDir) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(gitDir.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16) + ".idx";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * The path terms of a path: the path itself, its file name and every directory above it. A renamed file
+     * keeps its name, a moved one its directory.
+     */
+    static void addTerms(String path, Set<String> terms) {
+        terms.add("f:" + path);
+        int slash = path.lastIndexOf('/');
+        terms.add("n:" + path.substring(slash + 1));
+        while (slash > 0) {
+            terms.add("d:" + path.substring(0, slash));
+            slash = path.lastIndexOf('/', slash - 1);
+        }
+    }
+
+    /**
+     * A growable list of document numbers, in the order the documents were added.
+     */
+    private static final class Postings {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+
+    private record Doc(ObjectId id, int time, String message, List<String> paths) {
+    }
+
+    /**
+     * The index of one repository. Guarded by its own monitor, except for the update future.
+     */
+    private final class RepositoryIndex {
+        private final Path file;
+        private final Path lockFile;
+        private boolean loaded;
+        private Future<?> pendingUpdate;
+        // Per document, by number
+        private String[] messages = new String[1024];
+        private int[] times = new int[1024];
+        private int[] lengths = new int[1024];
+        private int size;
+        private long totalLength;
+        private final Map<String, Postings> postings = new HashMap<>();
+        private final IdSet ids = new IdSet();
+        // Most recent last
+        private final LinkedHashSet<ObjectId> tips = new LinkedHashSet<>();
+
+        RepositoryIndex(Path file) {
+            this.file = file;
+            this.lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Starts an update unless one is already pending.
+         */
+        synchronized Future<?> scheduleUpdate(Runnable update) {
+            if (pendingUpdate == null || pendingUpdate.isDone()) {
+                pendingUpdate = submit(update);
+            }
+            return pendingUpdate;
+        }
+
+        void update(Repository repository) throws IOException {
+            load();
+            ObjectId head = repository.resolve(Constants.HEAD);
+            List<ObjectId> knownTips;
+            synchronized (this) {
+                if (head == null || tips.contains(head)) {
+                    return;
+                }
+                knownTips = new ArrayList<>(tips);
+            }
+            long startNanos = System.nanoTime();
+            int added = 0;
+            try (RevWalk walk = new RevWalk(repository);
+                 TreeWalk treeWalk = new TreeWalk(repository, walk.getObjectReader())) {
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(TreeFilter.ANY_DIFF);
+                walk.markStart(walk.parseCommit(head));
+                for (ObjectId tip : knownTips) {
+                    try {
+                        walk.markUninteresting(walk.parseCommit(tip));
+                    } catch (MissingObjectException | IncorrectObjectTypeException e) {
+                        // Rewritten history or a pruned branch; commits indexed before are skipped by id
+                    }
+                }
+                List<Doc> batch = new ArrayList<>();
+                int walked = 0;
+                for (RevCommit commit : walk) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Indexing the commit history interrupted");
+                    }
+                    if (++walked > MAX_COMMITS) {
+                        break;
+                    }
+                    if (commit.getParentCount() > 1 || contains(commit)) {
+                        continue;
+                    }
+                    batch.add(new Doc(commit.copy(), commit.getCommitTime(), message(commit),
+                        changedPaths(walk, treeWalk, commit)));
+                    if (batch.size() == BATCH_COMMITS) {
+                        added += append(batch, null);
+                        batch.clear();
+                    }
+                }
+                added += append(batch, head.copy());
+            }
+            int count = added;
+            Logger.debug(() -> String.format("Indexed %d commits of %s in %.1f s", count, file.getFileName(),
+                (System.nanoTime() - startNanos) / 1e9));
+        }
+
+        private synchronized boolean contains(ObjectId id) {
+            return ids.contains(id);
+        }
+
+        private static String message(RevCommit commit) {
+            String message = commit.getShortMessage();
+            return message.length() > MAX_MESSAGE_CHARS ? message.substring(0, MAX_MESSAGE_CHARS) : message;
+        }
+
+        private static List<String> changedPaths(RevWalk walk, TreeWalk treeWalk, RevCommit commit) throws IOException {
+            treeWalk.reset();
+            if (commit.getParentCount() == 0) {
+                treeWalk.addTree(new EmptyTreeIterator());
+            } else {
+                treeWalk.addTree(walk.parseCommit(commit.getParent(0)).getTree());
+            }
+            treeWalk.addTree(commit.getTree());
+            List<String> paths = new ArrayList<>();
+            while (paths.size() < MAX_PATHS_PER_COMMIT && treeWalk.next()) {
+                paths.add(treeWalk.getPathString());
+            }
+            return paths;
+        }
+
+        /**
+         * Writes a batch to the index file and adds it to the index.
+         * @param tip The commit the batch completes an update to, or {@code null}.
+         * @return Number of commits added.
+         */
+        // The lock is held, never referenced
+        @SuppressWarnings("try")
+        private int append(List<Doc> batch, ObjectId tip) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (Doc doc : batch) {
+                out.writeByte(COMMIT_RECORD);
+                doc.id().copyRawTo(out);
+                out.writeInt(doc.time());
+                byte[] message = doc.message().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(message.length);
+                out.write(message);
+                out.writeShort(doc.paths().size());
+                for (String path : doc.paths()) {
+                    byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(pathBytes.length);
+                    out.write(pathBytes);
+                }
+            }
+            if (tip != null) {
+                out.writeByte(TIP_RECORD);
+                tip.copyRawTo(out);
+            }
+            if (bytes.size() > 0) {
+                try (SharedFileLock lock = SharedFileLock.acquire(lockFile);
+                     FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.APPEND)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    Logger.error("Failed to write the commit history index: " + e.getMessage());
+                }
+            }
+            synchronized (this) {
+                int before = size;
+                batch.forEach(this::add);
+                if (tip != null) {
+                    addTip(tip);
+                }
+                return size - before;
+            }
+        }
+
+        private void addTip(ObjectId tip) {
+            tips.remove(tip);
+            tips.add(tip);
+            if (tips.size() > MAX_TIPS) {
+                tips.remove(tips.iterator().next());
+            }
+        }
+
+        private void add(Doc doc) {
+            if (!ids.add(doc.id())) {
+                return;
+            }
+            if (size == messages.length) {
+                messages = Arrays.copyOf(messages, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            Set<String> terms = new LinkedHashSet<>();
+            for (String path : doc.paths()) {
+                addTerms(path, terms);
+            }
+            for (String term : terms) {
+                postings.computeIfAbsent(term, key -> new Postings()).add(size);
+            }
+            messages[size] = doc.message();
+            times[size] = doc.time();
+            lengths[size] = terms.size();
+            totalLength += terms.size();
+            size++;
+        }
+
+        /**
+         * Reads the index file once. A torn record at the end, e.g. after a crash, is cut off; no other process
+         * is writing meanwhile, so it cannot be one still being appended. If reading fails, the next update tries
+         * again rather than indexing the whole history a second time.
+         */
+        // The lock is held, never referenced
+        @SuppressWarnings("try")
+        private void load() throws IOException {
+            synchronized (this) {
+                if (loaded) {
+                    return;
+                }
+            }
+            List<Doc> docs = new ArrayList<>();
+            List<ObjectId> loadedTips = new ArrayList<>();
+            try (SharedFileLock lock = SharedFileLock.acquire(lockFile)) {
+                if (Files.exists(file)) {
+                    read(docs, loadedTips);
+                }
+            }
+            // In batches, so a query meanwhile answers from the commits loaded so far
+            for (int from = 0; from < docs.size(); from += BATCH_COMMITS) {
+                List<Doc> batch = docs.subList(from, Math.min(docs.size(), from + BATCH_COMMITS));
+                synchronized (this) {
+                    batch.forEach(this::add);
+                }
+            }
+            synchronized (this) {
+                loadedTips.forEach(this::addTip);
+                loaded = true;
+            }
+            Logger.debug(() -> "Loaded " + docs.size() + " indexed commits from " + file.getFileName());
+        }
+
+        private void read(List<Doc> docs, List<ObjectId> loadedTips) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int end = 0;
+                try {
+                    while (buffer.hasRemaining()) {
+                        byte type = buffer.get();
+                        ObjectId id = readId(buffer);
+                        if (type == TIP_RECORD) {
+                            loadedTips.add(id);
+                        } else if (type == COMMIT_RECORD) {
+                            int time = buffer.getInt();
+                            String message = readString(buffer, buffer.getInt());
+                            int pathCount = buffer.getShort() & 0xFFFF;
+                            List<String> paths = new ArrayList<>(pathCount);
+                            for (int i = 0; i < pathCount; i++) {
+                                paths.add(readString(buffer, buffer.getShort() & 0xFFFF));
+                            }
+                            docs.add(new Doc(id, time, message, paths));
+                        } else {
+                            break;
+                        }
+                        end = buffer.position();
+                    }
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    // Torn record
+                }
+                if (end < channel.size()) {
+                    Logger.info("Cutting a damaged record off the commit history index at byte " + end);
+                    channel.truncate(end);
+                }
+            }
+        }
+
+        private static ObjectId readId(ByteBuffer buffer) {
+            byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+            buffer.get(raw);
+            return ObjectId.fromRaw(raw);
+        }
+
+        private static String readString(ByteBuffer buffer, int length) {
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("Record length " + length + " past the end of the file");
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        synchronized List<String> query(Collection<String> paths, int count) {
+            if (size == 0 || paths.isEmpty() || count <= 0) {
+                return List.of();
+            }
+            Set<String> terms = new LinkedHashSet<>();
+            for (String path : paths) {
+                addTerms(path, terms);
+            }
+            double averageLength = (double) totalLength / size;
+            float[] scores = new float[size];
+            boolean any = false;
+            for (String term : terms) {
+                Postings matches = postings.get(term);
+                // A term in more than half of the commits hardly tells them apart, and is the most to score
+                if (matches == null || matches.size > size / 2) {
+                    continue;
+                }
+                double idf = Math.log(1 + (size - matches.size + 0.5) / (matches.size + 0.5));
+                for (int i = 0; i < matches.size; i++) {
+                    int doc = matches.docs[i];
+                    // Every term occurs once per commit, so only the length normalization remains of the tf part
+                    scores[doc] += (float) (idf * (K1 + 1) / (1 + K1 * (1 - B + B * lengths[doc] / averageLength)));
+                }
+                any = true;
+            }
+            if (!any) {
+                return List.of();
+            }
+
+            // Some of the best commits may share a message, e.g. "Update dependencies"
+            int candidates = count * 4;
+            PriorityQueue<Integer> best = new PriorityQueue<>(candidates + 1, (a, b) -> compare(scores, a, b));
+            for (int doc = 0; doc < size; doc++) {
+                if (scores[doc] > 0) {
+                    best.add(doc);
+                    if (best.size() > candidates) {
+                        best.poll();
+                    }
+                }
+            }
+            List<Integer> ranked = new ArrayList<>(best);
+            ranked.sort((a, b) -> compare(scores, b, a));
+            Set<String> result = new LinkedHashSet<>();
+            for (int doc : ranked) {
+                if (result.size() == count) {
+                    break;
+                }
+                result.add(messages[doc]);
+            }
+            return List.copyOf(result);
+        }
+
+        /**
+         * Orders by score, then by commit time.
+         */
+        private int compare(float[] scores, int a, int b) {
+            int byScore = Float.compare(scores[a], scores[b]);
+            return byScore != 0 ? byScore : Integer.compare(times[a], times[b]);
+        }
+    }
+
+    /**
+     * A set of commit ids by their first 64 bits, in an open-addressing table; a collision only makes an update
+     * skip one commit.
+     */
+    private static final class IdSet {
+        private long[] table = new long[1024];
+        private int size;
+
+        boolean contains(ObjectId id) {
+            long key = key(id);
+            for (int slot = slot(key, table.length); table[slot] != 0; slot = (slot + 1) & (table.length - 1)) {
+                if (table[slot] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return Whether the id was not in the set before.
+         */
+        boolean add(ObjectId id) {
+            if (contains(id)) {
+                return false;
+            }
+            if ((size + 1) * 2 > table.length) {
+                long[] old = table;
+                table = new long[old.length * 2];
+                for (long key : old) {
+                    if (key != 0) {
+                        insert(key);
+                    }
+                }
+            }
+            insert(key(id));
+            size++;
+            return true;
+        }
+
+        private void insert(long key) {
+            int slot = slot(key, table.length);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = key;
+        }
+
+        private static long key(ObjectId id) {
+            long key = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                key = key << 8 | id.getByte(i);
+            }
+            // 0 marks an empty slot
+            return key != 0 ? key : 1;
+        }
+
+        private static int slot(long key, int length) {
+            return (int) (key ^ (key >>> 32)) & (length - 1);
+        }
+    }
+}
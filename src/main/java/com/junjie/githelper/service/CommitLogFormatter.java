@@ -0,0 +1,192 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.CommitLogEntry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Renders commit log entries as the plain-text log shown in the report tab and sent to the LLM.
+ */
+public final class CommitLogFormatter {
+
+    private CommitLogFormatter() {
+    }
+
+    public static String format(List<CommitLogEntry> entries, LocalDate startDate, LocalDate endDate) {
+        StringBuilder logBuilder = new StringBuilder();
+        inMemory(() -> write(logBuilder, entries, startDate, endDate));
+        return logBuilder.toString();
+    }
+
+    /**
+     * Writes the same log as {@link #format} to a writer or buffer.
+     */
+    public static void write(Appendable logBuilder, List<CommitLogEntry> entries, LocalDate startDate, LocalDate endDate)
+            throws IOException {
+        writeHeader(logBuilder, entries.size(), startDate, endDate);
+        for (CommitLogEntry entry : entries) {
+            appendEntry(logBuilder, entry);
+        }
+    }
+
+    /**
+     * Writes the first line of a log, which only depends on the number of commits; the entries can follow as
+     * they are produced. A log without commits consists of this line alone.
+     */
+    public static void writeHeader(Appendable logBuilder, int count, LocalDate startDate, LocalDate endDate) throws IOException {
+        if (count == 0) {
+            logBuilder.append("No commits found between " + startDate + " and " + endDate + ".");
+        } else {
+            logBuilder.append(header(count, startDate, endDate));
+        }
+    }
+
+    public static String header(int count, LocalDate startDate, LocalDate endDate) {
+        return String.format("Found %d commits (%s to %s)\n\n", count, startDate, endDate);
+    }
+
+    public static void appendEntry(Appendable logBuilder, CommitLogEntry entry) throws IOException {
+        appendEntry(logBuilder, entry, null);
+    }
+
+    /**
+     * @param project The project the commit belongs to, for logs that span several projects; {@code null} otherwise.
+     */
+    public static void appendEntry(Appendable logBuilder, CommitLogEntry entry, String project) throws IOException {
+        LocalDate commitLocalDate = localDate(entry);
+
+        logBuilder.append("=".repeat(80)).append("\n");
+        if (project != null) {
+            logBuilder.append("Project: ").append(project).append("\n");
+        }
+        logBuilder.append("Commit: ").append(entry.id(), 0, 8).append("\n");
+        logBuilder.append("Author: ").append(entry.author()).append("\n");
+        logBuilder.append("Date: ").append(commitLocalDate.toString()).append("\n");
+        logBuilder.append("Message: ").append(entry.message()).append("\n");
+
+        if (entry.diff() != null && !entry.diff().isEmpty()) {
+            logBuilder.append("\nCode Changes:\n");
+            logBuilder.append(entry.diff());
+        }
+
+        logBuilder.append("\n");
+    }
+
+    /**
+     * Renders the logs of several projects as one log, grouped by day (newest first) and then by author,
+     * so that each person's work across all repositories is read together.
+     */
+    public static String formatMerged(List<ProjectCommitLogs> logs, LocalDate startDate, LocalDate endDate) {
+        StringBuilder logBuilder = new StringBuilder();
+        inMemory(() -> writeMerged(logBuilder, logs, startDate, endDate));
+        return logBuilder.toString();
+    }
+
+    /**
+     * Writes the same log as {@link #formatMerged} to a writer or buffer.
+     */
+    public static void writeMerged(Appendable logBuilder, List<ProjectCommitLogs> logs, LocalDate startDate, LocalDate endDate)
+            throws IOException {
+        Map<LocalDate, Map<String, List<ProjectEntry>>> byDay = new TreeMap<>(Comparator.reverseOrder());
+        int total = 0;
+        for (ProjectCommitLogs projectLogs : logs) {
+            if (projectLogs.result() == null) {
+                continue;
+            }
+            for (CommitLogEntry entry : projectLogs.result().entries()) {
+                byDay.computeIfAbsent(localDate(entry), day -> new TreeMap<>())
+                    .computeIfAbsent(entry.author(), author -> new ArrayList<>())
+                    .add(new ProjectEntry(projectLogs.project().name(), entry));
+                total++;
+            }
+        }
+
+        logBuilder.append(String.format("Found %d commits in %d projects (%s to %s)\n", total, logs.size(), startDate, endDate));
+        for (ProjectCommitLogs projectLogs : logs) {
+            logBuilder.append("- ").append(projectLogs.project().name()).append(": ")
+                .append(projectLogs.error() != null ? "failed to read commits: " + projectLogs.error() : projectLogs.commitCount() + " commits")
+                .append("\n");
+        }
+        logBuilder.append("\n");
+
+        for (Map.Entry<LocalDate, Map<String, List<ProjectEntry>>> day : byDay.entrySet()) {
+            logBuilder.append("#".repeat(80)).append("\n");
+            logBuilder.append("Day: ").append(day.getKey().toString()).append("\n\n");
+            for (Map.Entry<String, List<ProjectEntry>> author : day.getValue().entrySet()) {
+                logBuilder.append("## ").append(author.getKey()).append(" (").append(String.valueOf(author.getValue().size())).append(" commits)\n");
+                // Newest first within the day, as in a single-project log
+                author.getValue().sort(Comparator.comparing((ProjectEntry tagged) -> tagged.entry().time()).reversed());
+                for (ProjectEntry tagged : author.getValue()) {
+                    appendEntry(logBuilder, tagged.entry(), tagged.project());
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders entries as token-bounded parts, for logs too large for one prompt. Entries are kept whole,
+     * unless one exceeds the budget on its own; its code changes are then split between files.
+     */
+    static List<String> chunk(List<CommitLogEntry> entries, int maxTokensPerChunk, Tokenizer tokenizer) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (CommitLogEntry entry : entries) {
+            StringBuilder rendered = new StringBuilder();
+            inMemory(() -> appendEntry(rendered, entry));
+            int renderedTokens = tokenizer.count(rendered);
+            if (renderedTokens > maxTokensPerChunk) {
+                flush(chunks, current);
+                currentTokens = 0;
+                chunks.addAll(DiffChunker.split(rendered.toString(), maxTokensPerChunk, tokenizer));
+                continue;
+            }
+            if (currentTokens + renderedTokens > maxTokensPerChunk) {
+                flush(chunks, current);
+                currentTokens = 0;
+            }
+            current.append(rendered);
+            currentTokens += renderedTokens;
+        }
+        flush(chunks, current);
+        return chunks;
+    }
+
+    private static void flush(List<String> chunks, StringBuilder current) {
+        if (!current.isEmpty()) {
+            chunks.add(current.toString());
+            current.setLength(0);
+        }
+    }
+
+    @FunctionalInterface
+    private interface InMemoryWrite {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs a write into a {@link StringBuilder}, which never fails.
+     */
+    private static void inMemory(InMemoryWrite write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static LocalDate localDate(CommitLogEntry entry) {
+        return entry.time().atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    private record ProjectEntry(String project, CommitLogEntry entry) {
+    }
+}
@@ -0,0 +1,33 @@
+package com.junjie.githelper.service;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Selects the commits of a commit log.
+ * @param startDate First day to include.
+ * @param endDate Last day to include.
+ * @param author Author name or email pattern, or {@code null} for all authors.
+ * @param paths Repository-relative paths the commits must touch; empty for the whole tree.
+ * @param sinceCommit Watermark commit: it and its ancestors are skipped. {@code null} to walk the full range.
+ * @param includeDiff Whether to include code change details.
+ * @param diffOptions How code changes are produced when {@code includeDiff} is set.
+ */
+public record CommitLogQuery(
+    LocalDate startDate,
+    LocalDate endDate,
+    String author,
+    List<String> paths,
+    String sinceCommit,
+    boolean includeDiff,
+    DiffOptions diffOptions
+) {
+    public CommitLogQuery {
+        paths = paths == null ? List.of() : List.copyOf(paths);
+        diffOptions = diffOptions == null ? DiffOptions.DEFAULT : diffOptions;
+    }
+
+    public CommitLogQuery(LocalDate startDate, LocalDate endDate, boolean includeDiff) {
+        this(startDate, endDate, null, List.of(), null, includeDiff, DiffOptions.DEFAULT);
+    }
+}
@@ -0,0 +1,16 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.CommitLogEntry;
+
+import java.util.List;
+
+/**
+ * The commits selected by a {@link CommitLogQuery}, newest first.
+ * @param watermarkCommit The newest selected commit; pass it as the next query's {@code sinceCommit} to only see
+ *                        newer commits. {@code null} if nothing was selected, or if an author or path filter
+ *                        skipped older commits that a later report would then miss.
+ */
+public record CommitLogResult(
+    List<CommitLogEntry> entries,
+    String watermarkCommit
+) {}
@@ -0,0 +1,11 @@
+package com.junjie.githelper.service;
+
+/**
+ * What was written by {@link GitService#writeCommitLogs}.
+ * @param commitCount Number of commits in the log.
+ * @param watermarkCommit The commit to skip up to next time, as in {@link CommitLogResult}.
+ */
+public record CommitLogSummary(
+    int commitCount,
+    String watermarkCommit
+) {}
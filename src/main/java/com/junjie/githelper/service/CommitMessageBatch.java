@@ -0,0 +1,120 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.LLMSettings;
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.util.Logger;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Generates commit messages for the staged changes of many projects at once, e.g. at the end of a day.
+ * Staged diffs are read concurrently and each project's request is sent as soon as its diff is read. How fast
+ * requests go out is bounded by the quota of the endpoint (see {@link RateLimiter}), not by the number of
+ * projects. A project that fails does not stop the others.
+ */
+public class CommitMessageBatch {
+
+    // Repositories diffed at a time
+    private static final int MAX_PARALLEL_PROJECTS = 4;
+    // Requests in flight at a time; with a quota, further ones would only wait for it
+    private static final int MAX_PARALLEL_REQUESTS = 8;
+
+    private final GitService gitService;
+    private final LLMService llmService;
+
+    private record Staged(String diff, String recentCommits) {
+    }
+
+    public CommitMessageBatch(GitService gitService, LLMService llmService) {
+        this.gitService = gitService;
+        this.llmService = llmService;
+    }
+
+    /**
+     * @param regenerate Skip the response cache.
+     * @param onResult Receives each result as soon as it is ready, on a background thread.
+     * @return The results, in project order.
+     * @throws InterruptedIOException If the calling thread is interrupted; unfinished requests are cancelled.
+     */
+    public List<ProjectCommitMessage> generate(List<Project> projects, LLMSettings settings, boolean regenerate,
+                                               Consumer<ProjectCommitMessage> onResult) throws InterruptedIOException {
+        if (projects.isEmpty()) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        ExecutorService gitPool = pool("batch-git", Math.min(MAX_PARALLEL_PROJECTS, projects.size()));
+        ExecutorService llmPool = pool("batch-llm", Math.min(MAX_PARALLEL_REQUESTS, projects.size()));
+        AtomicInteger staged = new AtomicInteger();
+        try {
+            List<CompletableFuture<ProjectCommitMessage>> futures = new ArrayList<>(projects.size());
+            for (Project project : projects) {
+                futures.add(CompletableFuture.supplyAsync(() -> readStaged(project), gitPool)
+                    .thenApplyAsync(changes -> {
+                        if (changes == null) {
+                            return new ProjectCommitMessage(project, null, null);
+                        }
+                        staged.incrementAndGet();
+                        String message = llmService.generateCommitMessage(settings, project.custom_prompt(),
+                            changes.diff(), changes.recentCommits(), regenerate, null);
+                        return new ProjectCommitMessage(project, message, null);
+                    }, llmPool)
+                    .exceptionally(e -> {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        String error = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                        Logger.error("Failed to generate the commit message of " + project.name() + ": " + error);
+                        return new ProjectCommitMessage(project, null, error);
+                    })
+                    .thenApply(result -> {
+                        onResult.accept(result);
+                        return result;
+                    }));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+            List<ProjectCommitMessage> results = futures.stream().map(CompletableFuture::join).toList();
+            Logger.info("Generated commit messages for " + staged.get() + " of " + projects.size() + " projects in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch generation cancelled");
+        } catch (ExecutionException e) {
+            // Only the result consumer can fail here
+            throw e.getCause() instanceof RuntimeException runtimeException
+                ? runtimeException
+                : new RuntimeException(e.getCause());
+        } finally {
+            // Interrupts the diffs and requests still running after a cancellation
+            gitPool.shutdownNow();
+            llmPool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The staged changes, or {@code null} if nothing is staged.
+     */
+    private Staged readStaged(Project project) {
+        try {
+            String diff = gitService.getStagedChanges(project);
+            return diff.isEmpty() ? null : new Staged(diff, gitService.getRecentCommitMessages(project));
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static ExecutorService pool(String name, int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
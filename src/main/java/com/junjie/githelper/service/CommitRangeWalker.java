@@ -0,0 +1,149 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.util.Logger;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.AndRevFilter;
+import org.eclipse.jgit.revwalk.filter.AuthorRevFilter;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects the commits of a {@link CommitLogQuery} from HEAD.
+ * <p>
+ * The walk is sorted by commit time, newest first, and the start date is applied with
+ * {@link CommitTimeRevFilter#after}, which stops the walk at the first older commit instead of
+ * visiting the rest of the history. Author and path filters are evaluated inside the walk, and a
+ * watermark commit marks everything up to the last report as uninteresting.
+ * <p>
+ * The next watermark is the newest selected commit, not HEAD: commits after the end date are not its
+ * ancestors, so a later report still sees them. When an author or path filter skipped an older commit of the
+ * range, that commit is an ancestor that no report has seen, so no watermark is offered.
+ */
+final class CommitRangeWalker {
+
+    /**
+     * @param commits The selected commits, newest first.
+     * @param watermark The commit to skip up to next time, {@code null} if none is safe or nothing was selected.
+     */
+    record CommitRange(List<RevCommit> commits, ObjectId watermark) {}
+
+    private CommitRangeWalker() {
+    }
+
+    static CommitRange walk(Repository repository, CommitLogQuery query) throws IOException {
+        ObjectId head = repository.resolve(Constants.HEAD);
+        if (head == null) {
+            return new CommitRange(List.of(), null);
+        }
+
+        ZoneId zone = ZoneId.systemDefault();
+        long since = query.startDate().atStartOfDay(zone).toEpochSecond();
+        // Inclusive bound, so the last second of the end date still counts
+        long until = query.endDate().plusDays(1).atStartOfDay(zone).toEpochSecond() - 1;
+
+        try (RevWalk walk = new RevWalk(repository)) {
+            walk.sort(RevSort.COMMIT_TIME_DESC);
+            walk.markStart(walk.parseCommit(head));
+            ObjectId lastReport = markWatermark(repository, walk, query.sinceCommit());
+
+            RevFilter dateFilter = AndRevFilter.create(
+                CommitTimeRevFilter.after(since * 1000L),
+                CommitTimeRevFilter.before(until * 1000L));
+            RevFilter filter = dateFilter;
+            if (query.author() != null && !query.author().isBlank()) {
+                filter = AndRevFilter.create(filter, AuthorRevFilter.create(query.author().trim()));
+            }
+            walk.setRevFilter(filter);
+
+            boolean filtered = filter != dateFilter || !query.paths().isEmpty();
+            if (!query.paths().isEmpty()) {
+                // Keep the real parents, diffs must not span the commits that were filtered out
+                walk.setRewriteParents(false);
+                walk.setTreeFilter(AndTreeFilter.create(
+                    PathFilterGroup.createFromStrings(query.paths()), TreeFilter.ANY_DIFF));
+            }
+
+            List<RevCommit> commits = new ArrayList<>();
+            for (RevCommit commit : walk) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Commit walk cancelled");
+                }
+                commits.add(commit);
+            }
+            if (commits.isEmpty() || filtered && skipsOlder(repository, head, lastReport, dateFilter, commits)) {
+                return new CommitRange(commits, null);
+            }
+            return new CommitRange(commits, commits.get(0).copy());
+        }
+    }
+
+    /**
+     * Walks the date range again without the author and path filters.
+     * @return Whether a commit older than the newest selected one was filtered out.
+     */
+    private static boolean skipsOlder(Repository repository, ObjectId head, ObjectId lastReport, RevFilter dateFilter,
+                                      List<RevCommit> commits) throws IOException {
+        Set<ObjectId> selected = new HashSet<>(commits);
+        try (RevWalk walk = new RevWalk(repository)) {
+            walk.sort(RevSort.COMMIT_TIME_DESC);
+            walk.markStart(walk.parseCommit(head));
+            if (lastReport != null) {
+                walk.markUninteresting(walk.parseCommit(lastReport));
+            }
+            walk.setRevFilter(dateFilter);
+            boolean older = false;
+            for (RevCommit commit : walk) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Commit walk cancelled");
+                }
+                if (!selected.contains(commit)) {
+                    if (older) {
+                        return true;
+                    }
+                } else if (commit.equals(commits.get(0))) {
+                    older = true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return The watermark commit now marked uninteresting, or {@code null} if there is none.
+     */
+    private static ObjectId markWatermark(Repository repository, RevWalk walk, String sinceCommit) throws IOException {
+        if (sinceCommit == null || sinceCommit.isBlank()) {
+            return null;
+        }
+        ObjectId watermark = repository.resolve(sinceCommit);
+        if (watermark == null) {
+            Logger.info("Watermark commit " + sinceCommit + " not found, walking the full date range");
+            return null;
+        }
+        try {
+            walk.markUninteresting(walk.parseCommit(watermark));
+            return watermark;
+        } catch (MissingObjectException e) {
+            // History was rewritten or garbage collected since the last report
+            Logger.info("Watermark commit " + sinceCommit + " is gone, walking the full date range");
+            return null;
+        }
+    }
+}
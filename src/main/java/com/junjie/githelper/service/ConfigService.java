@@ -2,42 +2,145 @@ package com.junjie.githelper.service;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.junjie.githelper.model.AppConfig;
 import com.junjie.githelper.model.LLMSettings;
+import com.junjie.githelper.util.Logger;
 
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Reads and writes {@code config.json}. Most code should go through a {@link ConfigStore}, which keeps the
+ * configuration in memory and coalesces writes.
+ */
 public class ConfigService {
 
-    private static final Path CONFIG_DIR = Path.of(System.getProperty("user.home"), ".commit-pal");
-    private static final Path CONFIG_FILE = CONFIG_DIR.resolve("config.json");
+    // Overridable with -Dcommitpal.home, e.g. so benchmarks never touch the user's configuration
+    public static final Path CONFIG_DIR = System.getProperty("commitpal.home") != null
+        ? Path.of(System.getProperty("commitpal.home"))
+        : Path.of(System.getProperty("user.home"), ".commit-pal");
+    static final String CONFIG_FILE_NAME = "config.json";
+    private static final Path CONFIG_FILE = CONFIG_DIR.resolve(CONFIG_FILE_NAME);
+    private static final Path LOCK_FILE = CONFIG_DIR.resolve("config.json.lock");
+    // Periodic metrics exports, one pair of .prom/.json files per process kind
+    public static final Path METRICS_DIR = CONFIG_DIR.resolve("metrics");
+    // Rolling log files, named like the metrics exports
+    public static final Path LOGS_DIR = CONFIG_DIR.resolve("logs");
+    // A file lock is held per process, so threads of one process take turns here first
+    private static final ReentrantLock localLock = new ReentrantLock();
     private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
+    /**
+     * Reads the configuration, or returns the default one if there is no file yet.
+     */
     public AppConfig loadConfig() throws IOException {
-        if (!Files.exists(CONFIG_FILE)) {
-            return createDefaultConfig();
+        byte[] content = readConfigBytes();
+        return content == null ? defaultConfig() : parse(content);
+    }
+
+    /**
+     * @return The raw file content, or {@code null} if the file does not exist.
+     */
+    byte[] readConfigBytes() throws IOException {
+        try {
+            return Files.readAllBytes(CONFIG_FILE);
+        } catch (NoSuchFileException e) {
+            return null;
         }
-        try (FileReader reader = new FileReader(CONFIG_FILE.toFile())) {
-            return gson.fromJson(reader, AppConfig.class);
+    }
+
+    AppConfig parse(byte[] content) throws IOException {
+        try {
+            AppConfig config = gson.fromJson(new String(content, StandardCharsets.UTF_8), AppConfig.class);
+            if (config == null) {
+                throw new IOException("Configuration file is empty");
+            }
+            return config;
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid configuration file: " + e.getMessage(), e);
         }
     }
 
-    public void saveConfig(AppConfig config) throws IOException {
+    /**
+     * Replaces the file atomically: the content goes to a temporary file in the same directory, is synced,
+     * and then moved over the old file, so readers and crashes see either the old or the new file.
+     * @return The bytes written.
+     */
+    public byte[] saveConfig(AppConfig config) throws IOException {
         Files.createDirectories(CONFIG_DIR);
-        try (FileWriter writer = new FileWriter(CONFIG_FILE.toFile())) {
-            gson.toJson(config, writer);
+        byte[] content = gson.toJson(config).getBytes(StandardCharsets.UTF_8);
+        Path temp = Files.createTempFile(CONFIG_DIR, CONFIG_FILE_NAME, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, CONFIG_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, CONFIG_FILE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return content;
+    }
+
+    /**
+     * Takes the lock that writers of the configuration file hold while they read, merge and write it, across
+     * the threads of this process and other processes. Where the file system does not support locks, only
+     * this process is excluded.
+     */
+    Closeable lockConfig() throws IOException {
+        localLock.lock();
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(CONFIG_DIR);
+            channel = FileChannel.open(LOCK_FILE, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.lock();
+        } catch (IOException e) {
+            Logger.debug(() -> "Cannot lock " + LOCK_FILE + ": " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Not locked, nothing to release
+                }
+                channel = null;
+            }
+        } catch (RuntimeException e) {
+            localLock.unlock();
+            throw e;
         }
+        FileChannel locked = channel;
+        return () -> {
+            try {
+                if (locked != null) {
+                    locked.close();
+                }
+            } finally {
+                localLock.unlock();
+            }
+        };
     }
 
-    private AppConfig createDefaultConfig() throws IOException {
+    static AppConfig defaultConfig() {
         LLMSettings defaultLLMSettings = new LLMSettings("openai", "YOUR_API_KEY", "gpt-4o", "https://api.openai.com/v1");
-        AppConfig defaultConfig = new AppConfig("1.0", defaultLLMSettings, new ArrayList<>(), null);
-        saveConfig(defaultConfig);
-        return defaultConfig;
+        return new AppConfig("1.0", defaultLLMSettings, new ArrayList<>(), null);
     }
 }
@@ -0,0 +1,279 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.AppConfig;
+import com.junjie.githelper.util.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * The authoritative in-memory copy of the configuration of one process.
+ * <p>
+ * Changes apply in memory at once and reach {@code config.json} shortly after, in one atomic write per burst
+ * of changes, on a background thread. Another process (a second desktop instance, the CLI or the daemon) may
+ * write the file as well: its changes are picked up from file events, and local changes that are not written
+ * yet are re-applied on top of them, so neither side overwrites the other. Changes are therefore functions
+ * of the current configuration rather than whole new configurations.
+ */
+public final class ConfigStore implements AutoCloseable {
+
+    private static final long WRITE_DELAY_MILLIS = 500;
+    private static final long RELOAD_DEBOUNCE_MILLIS = 200;
+    private static final long RETRY_DELAY_MILLIS = 5_000;
+
+    private final ConfigService configService;
+    private final WatchService watchService;
+    private final List<Consumer<AppConfig>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "config-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this
+    private AppConfig current;
+    // The file content last read or written; a file event with other content is an external change
+    private byte[] lastSeen;
+    // Changes applied in memory but not written yet, oldest first
+    private final List<UnaryOperator<AppConfig>> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledWrite;
+    private ScheduledFuture<?> scheduledReload;
+
+    /**
+     * Loads the configuration and starts watching the file. Without a file the default configuration is used
+     * and written.
+     */
+    public ConfigStore(ConfigService configService) throws IOException {
+        this.configService = configService;
+        Files.createDirectories(ConfigService.CONFIG_DIR);
+        // Watch before reading, so a change in between is not missed
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            ConfigService.CONFIG_DIR.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            lastSeen = configService.readConfigBytes();
+            if (lastSeen == null) {
+                current = ConfigService.defaultConfig();
+                update(config -> config);
+            } else {
+                current = configService.parse(lastSeen);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        Thread thread = new Thread(this::pollEvents, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized AppConfig get() {
+        return current;
+    }
+
+    /**
+     * Applies a change in memory and schedules writing it. The change may be applied again later, to a newer
+     * configuration written by another process, so it should only depend on its argument.
+     * @return The configuration after the change.
+     */
+    public synchronized AppConfig update(UnaryOperator<AppConfig> change) {
+        current = change.apply(current);
+        pending.add(change);
+        // Changes within the delay share one write; later ones do not push it further out
+        if (scheduledWrite == null) {
+            scheduledWrite = schedule(this::writePending, WRITE_DELAY_MILLIS);
+        }
+        return current;
+    }
+
+    /**
+     * @param listener Called on a background thread with the merged configuration after another process
+     *                 changed the file.
+     */
+    public void addListener(Consumer<AppConfig> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Writes pending changes now and waits for the write.
+     */
+    public void flush() {
+        Future<?> write;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (scheduledWrite != null) {
+                scheduledWrite.cancel(false);
+            }
+            scheduledWrite = schedule(this::writePending, 0);
+            write = scheduledWrite;
+        }
+        try {
+            if (write != null) {
+                write.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Logger.error("Failed to save configuration", e.getCause());
+        }
+    }
+
+    /**
+     * Writes pending changes and stops watching the file.
+     */
+    @Override
+    public void close() {
+        flush();
+        executor.shutdownNow();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            Logger.error("Failed to close configuration watcher: " + e.getMessage());
+        }
+    }
+
+    // The lock is held, never referenced
+    @SuppressWarnings("try")
+    private void writePending() {
+        try (Closeable lock = configService.lockConfig()) {
+            byte[] onDisk = configService.readConfigBytes();
+            AppConfig merged = null;
+            AppConfig toWrite;
+            int written;
+            synchronized (this) {
+                scheduledWrite = null;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                if (onDisk != null && !Arrays.equals(onDisk, lastSeen)) {
+                    try {
+                        merged = rebase(onDisk);
+                    } catch (IOException e) {
+                        Logger.error("Replacing unreadable configuration file: " + e.getMessage());
+                    }
+                }
+                toWrite = current;
+                written = pending.size();
+            }
+            byte[] content = configService.saveConfig(toWrite);
+            synchronized (this) {
+                lastSeen = content;
+                pending.subList(0, written).clear();
+            }
+            Logger.debug(() -> "Configuration saved (" + written + " changes)");
+            if (merged != null) {
+                notifyListeners(merged);
+            }
+        } catch (IOException | RuntimeException e) {
+            Logger.error("Failed to save configuration, retrying in " + RETRY_DELAY_MILLIS / 1000 + " s: " + e.getMessage());
+            synchronized (this) {
+                scheduledWrite = schedule(this::writePending, RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private void reload() {
+        try {
+            byte[] onDisk = configService.readConfigBytes();
+            AppConfig merged;
+            synchronized (this) {
+                scheduledReload = null;
+                if (onDisk == null || Arrays.equals(onDisk, lastSeen)) {
+                    return;
+                }
+                merged = rebase(onDisk);
+            }
+            Logger.info("Configuration changed on disk, merged");
+            notifyListeners(merged);
+        } catch (IOException e) {
+            // Possibly written in place by another program; the next event retries
+            Logger.error("Failed to reload configuration: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Makes the configuration read from disk the base and re-applies the pending changes on top of it.
+     * The caller holds the lock.
+     * @throws IOException If the file cannot be parsed; nothing changes then.
+     */
+    private AppConfig rebase(byte[] onDisk) throws IOException {
+        AppConfig config = configService.parse(onDisk);
+        for (UnaryOperator<AppConfig> change : pending) {
+            config = change.apply(config);
+        }
+        current = config;
+        lastSeen = onDisk;
+        return config;
+    }
+
+    private void notifyListeners(AppConfig config) {
+        for (Consumer<AppConfig> listener : listeners) {
+            try {
+                listener.accept(config);
+            } catch (RuntimeException e) {
+                Logger.error("Configuration listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void pollEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean relevant = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path file) {
+                        relevant |= file.toString().equals(ConfigService.CONFIG_FILE_NAME);
+                    } else if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        relevant = true;
+                    }
+                }
+                key.reset();
+                if (relevant) {
+                    synchronized (this) {
+                        if (scheduledReload != null) {
+                            scheduledReload.cancel(false);
+                        }
+                        scheduledReload = schedule(this::reload, RELOAD_DEBOUNCE_MILLIS);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Store closed
+        }
+    }
+
+    /**
+     * @return The scheduled task, or {@code null} once the store is closed.
+     */
+    private ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        try {
+            return executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+}
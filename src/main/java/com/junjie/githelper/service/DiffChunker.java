@@ -0,0 +1,136 @@
+package com.junjie.githelper.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a unified diff into token-bounded chunks.
+ * <p>
+ * Files are never split unless a single file exceeds the budget on its own; such a file is split
+ * between hunks, and every part repeats the file header so it can be understood in isolation.
+ * A single hunk larger than the budget is cut at line boundaries as a last resort.
+ */
+final class DiffChunker {
+
+    private DiffChunker() {
+    }
+
+    static List<String> split(String diff, int maxTokensPerChunk, Tokenizer tokenizer) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (String file : splitBefore(diff, "diff --git ")) {
+            int fileTokens = tokenizer.count(file);
+            if (fileTokens > maxTokensPerChunk) {
+                flush(chunks, current);
+                currentTokens = 0;
+                chunks.addAll(splitLargeFile(file, maxTokensPerChunk, tokenizer));
+                continue;
+            }
+            if (currentTokens + fileTokens > maxTokensPerChunk) {
+                flush(chunks, current);
+                currentTokens = 0;
+            }
+            current.append(file);
+            currentTokens += fileTokens;
+        }
+        flush(chunks, current);
+        return chunks;
+    }
+
+    private static List<String> splitLargeFile(String file, int maxTokensPerChunk, Tokenizer tokenizer) {
+        List<String> hunks = splitBefore(file, "@@ ");
+        // Everything before the first hunk: "diff --git", index, ---/+++ lines
+        String header = hunks.get(0).startsWith("@@ ") ? "" : hunks.remove(0);
+        int headerTokens = tokenizer.count(header);
+
+        List<String> parts = new ArrayList<>();
+        StringBuilder current = new StringBuilder(header);
+        int currentTokens = headerTokens;
+        for (String hunk : hunks) {
+            for (String piece : splitOversizedHunk(hunk, maxTokensPerChunk - headerTokens, tokenizer)) {
+                int pieceTokens = tokenizer.count(piece);
+                if (current.length() > header.length() && currentTokens + pieceTokens > maxTokensPerChunk) {
+                    parts.add(current.toString());
+                    current.setLength(0);
+                    current.append(header);
+                    currentTokens = headerTokens;
+                }
+                current.append(piece);
+                currentTokens += pieceTokens;
+            }
+        }
+        if (current.length() > header.length() || parts.isEmpty()) {
+            parts.add(current.toString());
+        }
+        return parts;
+    }
+
+    /**
+     * Cuts a hunk after whole lines. A single line over the budget, e.g. minified code, is cut into pieces of
+     * about the budget's share of its length.
+     */
+    private static List<String> splitOversizedHunk(String hunk, int maxTokens, Tokenizer tokenizer) {
+        int budget = Math.max(1, maxTokens);
+        if (tokenizer.count(hunk) <= budget) {
+            return List.of(hunk);
+        }
+        List<String> pieces = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        int lineStart = 0;
+        while (lineStart < hunk.length()) {
+            int lineEnd = hunk.indexOf('\n', lineStart);
+            lineEnd = lineEnd < 0 ? hunk.length() : lineEnd + 1;
+            String line = hunk.substring(lineStart, lineEnd);
+            lineStart = lineEnd;
+            int lineTokens = tokenizer.count(line);
+            if (currentTokens + lineTokens > budget) {
+                flush(pieces, current);
+                currentTokens = 0;
+            }
+            if (lineTokens > budget) {
+                int step = Math.max(1, (int) ((long) line.length() * budget / lineTokens));
+                for (int start = 0; start < line.length(); start += step) {
+                    pieces.add(line.substring(start, Math.min(line.length(), start + step)));
+                }
+                continue;
+            }
+            current.append(line);
+            currentTokens += lineTokens;
+        }
+        flush(pieces, current);
+        return pieces;
+    }
+
+    /**
+     * Splits the text before every line that starts with the marker.
+     */
+    static List<String> splitBefore(String text, String marker) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int search = 0;
+        while (true) {
+            int next = text.indexOf("\n" + marker, search);
+            if (next < 0) {
+                break;
+            }
+            if (next + 1 > start) {
+                parts.add(text.substring(start, next + 1));
+            }
+            start = next + 1;
+            search = start;
+        }
+        if (start < text.length()) {
+            parts.add(text.substring(start));
+        }
+        return parts;
+    }
+
+    private static void flush(List<String> chunks, StringBuilder current) {
+        if (!current.isEmpty()) {
+            chunks.add(current.toString());
+            current.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.junjie.githelper.service;
+
+/**
+ * Controls how commit diffs are produced.
+ * @param mergesAgainstAllParents Diff merge commits against every parent instead of only the first one.
+ * @param contextLines Number of unchanged lines shown around each change.
+ * @param detectRenames Show a moved or copied file as one rename instead of a deletion and an addition.
+ */
+public record DiffOptions(
+    boolean mergesAgainstAllParents,
+    int contextLines,
+    boolean detectRenames
+) {
+    public static final DiffOptions DEFAULT = new DiffOptions(false, 3, false);
+    // For prompts: every context line and every line of a moved file costs tokens
+    public static final DiffOptions PROMPT = new DiffOptions(false, 1, true);
+
+    public DiffOptions withContextLines(int lines) {
+        return new DiffOptions(mergesAgainstAllParents, lines, detectRenames);
+    }
+}
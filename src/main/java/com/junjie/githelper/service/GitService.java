@@ -2,68 +2,140 @@ package com.junjie.githelper.service;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.NoHeadException;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 
+import com.junjie.githelper.model.CommitLogEntry;
+import com.junjie.githelper.model.DiffFile;
 import com.junjie.githelper.model.Project;
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.time.Instant;
 import java.time.LocalDate;
-import java.time.ZoneId;
-import java.util.Date;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
-import javafx.scene.input.Clipboard;
-import javafx.scene.input.ClipboardContent;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class GitService {
 
+    // Repositories read at once by a multi-project query; each may diff on all cores itself
+    private static final int MAX_PARALLEL_PROJECTS = 4;
+    // Commits diffed at a time when a log is written as it is produced; enough to keep the diff pool busy
+    private static final int DIFF_WINDOW_COMMITS = 256;
+    // Earlier commit messages given to the model as examples
+    private static final int EXAMPLE_COMMITS = 5;
+
+    private final RepositoryCache repositoryCache = new RepositoryCache();
+    private final CommitDiffCache diffCache = new CommitDiffCache(ConfigService.CONFIG_DIR.resolve("cache"));
+    private final StagedDiffTracker stagedDiffTracker = new StagedDiffTracker();
+    private final CommitHistoryIndex historyIndex =
+        new CommitHistoryIndex(ConfigService.CONFIG_DIR.resolve("cache").resolve("history"), repositoryCache);
+
+    /**
+     * Gets the staged diff (HEAD against the index) for a commit message prompt: with renames detected, the
+     * project's context lines (1 by default), and noise such as lockfiles, generated and binary files reduced to
+     * one line each (see {@link PromptDiffFilter}).
+     * The diff is kept per repository, so an unchanged index is not diffed again and a changed one
+     * only re-diffs the paths whose index entries changed.
+     */
+    @SuppressWarnings("try")
     public String getStagedChanges(Project project) throws IOException, GitAPIException {
-        File repoDir = new File(project.path());
-        
-        try (Repository repository = new FileRepositoryBuilder()
-                .setGitDir(new File(repoDir, ".git"))
-                .build();
-             Git git = new Git(repository)) {
-
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            git.diff()
-               .setCached(true)
-               .setOutputStream(outputStream)
-               .call();
-            
-            return outputStream.toString();
+        DiffOptions options = promptDiffOptions(project);
+        try (Metrics.Timer timer = time("getStagedChanges");
+             RepositoryCache.Lease lease = repositoryCache.acquire(project)) {
+            List<String> fileDiffs = stagedDiffTracker.getStagedFileDiffs(lease.repository(), options);
+            String diff = new PromptDiffFilter(project.diff_excludes()).apply(fileDiffs);
+            Logger.debug(() -> {
+                long raw = fileDiffs.stream().mapToLong(String::length).sum();
+                return "Staged diff for the prompt: " + diff.length() + " of " + raw + " chars kept";
+            });
+            return diff;
         }
     }
 
-    public String getRecentCommitMessages(Project project) throws IOException, GitAPIException {
-        File repoDir = new File(project.path());
+    /**
+     * Gets the staged diff parsed into files, handing each file to the consumer as soon as it is parsed.
+     * @param onFile Receives the files in path order; called on the calling thread.
+     */
+    @SuppressWarnings("try")
+    public List<DiffFile> getStagedDiff(Project project, Consumer<DiffFile> onFile) throws IOException {
+        try (Metrics.Timer timer = time("getStagedDiff")) {
+            List<String> fileDiffs;
+            try (RepositoryCache.Lease lease = repositoryCache.acquire(project)) {
+                fileDiffs = stagedDiffTracker.getStagedFileDiffs(lease.repository(), DiffOptions.DEFAULT);
+            }
+            List<DiffFile> files = new ArrayList<>(fileDiffs.size());
+            for (String fileDiff : fileDiffs) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Loading staged changes cancelled");
+                }
+                DiffFile file = UnifiedDiffParser.parseFile(fileDiff);
+                files.add(file);
+                onFile.accept(file);
+            }
+            return files;
+        }
+    }
 
-        try (Repository repository = new FileRepositoryBuilder()
-            .setGitDir(new File(repoDir, ".git"))
-            .build();
-             Git git = new Git(repository)) {
+    private static DiffOptions promptDiffOptions(Project project) {
+        return project.diff_context_lines() != null
+            ? DiffOptions.PROMPT.withContextLines(Math.max(0, project.diff_context_lines()))
+            : DiffOptions.PROMPT;
+    }
 
-            Iterable<RevCommit> commits = git.log().setMaxCount(5).call();
-            return StreamSupport.stream(commits.spliterator(), false)
-                .map(RevCommit::getShortMessage)
-                .collect(Collectors.joining("\n"));
+    /**
+     * Gets example commit messages for a commit message prompt, one per line: those of the earlier commits that
+     * touched the files of the staged changes most closely (see {@link CommitHistoryIndex}), topped up with the
+     * latest commit messages.
+     */
+    @SuppressWarnings("try")
+    public String getRecentCommitMessages(Project project) throws IOException, GitAPIException {
+        try (Metrics.Timer timer = time("getRecentCommitMessages")) {
+            List<String> stagedPaths;
+            try (RepositoryCache.Lease lease = repositoryCache.acquire(project)) {
+                stagedPaths = stagedDiffTracker.getStagedPaths(lease.repository(), promptDiffOptions(project));
+            }
+            Set<String> messages = new LinkedHashSet<>(historyIndex.related(project, stagedPaths, EXAMPLE_COMMITS));
+            if (messages.size() < EXAMPLE_COMMITS) {
+                try (RepositoryCache.Lease lease = repositoryCache.acquire(project);
+                     Git git = new Git(lease.repository())) {
+                    Iterable<RevCommit> commits = git.log().setMaxCount(EXAMPLE_COMMITS).call();
+                    for (RevCommit commit : commits) {
+                        if (messages.size() < EXAMPLE_COMMITS) {
+                            messages.add(commit.getShortMessage());
+                        }
+                    }
+                } catch (NoHeadException e) {
+                    // No commits yet
+                }
+            }
+            return String.join("\n", messages);
         }
     }
 
-    public void commit(Project project, String message) throws IOException, GitAPIException {
-        File repoDir = new File(project.path());
-
-        try (Repository repository = new FileRepositoryBuilder()
-                .setGitDir(new File(repoDir, ".git"))
-                .build();
-             Git git = new Git(repository)) {
+    /**
+     * Commits the staged changes.
+     * @return The id of the new commit.
+     */
+    @SuppressWarnings("try")
+    public String commit(Project project, String message) throws IOException, GitAPIException {
+        try (Metrics.Timer timer = time("commit");
+             RepositoryCache.Lease lease = repositoryCache.acquire(project);
+             Git git = new Git(lease.repository())) {
 
-            git.commit().setMessage(message).call();
+            return git.commit().setMessage(message).call().getName();
         }
     }
     
@@ -76,95 +148,193 @@ public class GitService {
      * @return Formatted commit logs.
      */
     public String getCommitLogs(Project project, LocalDate startDate, LocalDate endDate, boolean includeDiff) throws IOException, GitAPIException {
-        File repoDir = new File(project.path());
-        
-        // Convert LocalDate to Date
-        Date since = Date.from(startDate.atStartOfDay(ZoneId.systemDefault()).toInstant());
-        Date until = Date.from(endDate.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant());
-        
-        try (Repository repository = new FileRepositoryBuilder()
-                .setGitDir(new File(repoDir, ".git"))
-                .build();
-             Git git = new Git(repository)) {
-            
-            Iterable<RevCommit> commits = git.log().call();
-            StringBuilder logBuilder = new StringBuilder();
-            int count = 0;
-            
-            for (RevCommit commit : commits) {
-                Date commitDate = new Date(commit.getCommitTime() * 1000L);
-                
-                // Check if the commit is within the specified time range
-                if (commitDate.after(since) && commitDate.before(until)) {
-                    count++;
-                    Instant instant = Instant.ofEpochSecond(commit.getCommitTime());
-                    LocalDate commitLocalDate = instant.atZone(ZoneId.systemDefault()).toLocalDate();
-                    
-                    logBuilder.append("=".repeat(80)).append("\n");
-                    logBuilder.append("Commit: ").append(commit.getName().substring(0, 8)).append("\n");
-                    logBuilder.append("Author: ").append(commit.getAuthorIdent().getName()).append("\n");
-                    logBuilder.append("Date: ").append(commitLocalDate).append("\n");
-                    logBuilder.append("Message: ").append(commit.getFullMessage()).append("\n");
-                    
-                    // If diff is needed
-                    if (includeDiff) {
-                        try {
-                            ByteArrayOutputStream diffStream = new ByteArrayOutputStream();
-                            
-                            // Get parent commit
-                            if (commit.getParentCount() > 0) {
-                                RevCommit parent = commit.getParent(0);
-                                git.diff()
-                                   .setOldTree(prepareTreeParser(repository, parent))
-                                   .setNewTree(prepareTreeParser(repository, commit))
-                                   .setOutputStream(diffStream)
-                                   .call();
-                                
-                                String diff = diffStream.toString();
-                                if (!diff.isEmpty()) {
-                                    logBuilder.append("\nCode Changes:\n");
-                                    logBuilder.append(diff);
-                                }
-                            } else {
-                                // Initial commit, show all files
-                                logBuilder.append("\n[Initial commit - showing all new files]\n");
-                            }
-                        } catch (Exception e) {
-                            logBuilder.append("\n[Could not get code changes for this commit: ").append(e.getMessage()).append("]\n");
-                        }
-                    }
-                    
-                    logBuilder.append("\n");
+        return getCommitLogs(project, new CommitLogQuery(startDate, endDate, includeDiff));
+    }
+
+    /**
+     * Gets the formatted commit logs selected by a query.
+     */
+    public String getCommitLogs(Project project, CommitLogQuery query) throws IOException, GitAPIException {
+        StringBuilder logs = new StringBuilder();
+        writeCommitLogs(project, query, logs);
+        return logs.toString();
+    }
+
+    /**
+     * Writes the formatted commit logs selected by a query as they are produced, e.g. into a {@link SpillBuffer}.
+     * The header only needs the number of commits, which is known once the range has been walked; diffs are then
+     * produced a window of commits at a time and dropped once written, so memory is bounded by the window
+     * instead of the date range.
+     */
+    @SuppressWarnings("try")
+    public CommitLogSummary writeCommitLogs(Project project, CommitLogQuery query, Appendable out)
+            throws IOException, GitAPIException {
+        try (Metrics.Timer timer = time("writeCommitLogs");
+             RepositoryCache.Lease lease = repositoryCache.acquire(project)) {
+            Repository repository = lease.repository();
+
+            CommitRangeWalker.CommitRange range = CommitRangeWalker.walk(repository, query);
+            List<RevCommit> commits = range.commits();
+            CommitLogFormatter.writeHeader(out, commits.size(), query.startDate(), query.endDate());
+
+            for (int start = 0; start < commits.size(); start += DIFF_WINDOW_COMMITS) {
+                List<RevCommit> window = commits.subList(start, Math.min(commits.size(), start + DIFF_WINDOW_COMMITS));
+                List<String> diffs = query.includeDiff() ? loadDiffs(repository, window, query.diffOptions()) : null;
+                for (int i = 0; i < window.size(); i++) {
+                    CommitLogFormatter.appendEntry(out, entry(window.get(i), diffs != null ? diffs.get(i) : null));
                 }
             }
-            
-            if (count == 0) {
-                return "No commits found between " + startDate + " and " + endDate + ".";
+
+            return new CommitLogSummary(commits.size(), range.watermark() != null ? range.watermark().getName() : null);
+        }
+    }
+
+    /**
+     * Gets the commits selected by a query, newest first.
+     * Only the commits inside the date range are visited; the walk stops at the first commit older than the start date.
+     */
+    @SuppressWarnings("try")
+    public CommitLogResult getCommitLogEntries(Project project, CommitLogQuery query) throws IOException, GitAPIException {
+        try (Metrics.Timer timer = time("getCommitLogEntries");
+             RepositoryCache.Lease lease = repositoryCache.acquire(project)) {
+            Repository repository = lease.repository();
+
+            CommitRangeWalker.CommitRange range = CommitRangeWalker.walk(repository, query);
+            List<RevCommit> commits = range.commits();
+
+            List<String> diffs = query.includeDiff() ? loadDiffs(repository, commits, query.diffOptions()) : null;
+
+            List<CommitLogEntry> entries = new ArrayList<>(commits.size());
+            for (int i = 0; i < commits.size(); i++) {
+                entries.add(entry(commits.get(i), diffs != null ? diffs.get(i) : null));
             }
-            
-            String header = String.format("Found %d commits (%s to %s)\n\n", count, startDate, endDate);
-            return header + logBuilder.toString();
+
+            return new CommitLogResult(entries, range.watermark() != null ? range.watermark().getName() : null);
         }
     }
-    
+
     /**
-     * Legacy method compatibility - does not include diff
+     * Times an operation as a try-with-resources block. The timer is never referenced in the block, so the
+     * methods using it suppress the {@code try} lint.
      */
-    public String getCommitLogs(Project project, LocalDate startDate, LocalDate endDate) throws IOException, GitAPIException {
-        return getCommitLogs(project, startDate, endDate, false);
+    private static Metrics.Timer time(String operation) {
+        return Metrics.startTimer(Metrics.GIT_OPERATION_SECONDS, "operation", operation);
     }
-    
+
+    private static CommitLogEntry entry(RevCommit commit, String diff) {
+        return new CommitLogEntry(
+            commit.getName(),
+            commit.getAuthorIdent().getName(),
+            Instant.ofEpochSecond(commit.getCommitTime()),
+            commit.getFullMessage(),
+            diff);
+    }
+
     /**
-     * Prepare TreeParser for diff
+     * Gets the commits of several projects concurrently, so the total time approaches that of the slowest
+     * repository rather than the sum. A project that cannot be read does not fail the others.
+     * @param queries The query of each project, e.g. with its own report watermark.
+     * @return The logs of each project, in input order.
      */
-    private org.eclipse.jgit.treewalk.AbstractTreeIterator prepareTreeParser(Repository repository, RevCommit commit) throws IOException {
-        try (org.eclipse.jgit.revwalk.RevWalk walk = new org.eclipse.jgit.revwalk.RevWalk(repository)) {
-            RevCommit parsedCommit = walk.parseCommit(commit.getId());
-            org.eclipse.jgit.treewalk.CanonicalTreeParser treeParser = new org.eclipse.jgit.treewalk.CanonicalTreeParser();
-            try (org.eclipse.jgit.lib.ObjectReader reader = repository.newObjectReader()) {
-                treeParser.reset(reader, parsedCommit.getTree().getId());
+    public List<ProjectCommitLogs> getCommitLogEntries(List<Project> projects, Function<Project, CommitLogQuery> queries)
+            throws InterruptedIOException {
+        if (projects.isEmpty()) {
+            return List.of();
+        }
+        Metrics.Timer timer = time("getCommitLogEntries(projects)");
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(MAX_PARALLEL_PROJECTS, projects.size()), runnable -> {
+            Thread thread = new Thread(runnable, "commit-log-project");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<CommitLogResult>> futures = new ArrayList<>(projects.size());
+            for (Project project : projects) {
+                CommitLogQuery query = queries.apply(project);
+                futures.add(pool.submit(() -> getCommitLogEntries(project, query)));
+            }
+            List<ProjectCommitLogs> logs = new ArrayList<>(projects.size());
+            for (int i = 0; i < projects.size(); i++) {
+                Project project = projects.get(i);
+                try {
+                    logs.add(new ProjectCommitLogs(project, futures.get(i).get(), null));
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    String error = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                    Logger.error("Failed to read commit logs of " + project.name() + ": " + error);
+                    logs.add(new ProjectCommitLogs(project, null, error));
+                }
             }
-            return treeParser;
+            return logs;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Commit log generation cancelled");
+        } finally {
+            // Interrupts the walks and diffs still running after a cancellation
+            pool.shutdownNow();
+            timer.close();
         }
     }
+
+    /**
+     * Gets the diff of each commit, serving cached diffs from disk and computing only the misses.
+     * Misses are diffed concurrently and come back in commit order.
+     */
+    private List<String> loadDiffs(Repository repository, List<RevCommit> commits, DiffOptions options) throws IOException {
+        List<String> diffs = new ArrayList<>(commits.size());
+        List<RevCommit> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (RevCommit commit : commits) {
+            // Initial commits get a note rather than their diff, also where an older version cached the diff
+            String cached = commit.getParentCount() == 0
+                ? null
+                : diffCache.get(CommitDiffCache.key(commit.getName(), options));
+            if (cached == null) {
+                missing.add(commit);
+                missingIndexes.add(diffs.size());
+            }
+            diffs.add(cached);
+        }
+
+        List<CommitDiffPipeline.CommitDiff> computed;
+        try {
+            computed = CommitDiffPipeline.diff(repository, missing, options);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Commit log generation cancelled", e);
+        }
+        for (int i = 0; i < computed.size(); i++) {
+            CommitDiffPipeline.CommitDiff diff = computed.get(i);
+            diffs.set(missingIndexes.get(i), diff.text());
+            if (diff.complete()) {
+                diffCache.put(CommitDiffCache.key(missing.get(i).getName(), options), diff.text());
+            }
+        }
+        Logger.debug(() -> "Commit diffs: " + (commits.size() - missing.size()) + " from cache, " + missing.size() + " computed");
+        return diffs;
+    }
+
+    /**
+     * Closes the cached repository of a project, e.g. after the project was removed.
+     */
+    public void releaseRepository(Project project) {
+        repositoryCache.invalidate(project);
+        stagedDiffTracker.invalidate(new File(new File(project.path()), ".git"));
+    }
+
+    /**
+     * Closes all cached repositories.
+     */
+    public void close() {
+        historyIndex.close();
+        repositoryCache.close();
+        diffCache.close();
+    }
+
+    /**
+     * Legacy method compatibility - does not include diff
+     */
+    public String getCommitLogs(Project project, LocalDate startDate, LocalDate endDate) throws IOException, GitAPIException {
+        return getCommitLogs(project, startDate, endDate, false);
+    }
 }
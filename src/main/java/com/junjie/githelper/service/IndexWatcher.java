@@ -0,0 +1,189 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.util.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the {@code .git/index} and {@code .git/HEAD} files of the open projects and reports when the
+ * staged state of a project changed, e.g. after {@code git add} in a terminal.
+ * <p>
+ * Git rewrites these files through lock files, so one command produces a burst of events. Events are
+ * debounced per project, and the listener is only called when the index checksum or HEAD actually changed.
+ */
+public class IndexWatcher {
+
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    private final Consumer<Project> listener;
+    private final WatchService watchService;
+    private final Map<WatchKey, Watched> watchedByKey = new ConcurrentHashMap<>();
+    private final Map<String, Watched> watchedById = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService debouncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "index-watcher-debounce");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Watched {
+        final Project project;
+        final Path gitDir;
+        final WatchKey key;
+        String stamp;
+        ScheduledFuture<?> pending;
+
+        Watched(Project project, Path gitDir, WatchKey key) {
+            this.project = project;
+            this.gitDir = gitDir;
+            this.key = key;
+            this.stamp = stampOf(gitDir);
+        }
+    }
+
+    /**
+     * @param listener Called on a background thread with the project whose index or HEAD changed.
+     */
+    public IndexWatcher(Consumer<Project> listener) throws IOException {
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this::pollEvents, "index-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts watching a project. Watching an already watched project replaces it.
+     */
+    public void watch(Project project) {
+        unwatch(project);
+        Path gitDir = Path.of(project.path(), ".git");
+        if (!Files.isDirectory(gitDir)) {
+            return;
+        }
+        try {
+            WatchKey key = gitDir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            Watched watched = new Watched(project, gitDir, key);
+            watchedByKey.put(key, watched);
+            watchedById.put(project.id(), watched);
+        } catch (IOException | ClosedWatchServiceException e) {
+            Logger.error("Could not watch " + gitDir + ": " + e.getMessage());
+        }
+    }
+
+    public void unwatch(Project project) {
+        Watched watched = watchedById.remove(project.id());
+        if (watched != null) {
+            watched.key.cancel();
+            watchedByKey.remove(watched.key);
+            synchronized (watched) {
+                if (watched.pending != null) {
+                    watched.pending.cancel(false);
+                }
+            }
+        }
+    }
+
+    public void close() {
+        debouncer.shutdownNow();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            Logger.error("Failed to close index watcher: " + e.getMessage());
+        }
+        watchedByKey.clear();
+        watchedById.clear();
+    }
+
+    private void pollEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Watched watched = watchedByKey.get(key);
+                boolean relevant = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path file) {
+                        String name = file.toString();
+                        relevant |= name.equals("index") || name.equals("HEAD");
+                    } else if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        relevant = true;
+                    }
+                }
+                key.reset();
+                if (watched != null && relevant) {
+                    schedule(watched);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher closed
+        }
+    }
+
+    private void schedule(Watched watched) {
+        synchronized (watched) {
+            if (watched.pending != null) {
+                watched.pending.cancel(false);
+            }
+            if (!debouncer.isShutdown()) {
+                watched.pending = debouncer.schedule(() -> fireIfChanged(watched), DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void fireIfChanged(Watched watched) {
+        String stamp = stampOf(watched.gitDir);
+        synchronized (watched) {
+            if (stamp.equals(watched.stamp)) {
+                return;
+            }
+            watched.stamp = stamp;
+        }
+        if (watchedById.get(watched.project.id()) != watched) {
+            return;
+        }
+        Logger.debug(() -> "Index or HEAD changed in " + watched.gitDir);
+        try {
+            listener.accept(watched.project);
+        } catch (RuntimeException e) {
+            Logger.error("Index change listener failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The index checksum plus the content of HEAD and the branch it points to.
+     */
+    private static String stampOf(Path gitDir) {
+        byte[] checksum = StagedDiffTracker.readIndexChecksum(gitDir.toFile());
+        StringBuilder stamp = new StringBuilder(Arrays.toString(checksum));
+        try {
+            String head = Files.readString(gitDir.resolve("HEAD")).trim();
+            stamp.append('|').append(head);
+            if (head.startsWith("ref: ")) {
+                Path ref = gitDir.resolve(head.substring(5));
+                if (Files.isRegularFile(ref)) {
+                    stamp.append('|').append(Files.readString(ref).trim());
+                }
+            }
+        } catch (IOException e) {
+            stamp.append("|?");
+        }
+        return stamp.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.junjie.githelper.service;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A failed LLM request, with what is known about whether sending it again may succeed.
+ */
+public class LLMRequestException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final Duration retryAfter;
+
+    /**
+     * @param statusCode The HTTP status, or 0 if the request failed without a response.
+     * @param retryAfter How long the endpoint asked to wait before retrying, or {@code null}.
+     */
+    LLMRequestException(String message, int statusCode, Duration retryAfter, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Describes an error response, including its {@code Retry-After} header.
+     */
+    static LLMRequestException of(int statusCode, HttpHeaders headers, String body) {
+        return new LLMRequestException("Failed to generate content: " + statusCode + " " + body,
+            statusCode, retryAfter(headers), null);
+    }
+
+    /**
+     * A request that failed without a complete response, e.g. a refused connection, a timeout or a broken stream.
+     */
+    static LLMRequestException transientFailure(String message, Throwable cause) {
+        return new LLMRequestException(message, 0, null, cause);
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Failures without a response, timeouts, rate limits and server errors are transient. Other client errors
+     * (bad request, authentication, unknown model) would fail the same way again.
+     */
+    public boolean isRetryable() {
+        return statusCode == 0 || statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * Reads {@code Retry-After} as seconds or an HTTP date, or the millisecond variant some providers send.
+     */
+    private static Duration retryAfter(HttpHeaders headers) {
+        if (headers == null) {
+            return null;
+        }
+        String millis = headers.firstValue("retry-after-ms").orElse(null);
+        if (millis != null) {
+            try {
+                return Duration.ofMillis(Math.max(0, (long) Double.parseDouble(millis.trim())));
+            } catch (NumberFormatException ignored) {
+                // Fall back to Retry-After
+            }
+        }
+        String value = headers.firstValue("retry-after").orElse(null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.ofMillis(Math.max(0, (long) (Double.parseDouble(value.trim()) * 1000)));
+        } catch (NumberFormatException e) {
+            try {
+                Duration untilDate = Duration.between(ZonedDateTime.now(),
+                    ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return untilDate.isNegative() ? Duration.ZERO : untilDate;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+}
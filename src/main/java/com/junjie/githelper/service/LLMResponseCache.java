@@ -0,0 +1,216 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.LLMSettings;
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Caches LLM responses by a fingerprint of (model, base URL, full prompt), so repeating an identical
+ * request returns instantly and costs no tokens.
+ * <p>
+ * Responses live in an in-memory LRU tier and, optionally, in a persistent tier of one gzip file per
+ * fingerprint. Both tiers honor the same time-to-live.
+ */
+public class LLMResponseCache {
+
+    private static final int MAX_MEMORY_ENTRIES = 64;
+
+    private final Path directory;
+    private final long ttlMillis;
+    // Access-ordered LRU. Guarded by itself.
+    private final Map<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean swept;
+
+    private record Entry(long createdMillis, String response) {}
+
+    /**
+     * @param directory Directory of the persistent tier, or {@code null} to keep responses in memory only.
+     */
+    public LLMResponseCache(Path directory, Duration ttl) {
+        this.directory = directory;
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    /**
+     * Fingerprints a request. Any difference in model, endpoint or prompt yields a different key.
+     */
+    public static String fingerprint(LLMSettings settings, String prompt) {
+        MessageDigest digest = digest(settings);
+        digest.update(prompt.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Fingerprints a prompt part by part; equal to the fingerprint of the concatenated prompt.
+     */
+    static String fingerprint(LLMSettings settings, Prompt prompt) throws IOException {
+        MessageDigest digest = digest(settings);
+        // A high surrogate at the end of a chunk waits for its low surrogate, so a pair split between chunks is
+        // encoded as one character, as in the concatenated prompt
+        StringBuilder pending = new StringBuilder();
+        prompt.forEachChunk((chars, count) -> {
+            pending.append(chars, 0, count);
+            int end = pending.length();
+            if (end > 0 && Character.isHighSurrogate(pending.charAt(end - 1))) {
+                end--;
+            }
+            digest.update(pending.substring(0, end).getBytes(StandardCharsets.UTF_8));
+            pending.delete(0, end);
+        });
+        digest.update(pending.toString().getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest digest(LLMSettings settings) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(settings.model()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(settings.base_url()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return digest;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return The cached response, or {@code null} when there is none or it has expired.
+     */
+    public String get(String fingerprint) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(fingerprint);
+        }
+        if (entry == null && directory != null) {
+            entry = readFile(fingerprint);
+            if (entry != null) {
+                synchronized (memory) {
+                    memory.put(fingerprint, entry);
+                }
+            }
+        }
+        if (entry == null || now - entry.createdMillis() > ttlMillis) {
+            misses.incrementAndGet();
+            Metrics.increment(Metrics.CACHE_LOOKUPS, "cache", "llm_response", "result", "miss");
+            return null;
+        }
+        Metrics.increment(Metrics.CACHE_LOOKUPS, "cache", "llm_response", "result", "hit");
+        long hitCount = hits.incrementAndGet();
+        Logger.debug(() -> "LLM response cache hit (" + hitCount + " hits, " + misses.get() + " misses)");
+        return entry.response();
+    }
+
+    public void put(String fingerprint, String response) {
+        Entry entry = new Entry(System.currentTimeMillis(), response);
+        synchronized (memory) {
+            memory.put(fingerprint, entry);
+        }
+        if (directory != null) {
+            writeFile(fingerprint, entry);
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    private Entry readFile(String fingerprint) {
+        Path file = directory.resolve(fingerprint + ".txt.gz");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            long createdMillis = Long.parseLong(reader.readLine());
+            StringBuilder response = new StringBuilder();
+            char[] buffer = new char[8192];
+            int length;
+            while ((length = reader.read(buffer)) != -1) {
+                response.append(buffer, 0, length);
+            }
+            return new Entry(createdMillis, response.toString());
+        } catch (IOException | RuntimeException e) {
+            Logger.error("Dropping unreadable LLM cache entry " + file + ": " + e.getMessage());
+            deleteQuietly(file);
+            return null;
+        }
+    }
+
+    private void writeFile(String fingerprint, Entry entry) {
+        try {
+            Files.createDirectories(directory);
+            sweepExpired();
+            Path file = directory.resolve(fingerprint + ".txt.gz");
+            Path temp = Files.createTempFile(directory, fingerprint, ".tmp");
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8)) {
+                writer.write(Long.toString(entry.createdMillis()));
+                writer.write('\n');
+                writer.write(entry.response());
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.error("Failed to write LLM cache entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes expired files once per session, judged by their modification time.
+     */
+    private void sweepExpired() {
+        if (swept) {
+            return;
+        }
+        swept = true;
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.txt.gz")) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                    deleteQuietly(file);
+                }
+            }
+        } catch (IOException e) {
+            Logger.error("Failed to sweep LLM cache: " + e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Retried on the next sweep
+        }
+    }
+}
@@ -0,0 +1,584 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.LLMSettings;
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Sends one LLM request to the configured endpoints.
+ * <p>
+ * Endpoints are tried in order: when one fails, the next one is tried at once. When every endpoint failed and
+ * at least one failure was transient, the list is tried again after a jittered, exponentially growing backoff
+ * that is never shorter than an endpoint asked for with {@code Retry-After}. Each endpoint has a circuit breaker
+ * fed by its recent errors and slow answers, so an endpoint that keeps failing is skipped instead of waited for
+ * and probed again after a pause. With hedging enabled, an attempt that takes longer than its endpoint's recent
+ * 95th percentile gets a second attempt on the next endpoint; the first to answer is used and the other one is
+ * cancelled. Once an attempt has streamed text it is never retried, since that text is already shown.
+ * <p>
+ * Every attempt first waits for the quota of its endpoint in a {@link RateLimiter}. The wait counts towards the
+ * hedging delay, so a request held back by an exhausted quota spills over to the next endpoint, but not towards
+ * the endpoint's latency.
+ */
+final class LLMRouter {
+
+    private static final int MAX_ROUNDS = 3;
+    private static final long BACKOFF_BASE_MILLIS = 1_000;
+    private static final long BACKOFF_CAP_MILLIS = 16_000;
+    // Waiting longer than this for an endpoint to become available fails the request instead
+    private static final long MAX_WAIT_MILLIS = 60_000;
+    // Without enough latency samples, hedge after this long
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 10_000;
+    private static final long MIN_HEDGE_DELAY_MILLIS = 500;
+
+    // Circuit breaker: opens after this many transient failures in a row, or when at least half of the recent
+    // calls failed or were slow; then stays open for a pause that doubles each time a probe fails
+    private static final int CONSECUTIVE_FAILURES = 3;
+    private static final int OUTCOME_WINDOW = 20;
+    private static final int MIN_WINDOW_CALLS = 5;
+    private static final long SLOW_CALL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long OPEN_BASE_NANOS = TimeUnit.SECONDS.toNanos(15);
+    private static final long OPEN_MAX_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final long MAX_COOL_DOWN_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final int LATENCY_WINDOW = 64;
+    private static final int MIN_LATENCY_SAMPLES = 5;
+
+    /**
+     * Sends the request to one endpoint.
+     */
+    @FunctionalInterface
+    interface Attempt {
+        /**
+         * @param permit The quota taken for the request; to be updated from the response.
+         * @param onDelta Receives streamed content, or {@code null} for a blocking request. It throws
+         *                {@link CancellationException} once another attempt has answered first.
+         */
+        String send(LLMSettings endpoint, RateLimiter.Permit permit, Consumer<String> onDelta);
+    }
+
+    private final Map<String, EndpointHealth> health = new ConcurrentHashMap<>();
+    private final Map<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "llm-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param estimatedTokens What the request will likely cost, prompt and answer, for the token quota.
+     * @param onDelta Receives the streamed content of the answering attempt only; {@code null} for a blocking
+     *                request.
+     * @return The first answer.
+     * @throws CancellationException If the calling thread is interrupted.
+     */
+    String execute(LLMSettings settings, long estimatedTokens, Consumer<String> onDelta, Attempt attempt) {
+        List<Candidate> candidates = settings.endpoints().stream()
+            .map(endpoint -> {
+                EndpointHealth endpointHealth = health.computeIfAbsent(key(endpoint), key -> new EndpointHealth(endpoint));
+                RateLimiter limiter = limiters.computeIfAbsent(key(endpoint), key -> new RateLimiter(endpointHealth.name));
+                limiter.configure(endpoint.requests_per_minute(), endpoint.tokens_per_minute());
+                return new Candidate(endpoint, endpointHealth, limiter);
+            })
+            .toList();
+        return new Call(candidates, settings.isHedgingEnabled() && candidates.size() > 1, estimatedTokens, onDelta, attempt).run();
+    }
+
+    /**
+     * Forgets the statistics and quotas of endpoints that are no longer configured, and applies changed limits.
+     */
+    void reconfigure(LLMSettings settings) {
+        Set<String> keep = settings.endpoints().stream().map(LLMRouter::key).collect(Collectors.toSet());
+        health.keySet().retainAll(keep);
+        limiters.keySet().retainAll(keep);
+        for (LLMSettings endpoint : settings.endpoints()) {
+            RateLimiter limiter = limiters.get(key(endpoint));
+            if (limiter != null) {
+                limiter.configure(endpoint.requests_per_minute(), endpoint.tokens_per_minute());
+            }
+        }
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    private static String key(LLMSettings endpoint) {
+        return endpoint.base_url() + "\u0000" + endpoint.model();
+    }
+
+    private record Candidate(LLMSettings endpoint, EndpointHealth health, RateLimiter limiter) {
+    }
+
+    /**
+     * One request: its rounds over the endpoints and the attempts in flight.
+     */
+    private final class Call {
+        private final List<Candidate> candidates;
+        private final boolean hedging;
+        private final long estimatedTokens;
+        private final Consumer<String> onDelta;
+        private final Attempt attempt;
+        // The attempt whose answer is used; set by the first streamed fragment or the first complete answer
+        private final AtomicReference<Running> winner = new AtomicReference<>();
+        private final Set<Running> running = ConcurrentHashMap.newKeySet();
+        private final BlockingQueue<Running> finished = new LinkedBlockingQueue<>();
+        private RuntimeException lastFailure;
+        private boolean retryable;
+
+        Call(List<Candidate> candidates, boolean hedging, long estimatedTokens, Consumer<String> onDelta, Attempt attempt) {
+            this.candidates = candidates;
+            this.hedging = hedging;
+            this.estimatedTokens = estimatedTokens;
+            this.onDelta = onDelta;
+            this.attempt = attempt;
+        }
+
+        String run() {
+            try {
+                for (int round = 1; ; round++) {
+                    retryable = false;
+                    boolean launched;
+                    try {
+                        Iterator<Candidate> next = candidates.iterator();
+                        launched = launchNext(next) != null;
+                        String answer = launched ? awaitAnswer(next) : null;
+                        if (answer != null) {
+                            return answer;
+                        }
+                    } finally {
+                        running.forEach(this::abandon);
+                        running.clear();
+                    }
+                    long retryMillis = earliestRetryMillis();
+                    if (!launched) {
+                        // Only endpoints that asked to wait with Retry-After are worth waiting for
+                        retryable = retryMillis >= 0;
+                        lastFailure = new LLMRequestException("No LLM endpoint is available: "
+                            + (candidates.size() == 1 ? "it" : "all of them") + " failed repeatedly and "
+                            + (candidates.size() == 1 ? "is" : "are") + " paused", 0, null, lastFailure);
+                    }
+                    if (lastFailure == null) {
+                        // Every attempt of the round was cancelled or lost to another one that then gave up
+                        lastFailure = new LLMRequestException("No LLM endpoint answered: every attempt was abandoned",
+                            0, null, null);
+                    }
+                    long waitMillis = Math.max(backoffMillis(round), retryMillis);
+                    if (!retryable || round == MAX_ROUNDS || retryMillis < 0 || waitMillis > MAX_WAIT_MILLIS) {
+                        throw lastFailure;
+                    }
+                    Logger.info(String.format("LLM request failed on every endpoint, retrying in %.1f s (round %d of %d): %s",
+                        waitMillis / 1000.0, round + 1, MAX_ROUNDS, lastFailure.getMessage()));
+                    Thread.sleep(waitMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Generation cancelled");
+            }
+        }
+
+        /**
+         * Waits for the attempts of one round, hedging a slow attempt and failing over to the next endpoint.
+         * @param next The endpoints after the one of the first attempt.
+         * @return The answer, or {@code null} if every endpoint of the round failed.
+         */
+        private String awaitAnswer(Iterator<Candidate> next) throws InterruptedException {
+            boolean hedged = false;
+            while (!running.isEmpty()) {
+                Running done;
+                Running only = running.size() == 1 ? running.iterator().next() : null;
+                if (hedging && !hedged && only != null && winner.get() == null && next.hasNext()) {
+                    long delayNanos = only.candidate.health().hedgeDelayNanos(onDelta != null)
+                        - (System.nanoTime() - only.startNanos);
+                    done = finished.poll(Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+                    if (done == null) {
+                        hedged = true;
+                        Running hedge = launchNext(next);
+                        if (hedge != null) {
+                            Logger.info("LLM endpoint " + only.candidate.health().name + " is slower than usual, also asking "
+                                + hedge.candidate.health().name);
+                        }
+                        continue;
+                    }
+                } else {
+                    done = finished.take();
+                }
+                running.remove(done);
+                String answer = collect(done);
+                if (answer != null) {
+                    return answer;
+                }
+                if (running.isEmpty() && winner.get() == null) {
+                    launchNext(next);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Records the outcome of a finished attempt.
+         * @return Its answer if it is the one to use.
+         */
+        private String collect(Running done) {
+            EndpointHealth endpoint = done.candidate.health();
+            try {
+                String answer = done.task.get();
+                if (claim(done)) {
+                    long answerNanos = done.answerNanos != 0 ? done.answerNanos : System.nanoTime();
+                    endpoint.recordSuccess(answerNanos - done.sentNanos, onDelta != null);
+                    count(endpoint, "ok");
+                    return answer;
+                }
+                lost(done);
+            } catch (CancellationException e) {
+                lost(done);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error error) {
+                    throw error;
+                }
+                RuntimeException failure = cause instanceof RuntimeException runtimeException
+                    ? runtimeException
+                    : new RuntimeException(cause.getMessage(), cause);
+                Running answering = winner.get();
+                if (answering != null && answering != done) {
+                    lost(done);
+                    return null;
+                }
+                Logger.info("LLM endpoint " + endpoint.name + " failed: " + failure.getMessage());
+                boolean transientFailure = failure instanceof LLMRequestException requestException && requestException.isRetryable();
+                endpoint.recordFailure(done, transientFailure,
+                    failure instanceof LLMRequestException requestException ? requestException.retryAfter() : null);
+                count(endpoint, "failed");
+                if (answering == done) {
+                    // Part of the answer is already shown, another endpoint cannot continue it
+                    throw failure;
+                }
+                lastFailure = failure;
+                retryable |= transientFailure;
+            } catch (InterruptedException e) {
+                // Not reached, the task is done
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        /**
+         * Starts an attempt on the next endpoint whose circuit breaker lets it through.
+         * @return The attempt, or {@code null} if no endpoint is left.
+         */
+        private Running launchNext(Iterator<Candidate> next) {
+            while (next.hasNext()) {
+                Candidate candidate = next.next();
+                Running started = new Running(candidate);
+                if (!candidate.health().tryAcquire(started)) {
+                    count(candidate.health(), "skipped");
+                    Logger.debug(() -> "Skipping paused LLM endpoint " + candidate.health().name);
+                    continue;
+                }
+                running.add(started);
+                executor.execute(started.task);
+                return started;
+            }
+            return null;
+        }
+
+        /**
+         * Makes the attempt the one to use, unless another one already is.
+         */
+        private boolean claim(Running attempt) {
+            if (winner.compareAndSet(null, attempt)) {
+                attempt.answerNanos = System.nanoTime();
+                // Runs on the attempt's thread when streaming; the others stop at once rather than at their next read
+                for (Running other : running) {
+                    if (other != attempt) {
+                        other.task.cancel(true);
+                    }
+                }
+                return true;
+            }
+            return winner.get() == attempt;
+        }
+
+        private void lost(Running attempt) {
+            attempt.candidate.health().release(attempt);
+            count(attempt.candidate.health(), "lost");
+        }
+
+        private void abandon(Running attempt) {
+            attempt.task.cancel(true);
+            lost(attempt);
+        }
+
+        /**
+         * @return How long until the first endpoint may be retried, or -1 if every circuit breaker is open.
+         */
+        private long earliestRetryMillis() {
+            long now = System.nanoTime();
+            long earliest = -1;
+            for (Candidate candidate : candidates) {
+                long retryAt = candidate.health().retryAtNanos();
+                if (retryAt != -1) {
+                    long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, retryAt - now));
+                    earliest = earliest == -1 ? millis : Math.min(earliest, millis);
+                }
+            }
+            return earliest;
+        }
+
+        /**
+         * One attempt on one endpoint.
+         */
+        private final class Running {
+            final Candidate candidate;
+            final long startNanos = System.nanoTime();
+            // When the request was sent, after waiting for the quota
+            volatile long sentNanos;
+            // When the first output arrived; 0 until then
+            volatile long answerNanos;
+            final FutureTask<String> task;
+
+            Running(Candidate candidate) {
+                this.candidate = candidate;
+                Consumer<String> gated = onDelta == null ? null : delta -> {
+                    if (!claim(this)) {
+                        throw new CancellationException("Another LLM endpoint answered first");
+                    }
+                    onDelta.accept(delta);
+                };
+                this.task = new FutureTask<>(() -> {
+                    RateLimiter.Permit permit = candidate.limiter().acquire(estimatedTokens);
+                    sentNanos = System.nanoTime();
+                    return attempt.send(candidate.endpoint(), permit, gated);
+                }) {
+                    @Override
+                    protected void done() {
+                        finished.add(Running.this);
+                    }
+                };
+            }
+        }
+    }
+
+    private static void count(EndpointHealth endpoint, String outcome) {
+        Metrics.increment(Metrics.LLM_ATTEMPTS, "endpoint", endpoint.name, "outcome", outcome);
+    }
+
+    /**
+     * Exponential backoff with jitter, so clients that failed together do not retry together.
+     */
+    private static long backoffMillis(int round) {
+        long ceiling = Math.min(BACKOFF_CAP_MILLIS, BACKOFF_BASE_MILLIS << (round - 1));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Recent latencies and outcomes of one endpoint, and its circuit breaker. Deadlines are {@link System#nanoTime()}
+     * values.
+     */
+    private static final class EndpointHealth {
+        final String name;
+        // Time to the first output, blocking and streamed requests apart; rings of the latest samples
+        private final long[][] latencies = new long[2][LATENCY_WINDOW];
+        private final int[] latencyCounts = new int[2];
+        private final boolean[] badOutcomes = new boolean[OUTCOME_WINDOW];
+        private int outcomeCount;
+        private int badCount;
+        private int consecutiveFailures;
+        private State state = State.CLOSED;
+        private int opens;
+        private long openUntilNanos;
+        // The attempt let through in the half-open state, until it ends; null if none is in flight
+        private Object probe;
+        private long coolDownUntilNanos = System.nanoTime();
+
+        EndpointHealth(LLMSettings endpoint) {
+            String authority;
+            try {
+                authority = URI.create(endpoint.base_url()).getAuthority();
+            } catch (IllegalArgumentException | NullPointerException e) {
+                authority = null;
+            }
+            name = (authority != null ? authority : String.valueOf(endpoint.base_url())) + "/" + endpoint.model();
+        }
+
+        /**
+         * @param attempt Identifies the attempt, so that only the end of the probe lets the next one through.
+         * @return Whether a request may be sent now. In the half-open state only one probe is let through.
+         */
+        synchronized boolean tryAcquire(Object attempt) {
+            long now = System.nanoTime();
+            if (now - coolDownUntilNanos < 0) {
+                return false;
+            }
+            switch (state) {
+                case OPEN -> {
+                    if (now - openUntilNanos < 0) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    probe = attempt;
+                    return true;
+                }
+                case HALF_OPEN -> {
+                    if (probe != null) {
+                        return false;
+                    }
+                    probe = attempt;
+                    return true;
+                }
+                default -> {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Ends an attempt that was cancelled, without a verdict on the endpoint.
+         */
+        synchronized void release(Object attempt) {
+            endProbe(attempt);
+        }
+
+        private void endProbe(Object attempt) {
+            if (probe == attempt) {
+                probe = null;
+            }
+        }
+
+        synchronized void recordSuccess(long latencyNanos, boolean streaming) {
+            int kind = streaming ? 1 : 0;
+            latencies[kind][latencyCounts[kind]++ % LATENCY_WINDOW] = latencyNanos;
+            if (latencyCounts[kind] == 2 * LATENCY_WINDOW) {
+                latencyCounts[kind] = LATENCY_WINDOW;
+            }
+            boolean slow = latencyNanos > SLOW_CALL_NANOS;
+            recordOutcome(slow);
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN) {
+                if (slow) {
+                    open("its probe was slow");
+                } else {
+                    state = State.CLOSED;
+                    opens = 0;
+                    probe = null;
+                    outcomeCount = 0;
+                    badCount = 0;
+                    Logger.info("LLM endpoint " + name + " recovered");
+                }
+            } else {
+                evaluate();
+            }
+        }
+
+        /**
+         * @param attempt The attempt that failed.
+         * @param transientFailure Only transient failures count against the endpoint; other errors are about the
+         *                         request.
+         * @param retryAfter Pauses the endpoint for as long as it asked, or {@code null}.
+         */
+        synchronized void recordFailure(Object attempt, boolean transientFailure, Duration retryAfter) {
+            if (retryAfter != null) {
+                long until = System.nanoTime() + Math.min(retryAfter.toNanos(), MAX_COOL_DOWN_NANOS);
+                if (until - coolDownUntilNanos > 0) {
+                    coolDownUntilNanos = until;
+                }
+            }
+            if (!transientFailure) {
+                endProbe(attempt);
+                return;
+            }
+            recordOutcome(true);
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN) {
+                open("its probe failed");
+            } else {
+                evaluate();
+            }
+        }
+
+        /**
+         * @return When a retry may be sent, which is later than now while the endpoint asked to wait; -1 while
+         *         the circuit breaker keeps it paused, which is not worth waiting for.
+         */
+        synchronized long retryAtNanos() {
+            if (state == State.OPEN || (state == State.HALF_OPEN && probe != null)) {
+                return -1;
+            }
+            return coolDownUntilNanos;
+        }
+
+        /**
+         * @return How long to wait for an answer before hedging: the recent 95th percentile, or a default.
+         */
+        synchronized long hedgeDelayNanos(boolean streaming) {
+            int kind = streaming ? 1 : 0;
+            int count = Math.min(latencyCounts[kind], LATENCY_WINDOW);
+            if (count < MIN_LATENCY_SAMPLES) {
+                return TimeUnit.MILLISECONDS.toNanos(DEFAULT_HEDGE_DELAY_MILLIS);
+            }
+            long[] sorted = Arrays.copyOf(latencies[kind], count);
+            Arrays.sort(sorted);
+            long p95 = sorted[(int) Math.ceil(0.95 * count) - 1];
+            return Math.max(p95, TimeUnit.MILLISECONDS.toNanos(MIN_HEDGE_DELAY_MILLIS));
+        }
+
+        private void recordOutcome(boolean bad) {
+            int slot = outcomeCount % OUTCOME_WINDOW;
+            if (outcomeCount >= OUTCOME_WINDOW && badOutcomes[slot]) {
+                badCount--;
+            }
+            badOutcomes[slot] = bad;
+            if (bad) {
+                badCount++;
+            }
+            outcomeCount++;
+            if (outcomeCount == 2 * OUTCOME_WINDOW) {
+                outcomeCount = OUTCOME_WINDOW;
+            }
+        }
+
+        private void evaluate() {
+            if (state != State.CLOSED) {
+                return;
+            }
+            int calls = Math.min(outcomeCount, OUTCOME_WINDOW);
+            if (consecutiveFailures >= CONSECUTIVE_FAILURES) {
+                open(consecutiveFailures + " failures in a row");
+            } else if (calls >= MIN_WINDOW_CALLS && badCount * 2 >= calls) {
+                open(badCount + " of its last " + calls + " calls failed or were slow");
+            }
+        }
+
+        private void open(String reason) {
+            long pause = Math.min(OPEN_BASE_NANOS << Math.min(opens, 8), OPEN_MAX_NANOS);
+            opens++;
+            state = State.OPEN;
+            probe = null;
+            openUntilNanos = System.nanoTime() + pause;
+            Logger.info("LLM endpoint " + name + " paused for " + TimeUnit.NANOSECONDS.toSeconds(pause)
+                + " s: " + reason);
+        }
+    }
+}
@@ -1,70 +1,731 @@
 package com.junjie.githelper.service;
 
-import cn.hutool.http.HttpRequest;
-import cn.hutool.http.HttpResponse;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.junjie.githelper.model.LLMSettings;
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
 
-import java.net.InetSocketAddress;
-import java.net.Proxy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 public class LLMService {
 
+    // Bounds the wait for the response headers; a streamed body may take as long as the model needs
+    private static final Duration HEADERS_TIMEOUT = Duration.ofSeconds(120);
+
+    private static final Duration RESPONSE_CACHE_TTL = Duration.ofDays(1);
+
+    // Reserved from the token quota for an answer until the endpoint reports the actual usage
+    private static final int ANSWER_TOKENS_ESTIMATE = 1000;
+    // Expected answer sizes, for the cost shown before a request is sent
+    private static final int COMMIT_MESSAGE_TOKENS_ESTIMATE = 200;
+    private static final int SUMMARY_TOKENS_ESTIMATE = 300;
+    // The fixed text around the parts of a prompt, and around a chunk
+    private static final int FRAME_TOKENS = 64;
+
+    // Diffs above this size, or above what the model's context leaves for them, are summarized in chunks before
+    // the commit message is written
+    private static final int CHUNKED_DIFF_THRESHOLD_TOKENS = 24000;
+    private static final int CHUNK_TOKENS = 8000;
+    // A diff that needs more chunks is cut at a hunk boundary first
+    private static final int MAX_CHUNKS = 16;
+    private static final int MAX_PARALLEL_CHUNKS = 4;
+    private static final String CHUNK_SUMMARY_PROMPT = """
+            The following is part %d of %d of a staged Git diff.
+            Summarize what this part changes as a short bullet list: affected files or modules, what changed and why \
+            it appears to have changed. Do not write a commit message. Only output the bullet list.
+
+            """;
+
+    // Merged multi-project logs above this size, or above the model's context, are summarized per project before
+    // the report is written
+    private static final int MERGED_REPORT_THRESHOLD_TOKENS = 24000;
+    private static final String PROJECT_SUMMARY_PROMPT = """
+            The following is part %d of %d of the commit log of the project "%s".
+            Summarize the work it shows as a short bullet list grouped by author: features, fixes and other notable \
+            changes, with their dates. Do not write the report. Only output the bullet list.
+
+            """;
+
+    private final LLMTransport transport = new LLMTransport();
+    private final LLMRouter router = new LLMRouter();
+    private final LLMResponseCache responseCache =
+        new LLMResponseCache(ConfigService.CONFIG_DIR.resolve("cache").resolve("llm"), RESPONSE_CACHE_TTL);
+    private final Gson gson = new Gson();
+    // Base URLs of servers that reject "stream_options" with a 400; streamed requests to them go without usage
+    private final Set<String> streamOptionsRejected = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The parts of a commit message prompt, cut to the model's context.
+     * @param chunks The parts of the diff to summarize first, or {@code null} if the diff fits into one prompt.
+     */
+    private record CommitPlan(PromptBudget budget, String customPrompt, String recentCommits, String diff,
+                              List<String> chunks, boolean truncated) {
+    }
+
+    /**
+     * The requests of a report: one prompt, or the prompts of the parts to summarize first.
+     * @param prompt The prompt with the whole log, or {@code null} if the log is summarized in parts.
+     */
+    private record ReportPlan(PromptBudget budget, Prompt prompt, List<String> labels, List<String> partPrompts,
+                              boolean truncated) {
+    }
+
+    @FunctionalInterface
+    private interface LogSource {
+        Reader open() throws IOException;
+    }
+
     public String generateCommitMessage(LLMSettings settings, String customPrompt, String diffContent, String recentCommits) {
-        String fullPrompt = customPrompt + "\n\n" +
-            "Recent commit messages for reference:\n" + recentCommits + "\n\n" +
-            "Staged changes:\n" + diffContent;
+        return generateCommitMessage(settings, customPrompt, diffContent, recentCommits, false, null);
+    }
+
+    /**
+     * Generates a commit message, streaming the text as it is produced.
+     * @param regenerate Skip the response cache and always ask the model.
+     * @param onDelta Receives each content fragment as it arrives; {@code null} for a blocking request.
+     * @return The complete commit message.
+     */
+    public String generateCommitMessage(LLMSettings settings, String customPrompt, String diffContent, String recentCommits,
+                                        boolean regenerate, Consumer<String> onDelta) {
+        CommitPlan plan = planCommitMessage(settings, customPrompt, diffContent, recentCommits, false);
+        if (plan.chunks() != null) {
+            return generateCommitMessageChunked(settings, plan, regenerate, onDelta);
+        }
+        return executeCachedRequest(settings, commitMessagePrompt(plan), regenerate, onDelta);
+    }
+
+    /**
+     * Generates a commit message for a diff that is too large for a single prompt.
+     * The diff is split into token-bounded chunks that are summarized concurrently (map), then one final
+     * request turns the summaries into the commit message (reduce). Only the reduce step is streamed.
+     * Chunk summaries go through the response cache, so regenerating only repeats the reduce step.
+     */
+    public String generateCommitMessageChunked(LLMSettings settings, String customPrompt, String diffContent, String recentCommits,
+                                               boolean regenerate, Consumer<String> onDelta) {
+        CommitPlan plan = planCommitMessage(settings, customPrompt, diffContent, recentCommits, true);
+        return generateCommitMessageChunked(settings, plan, regenerate, onDelta);
+    }
+
+    private String generateCommitMessageChunked(LLMSettings settings, CommitPlan plan, boolean regenerate,
+                                                Consumer<String> onDelta) {
+        List<String> chunks = plan.chunks();
+        Logger.info("Staged diff of ~" + plan.budget().tokenizer().count(plan.diff()) + " tokens split into "
+            + chunks.size() + " chunks");
+        List<String> summaries = summarize(settings, chunkPrompts(chunks), "staged changes");
+
+        StringBuilder fullPrompt = new StringBuilder()
+            .append(plan.customPrompt()).append("\n\n")
+            .append("Earlier commit messages for reference, most related first:\n").append(plan.recentCommits()).append("\n\n")
+            .append("The staged changes were too large to include in full. Summaries of their parts, in order:\n");
+        List<String> parts = new ArrayList<>(summaries.size());
+        for (int i = 0; i < summaries.size(); i++) {
+            parts.add("\n[Part " + (i + 1) + "/" + summaries.size() + "]\n" + summaries.get(i) + "\n");
+        }
+        appendParts(plan.budget(), fullPrompt, parts);
+        return executeCachedRequest(settings, Prompt.of(fullPrompt), regenerate, onDelta);
+    }
+
+    /**
+     * Estimates the tokens and cost of {@link #generateCommitMessage} without sending anything.
+     */
+    public PromptEstimate estimateCommitMessage(LLMSettings settings, String customPrompt, String diffContent,
+                                                String recentCommits) {
+        CommitPlan plan = planCommitMessage(settings, customPrompt, diffContent, recentCommits, false);
+        Tokenizer tokenizer = plan.budget().tokenizer();
+        if (plan.chunks() == null) {
+            return estimate(plan.budget(), count(tokenizer, commitMessagePrompt(plan)), 1,
+                COMMIT_MESSAGE_TOKENS_ESTIMATE, plan.truncated());
+        }
+        List<String> chunks = plan.chunks();
+        long promptTokens = tokenizer.count(plan.customPrompt()) + tokenizer.count(plan.recentCommits()) + FRAME_TOKENS
+            + (long) chunks.size() * SUMMARY_TOKENS_ESTIMATE;
+        for (String chunkPrompt : chunkPrompts(chunks)) {
+            promptTokens += tokenizer.count(chunkPrompt);
+        }
+        return estimate(plan.budget(), promptTokens, chunks.size() + 1,
+            (long) chunks.size() * SUMMARY_TOKENS_ESTIMATE + COMMIT_MESSAGE_TOKENS_ESTIMATE, plan.truncated());
+    }
+
+    /**
+     * Fits the parts of a commit message prompt into the model's context. The custom prompt may take up to a
+     * quarter of it and the recent commit messages a tenth, each cut after a line; the diff gets the rest. A
+     * diff that does not fit, or is large enough to be worth it, is split into chunks, after being cut at a hunk
+     * boundary if even {@link #MAX_CHUNKS} chunks could not hold it.
+     * @param chunked Split the diff into chunks even if it fits.
+     */
+    private static CommitPlan planCommitMessage(LLMSettings settings, String customPrompt, String diffContent,
+                                                String recentCommits, boolean chunked) {
+        PromptBudget budget = PromptBudget.of(settings);
+        Tokenizer tokenizer = budget.tokenizer();
+        int available = budget.promptTokens();
+        String prompt = budget.truncateLines(customPrompt, available / 4);
+        String recent = budget.truncateLines(recentCommits, available / 10);
+        boolean truncated = !Objects.equals(prompt, customPrompt) || !Objects.equals(recent, recentCommits);
+
+        int diffBudget = available - tokenizer.count(prompt) - tokenizer.count(recent) - FRAME_TOKENS;
+        if (!chunked && tokenizer.count(diffContent) <= Math.min(CHUNKED_DIFF_THRESHOLD_TOKENS, diffBudget)) {
+            return new CommitPlan(budget, prompt, recent, diffContent, null, truncated);
+        }
+        int chunkTokens = Math.min(CHUNK_TOKENS, available - FRAME_TOKENS);
+        String diff = budget.truncateDiff(diffContent, chunkTokens * MAX_CHUNKS);
+        List<String> chunks = DiffChunker.split(diff, chunkTokens, tokenizer);
+        if (chunks.size() > MAX_CHUNKS) {
+            // Files split between hunks fill their chunks less; the chunks past the limit are left out
+            int omitted = chunks.size() - MAX_CHUNKS;
+            chunks = new ArrayList<>(chunks.subList(0, MAX_CHUNKS));
+            chunks.set(MAX_CHUNKS - 1, chunks.get(MAX_CHUNKS - 1)
+                + "[" + omitted + " more parts of the diff omitted to fit the model's context]\n");
+            diff = String.join("", chunks);
+        }
+        return new CommitPlan(budget, prompt, recent, diff, chunks, truncated || !diff.equals(diffContent));
+    }
 
-        return executeLLMRequest(settings, fullPrompt);
+    private static Prompt commitMessagePrompt(CommitPlan plan) {
+        return Prompt.of(plan.customPrompt(), "\n\n",
+            "Earlier commit messages for reference, most related first:\n", plan.recentCommits(), "\n\n",
+            "Staged changes:\n", plan.diff());
+    }
+
+    private static List<String> chunkPrompts(List<String> chunks) {
+        List<String> chunkPrompts = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            chunkPrompts.add(String.format(CHUNK_SUMMARY_PROMPT, i + 1, chunks.size()) + chunks.get(i));
+        }
+        return chunkPrompts;
+    }
+
+    /**
+     * Appends the summaries of parts to the final prompt of a map-reduce, as many as the context holds.
+     */
+    private static void appendParts(PromptBudget budget, StringBuilder fullPrompt, List<String> parts) {
+        Tokenizer tokenizer = budget.tokenizer();
+        long used = tokenizer.count(fullPrompt) + FRAME_TOKENS;
+        for (int i = 0; i < parts.size(); i++) {
+            int tokens = tokenizer.count(parts.get(i));
+            if (used + tokens > budget.promptTokens()) {
+                int omitted = parts.size() - i;
+                Logger.info(omitted + " of " + parts.size() + " summaries left out to fit the model's context");
+                fullPrompt.append("\n[").append(omitted).append(" more parts omitted to fit the model's context]\n");
+                return;
+            }
+            fullPrompt.append(parts.get(i));
+            used += tokens;
+        }
     }
 
     public String generateWeeklyReport(LLMSettings settings, String reportPrompt, String commitLogs) {
-        String fullPrompt = reportPrompt + "\n\n" + commitLogs;
-        return executeLLMRequest(settings, fullPrompt);
-    }
-
-    private String executeLLMRequest(LLMSettings settings, String fullPrompt) {
-        // OpenAI API compatible request body
-        Map<String, Object> requestBody = Map.of(
-            "model", settings.model(),
-            "messages", List.of(
-                Map.of("role", "user", "content", fullPrompt)
-            )
-        );
-        Gson gson = new Gson();
-
-        String jsonBody = gson.toJson(requestBody);
-
-        // Build the HTTP request
-        HttpRequest request = HttpRequest.post(settings.base_url() + "/chat/completions")
-            .header("Authorization", "Bearer " + settings.api_key())
-            .header("Content-Type", "application/json")
-            .body(jsonBody)
-            .timeout(30000); // 30 seconds timeout
-
-        // If proxy is enabled, set the proxy
-        if (settings.isProxyEnabled()) {
-            Proxy proxy = new Proxy(Proxy.Type.HTTP,
-                new InetSocketAddress(settings.proxy_host(), settings.proxy_port()));
-            request.setProxy(proxy);
-        }
-
-        HttpResponse response = request.execute();
-
-        if (response.isOk()) {
-            String responseBody = response.body();
-            // Parse the response to get the content of the message
-            JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
-            return jsonResponse.getAsJsonArray("choices")
-                .get(0).getAsJsonObject()
-                .getAsJsonObject("message")
-                .get("content").getAsString();
+        return generateWeeklyReport(settings, reportPrompt, commitLogs, false, null);
+    }
+
+    /**
+     * Generates a commit report, streaming the text as it is produced. A log too large for the model's context
+     * is cut after the last commit that fits.
+     * @param regenerate Skip the response cache and always ask the model.
+     * @param onDelta Receives each content fragment as it arrives; {@code null} for a blocking request.
+     * @return The complete report.
+     */
+    public String generateWeeklyReport(LLMSettings settings, String reportPrompt, String commitLogs,
+                                       boolean regenerate, Consumer<String> onDelta) {
+        ReportPlan plan = planReport(PromptBudget.of(settings), reportPrompt, Prompt.of(reportPrompt, "\n\n", commitLogs),
+            () -> new StringReader(commitLogs));
+        return executeCachedRequest(settings, plan.prompt(), regenerate, onDelta);
+    }
+
+    /**
+     * Generates a commit report from a log that is read from the buffer while the request is sent, so the log
+     * is never copied into the prompt unless it has to be cut.
+     * @see #generateWeeklyReport(LLMSettings, String, String, boolean, Consumer)
+     */
+    public String generateWeeklyReport(LLMSettings settings, String reportPrompt, SpillBuffer commitLogs,
+                                       boolean regenerate, Consumer<String> onDelta) {
+        ReportPlan plan = planReport(PromptBudget.of(settings), reportPrompt, Prompt.of(reportPrompt, "\n\n", commitLogs),
+            commitLogs::openReader);
+        return executeCachedRequest(settings, plan.prompt(), regenerate, onDelta);
+    }
+
+    /**
+     * Estimates the tokens and cost of {@link #generateWeeklyReport(LLMSettings, String, SpillBuffer, boolean, Consumer)}
+     * without sending anything.
+     */
+    public PromptEstimate estimateWeeklyReport(LLMSettings settings, String reportPrompt, SpillBuffer commitLogs) {
+        ReportPlan plan = planReport(PromptBudget.of(settings), reportPrompt, Prompt.of(reportPrompt, "\n\n", commitLogs),
+            commitLogs::openReader);
+        return estimate(plan);
+    }
+
+    /**
+     * Generates one commit report over several projects, streaming the text as it is produced.
+     * A merged log that fits into one prompt is sent as is. A larger one is summarized per project, and per
+     * token-bounded part of a project, concurrently (map); one final request writes the report from the
+     * summaries (reduce). Only the final request is streamed.
+     * @param mergedLogs The logs of all projects written by {@link CommitLogFormatter#writeMerged}.
+     * @param logs The same logs per project.
+     */
+    public String generateMultiProjectReport(LLMSettings settings, String reportPrompt, SpillBuffer mergedLogs,
+                                             List<ProjectCommitLogs> logs, boolean regenerate, Consumer<String> onDelta) {
+        ReportPlan plan = planMultiProjectReport(settings, reportPrompt, mergedLogs, logs);
+        if (plan.prompt() != null) {
+            return executeCachedRequest(settings, plan.prompt(), regenerate, onDelta);
+        }
+
+        Logger.info("Merged commit log of ~" + count(plan.budget().tokenizer(), Prompt.of(mergedLogs))
+            + " tokens summarized in " + plan.partPrompts().size() + " parts");
+        List<String> summaries = summarize(settings, plan.partPrompts(), "commit logs");
+
+        String overview = overview(mergedLogs);
+        StringBuilder fullPrompt = new StringBuilder()
+            .append(reportPrompt).append("\n\n")
+            .append(overview).append("\n\n")
+            .append("The commit logs of these projects were too large to include in full. Summaries per project:\n");
+        List<String> parts = new ArrayList<>(summaries.size());
+        for (int i = 0; i < summaries.size(); i++) {
+            parts.add("\n[" + plan.labels().get(i) + "]\n" + summaries.get(i) + "\n");
+        }
+        appendParts(plan.budget(), fullPrompt, parts);
+        return executeCachedRequest(settings, Prompt.of(fullPrompt), regenerate, onDelta);
+    }
+
+    /**
+     * Estimates the tokens and cost of {@link #generateMultiProjectReport} without sending anything.
+     */
+    public PromptEstimate estimateMultiProjectReport(LLMSettings settings, String reportPrompt, SpillBuffer mergedLogs,
+                                                     List<ProjectCommitLogs> logs) {
+        return estimate(planMultiProjectReport(settings, reportPrompt, mergedLogs, logs));
+    }
+
+    /**
+     * Sends a log as is if it fits into the model's context, or with the report prompt cut to a quarter of the
+     * context and the log after the last commit that fits the rest.
+     */
+    private static ReportPlan planReport(PromptBudget budget, String reportPrompt, Prompt fullPrompt, LogSource logs) {
+        int available = budget.promptTokens();
+        if (count(budget.tokenizer(), fullPrompt) <= available) {
+            return new ReportPlan(budget, fullPrompt, null, null, false);
+        }
+        String instructions = budget.truncateLines(reportPrompt, available / 4);
+        try (Reader reader = logs.open()) {
+            String log = budget.truncateLog(reader, available - budget.tokenizer().count(instructions) - FRAME_TOKENS);
+            Logger.info("Commit log cut to fit the context of " + budget.model());
+            return new ReportPlan(budget, Prompt.of(instructions, "\n\n", log), null, null, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the commit log: " + e.getMessage(), e);
+        }
+    }
+
+    private static ReportPlan planMultiProjectReport(LLMSettings settings, String reportPrompt, SpillBuffer mergedLogs,
+                                                     List<ProjectCommitLogs> logs) {
+        PromptBudget budget = PromptBudget.of(settings);
+        Tokenizer tokenizer = budget.tokenizer();
+        int available = budget.promptTokens();
+        Prompt fullPrompt = Prompt.of(reportPrompt, "\n\n", mergedLogs);
+        if (count(tokenizer, fullPrompt) <= Math.min(MERGED_REPORT_THRESHOLD_TOKENS, available)) {
+            return new ReportPlan(budget, fullPrompt, null, null, false);
+        }
+
+        int chunkTokens = Math.min(CHUNK_TOKENS, available - FRAME_TOKENS);
+        List<String> labels = new ArrayList<>();
+        List<String> partPrompts = new ArrayList<>();
+        for (ProjectCommitLogs projectLogs : logs) {
+            if (projectLogs.commitCount() == 0) {
+                continue;
+            }
+            String name = projectLogs.project().name();
+            List<String> parts = CommitLogFormatter.chunk(projectLogs.result().entries(), chunkTokens, tokenizer);
+            for (int i = 0; i < parts.size(); i++) {
+                labels.add(name + (parts.size() > 1 ? ", part " + (i + 1) + "/" + parts.size() : ""));
+                partPrompts.add(String.format(PROJECT_SUMMARY_PROMPT, i + 1, parts.size(), name) + parts.get(i));
+            }
+        }
+        return new ReportPlan(budget, null, labels, partPrompts, false);
+    }
+
+    private static PromptEstimate estimate(ReportPlan plan) {
+        Tokenizer tokenizer = plan.budget().tokenizer();
+        if (plan.prompt() != null) {
+            return estimate(plan.budget(), count(tokenizer, plan.prompt()), 1, ANSWER_TOKENS_ESTIMATE, plan.truncated());
+        }
+        int parts = plan.partPrompts().size();
+        long promptTokens = FRAME_TOKENS + (long) parts * SUMMARY_TOKENS_ESTIMATE;
+        for (String partPrompt : plan.partPrompts()) {
+            promptTokens += tokenizer.count(partPrompt);
+        }
+        return estimate(plan.budget(), promptTokens, parts + 1,
+            (long) parts * SUMMARY_TOKENS_ESTIMATE + ANSWER_TOKENS_ESTIMATE, plan.truncated());
+    }
+
+    private static PromptEstimate estimate(PromptBudget budget, long promptTokens, int requests, long completionTokens,
+                                           boolean truncated) {
+        return new PromptEstimate(budget.model(), promptTokens, requests, budget.contextWindow(),
+            budget.tokenizer().isExact(), truncated, budget.cost(promptTokens, completionTokens));
+    }
+
+    private static long count(Tokenizer tokenizer, Prompt prompt) {
+        try {
+            return tokenizer.count(prompt);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the prompt: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The overview lines of a merged log: the commit count or read error of every project.
+     */
+    private static String overview(SpillBuffer mergedLogs) {
+        StringBuilder overview = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(mergedLogs.openReader())) {
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                overview.append(overview.isEmpty() ? "" : "\n").append(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the merged commit log: " + e.getMessage(), e);
+        }
+        return overview.toString();
+    }
+
+    /**
+     * Sends independent summary requests concurrently, through the response cache.
+     * @return The answers, in the order of the prompts.
+     */
+    private List<String> summarize(LLMSettings settings, List<String> prompts, String subject) {
+        if (prompts.isEmpty()) {
+            return List.of();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(MAX_PARALLEL_CHUNKS, prompts.size()), runnable -> {
+            Thread thread = new Thread(runnable, "llm-summary");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<String> summaries = new ArrayList<>(prompts.size());
+        try {
+            List<Future<String>> futures = new ArrayList<>(prompts.size());
+            for (String prompt : prompts) {
+                futures.add(pool.submit(() -> executeCachedRequest(settings, Prompt.of(prompt), false, null)));
+            }
+            for (Future<String> future : futures) {
+                summaries.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException runtimeException
+                ? runtimeException
+                : new RuntimeException("Failed to summarize " + subject + ": " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Summarizing " + subject + " interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return summaries;
+    }
+
+    /**
+     * Answers identical requests from the response cache. A regenerated response replaces the cached one.
+     */
+    private String executeCachedRequest(LLMSettings settings, Prompt fullPrompt, boolean regenerate, Consumer<String> onDelta) {
+        String fingerprint;
+        try {
+            fingerprint = LLMResponseCache.fingerprint(settings, fullPrompt);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the prompt: " + e.getMessage(), e);
+        }
+        if (!regenerate) {
+            String cached = responseCache.get(fingerprint);
+            if (cached != null) {
+                if (onDelta != null) {
+                    onDelta.accept(cached);
+                }
+                return cached;
+            }
+        }
+
+        String response = executeLLMRequest(settings, fullPrompt, onDelta);
+        responseCache.put(fingerprint, response);
+        return response;
+    }
+
+    /**
+     * @return Number of requests answered by the response cache.
+     */
+    public long getCacheHits() {
+        return responseCache.hits();
+    }
+
+    /**
+     * @return Number of cacheable requests that had to be sent to the model.
+     */
+    public long getCacheMisses() {
+        return responseCache.misses();
+    }
+
+    /**
+     * Sends a request through the configured endpoints and records its latency, outcome and token usage per model.
+     */
+    private String executeLLMRequest(LLMSettings settings, Prompt fullPrompt, Consumer<String> onDelta) {
+        String model = String.valueOf(settings.model());
+        long startNanos = System.nanoTime();
+        String outcome = "error";
+        try {
+            long estimatedTokens = count(Tokenizer.forModel(model), fullPrompt) + ANSWER_TOKENS_ESTIMATE;
+            String content = router.execute(settings, estimatedTokens, onDelta,
+                (endpoint, permit, endpointDelta) -> sendRequest(endpoint, permit, fullPrompt, endpointDelta, startNanos));
+            outcome = "ok";
+            Metrics.recordDuration(Metrics.LLM_REQUEST_SECONDS, System.nanoTime() - startNanos, "model", model);
+            return content;
+        } catch (CancellationException e) {
+            outcome = "cancelled";
+            throw e;
+        } finally {
+            Metrics.increment(Metrics.LLM_REQUESTS, "model", model, "outcome", outcome);
+        }
+    }
+
+    private String sendRequest(LLMSettings settings, RateLimiter.Permit permit, Prompt fullPrompt, Consumer<String> onDelta,
+                               long startNanos) {
+        boolean stream = onDelta != null;
+        String model = String.valueOf(settings.model());
+
+        boolean includeUsage = stream && !streamOptionsRejected.contains(String.valueOf(settings.base_url()));
+
+        try (SpillBuffer jsonBody = new SpillBuffer()) {
+            writeRequestBody(jsonBody, settings, fullPrompt, stream, includeUsage);
+            if (!stream) {
+                HttpResponse<String> response = transport.postJson(settings, "/chat/completions", jsonBody,
+                    HttpResponse.BodyHandlers.ofString(), HEADERS_TIMEOUT);
+                permit.update(response.headers());
+
+                if (isOk(response)) {
+                    // Without streaming the first token arrives with the whole body
+                    Metrics.recordDuration(Metrics.LLM_FIRST_TOKEN_SECONDS, System.nanoTime() - startNanos, "model", model);
+                    // Parse the response to get the content of the message
+                    JsonObject jsonResponse = gson.fromJson(response.body(), JsonObject.class);
+                    recordUsage(model, jsonResponse, permit);
+                    return jsonResponse.getAsJsonArray("choices")
+                        .get(0).getAsJsonObject()
+                        .getAsJsonObject("message")
+                        .get("content").getAsString();
+                } else {
+                    throw rateLimited(permit, LLMRequestException.of(response.statusCode(), response.headers(), response.body()));
+                }
+            }
+
+            // Do not buffer the body, the event stream is consumed as it arrives
+            HttpResponse<InputStream> response = transport.postJson(settings, "/chat/completions", jsonBody,
+                HttpResponse.BodyHandlers.ofInputStream(), HEADERS_TIMEOUT);
+            permit.update(response.headers());
+            try (InputStream body = response.body()) {
+                if (!isOk(response)) {
+                    String error = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                    if (includeUsage && response.statusCode() == 400 && error.contains("stream_options")) {
+                        // Older OpenAI compatible servers reject unknown fields; ask once more without it
+                        Logger.info("Endpoint " + settings.base_url() + " does not accept stream_options, "
+                            + "streaming without usage");
+                        streamOptionsRejected.add(String.valueOf(settings.base_url()));
+                        return sendRequest(settings, permit, fullPrompt, onDelta, startNanos);
+                    }
+                    throw rateLimited(permit, LLMRequestException.of(response.statusCode(), response.headers(), error));
+                }
+                return readEventStream(body, onDelta, model, startNanos, permit);
+            }
+        } catch (IOException e) {
+            throw LLMRequestException.transientFailure("LLM request failed: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Generation cancelled");
+        }
+    }
+
+    /**
+     * Writes the OpenAI API compatible request body. The prompt is escaped into the body chunk by chunk, so a
+     * large commit log goes from its buffer into the request without ever being held as one string.
+     */
+    private void writeRequestBody(Writer body, LLMSettings settings, Prompt prompt, boolean stream,
+                                  boolean includeUsage) throws IOException {
+        body.write("{\"model\":");
+        body.write(gson.toJson(settings.model()));
+        body.write(",\"messages\":[{\"role\":\"user\",\"content\":\"");
+        prompt.forEachChunk((chars, count) -> writeJsonEscaped(body, chars, count));
+        body.write("\"}]");
+        if (stream) {
+            body.write(",\"stream\":true");
+        }
+        if (includeUsage) {
+            // Ask for the usage block, which streamed responses omit by default
+            body.write(",\"stream_options\":{\"include_usage\":true}");
+        }
+        body.write("}");
+    }
+
+    private static void writeJsonEscaped(Writer out, char[] chars, int count) throws IOException {
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            char c = chars[i];
+            String escaped = switch (c) {
+                case '"' -> "\\\"";
+                case '\\' -> "\\\\";
+                case '\n' -> "\\n";
+                case '\r' -> "\\r";
+                case '\t' -> "\\t";
+                // Line and paragraph separators are valid JSON but break JavaScript based parsers
+                case '\u2028', '\u2029' -> String.format("\\u%04x", (int) c);
+                default -> c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+            };
+            if (escaped != null) {
+                out.write(chars, start, i - start);
+                out.write(escaped);
+                start = i + 1;
+            }
+        }
+        out.write(chars, start, count - start);
+    }
+
+    /**
+     * Releases pooled connections and endpoint statistics that no longer match the saved settings.
+     */
+    public void onSettingsChanged(LLMSettings settings) {
+        transport.reconfigure(settings);
+        router.reconfigure(settings);
+        streamOptionsRejected.clear();
+    }
+
+    public void close() {
+        router.close();
+        transport.close();
+    }
+
+    private static boolean isOk(HttpResponse<?> response) {
+        return response.statusCode() >= 200 && response.statusCode() < 300;
+    }
+
+    /**
+     * Holds back further requests to the endpoint if the error is a 429.
+     */
+    private static LLMRequestException rateLimited(RateLimiter.Permit permit, LLMRequestException error) {
+        if (error.statusCode() == 429) {
+            permit.rateLimited(error.retryAfter());
+        }
+        return error;
+    }
+
+    /**
+     * Reads a server-sent event stream of chat completion chunks, forwarding every content delta.
+     */
+    private String readEventStream(InputStream body, Consumer<String> onDelta, String model, long startNanos,
+                                   RateLimiter.Permit permit) {
+        StringBuilder content = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Generation cancelled");
+                }
+                // Blank lines separate events, lines starting with ':' are keep-alive comments
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring(5).trim();
+                if (data.equals("[DONE]")) {
+                    break;
+                }
+                if (data.isEmpty()) {
+                    continue;
+                }
+
+                JsonObject chunk = gson.fromJson(data, JsonObject.class);
+                if (chunk.has("error")) {
+                    // Usually an overloaded or timed out upstream model
+                    throw LLMRequestException.transientFailure("Failed to generate content: " + chunk.get("error"), null);
+                }
+                // Only the last chunk carries usage, with an empty choices array
+                recordUsage(model, chunk, permit);
+                String delta = extractDelta(chunk);
+                if (delta != null && !delta.isEmpty()) {
+                    // Throws if another endpoint answered first, before this attempt counts as the first token
+                    onDelta.accept(delta);
+                    if (content.isEmpty()) {
+                        Metrics.recordDuration(Metrics.LLM_FIRST_TOKEN_SECONDS, System.nanoTime() - startNanos, "model", model);
+                    }
+                    content.append(delta);
+                }
+            }
+        } catch (IOException e) {
+            throw LLMRequestException.transientFailure("Stream interrupted after " + content.length() + " characters", e);
+        }
+        return content.toString();
+    }
+
+    /**
+     * Records the token counts of a response or stream chunk that has a {@code usage} block. Cached prompt tokens
+     * are reported as {@code prompt_tokens_details.cached_tokens} (OpenAI) or {@code prompt_cache_hit_tokens}
+     * (DeepSeek). The total settles the quota taken for the request.
+     */
+    private static void recordUsage(String model, JsonObject response, RateLimiter.Permit permit) {
+        if (!(response.get("usage") instanceof JsonObject usage)) {
+            return;
+        }
+        long total = count(usage.get("total_tokens"));
+        if (total < 0 && count(usage.get("prompt_tokens")) >= 0 && count(usage.get("completion_tokens")) >= 0) {
+            total = count(usage.get("prompt_tokens")) + count(usage.get("completion_tokens"));
+        }
+        if (total >= 0) {
+            permit.settle(total);
+        }
+        addTokens(model, "prompt", usage.get("prompt_tokens"));
+        addTokens(model, "completion", usage.get("completion_tokens"));
+        if (usage.get("prompt_tokens_details") instanceof JsonObject details) {
+            addTokens(model, "cached", details.get("cached_tokens"));
         } else {
-            throw new RuntimeException("Failed to generate content: " + response.getStatus() + " " + response.body());
+            addTokens(model, "cached", usage.get("prompt_cache_hit_tokens"));
         }
     }
-}
 
+    private static void addTokens(String model, String type, JsonElement count) {
+        if (count(count) >= 0) {
+            Metrics.add(Metrics.LLM_TOKENS, count.getAsLong(), "model", model, "type", type);
+        }
+    }
+
+    /**
+     * @return The token count, or -1 if the field is missing or not a number.
+     */
+    private static long count(JsonElement count) {
+        return count != null && count.isJsonPrimitive() && count.getAsJsonPrimitive().isNumber() ? count.getAsLong() : -1;
+    }
+
+    private String extractDelta(JsonObject chunk) {
+        JsonArray choices = chunk.getAsJsonArray("choices");
+        if (choices == null || choices.isEmpty()) {
+            return null;
+        }
+        JsonObject delta = choices.get(0).getAsJsonObject().getAsJsonObject("delta");
+        if (delta == null) {
+            return null;
+        }
+        JsonElement text = delta.get("content");
+        return text == null || text.isJsonNull() ? null : text.getAsString();
+    }
+}
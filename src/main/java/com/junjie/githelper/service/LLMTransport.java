@@ -0,0 +1,135 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.LLMSettings;
+import com.junjie.githelper.util.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Long-lived HTTP transport for LLM requests.
+ * Keeps one {@link HttpClient} (and therefore one connection pool) per base URL and proxy pair,
+ * so back-to-back generations reuse warm TCP/TLS connections and proxy tunnels instead of
+ * handshaking again for every request. HTTP/2 is negotiated where the endpoint supports it.
+ */
+public class LLMTransport {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+    static {
+        // The JDK default closes idle pooled connections after 30 seconds, which is shorter than the
+        // usual pause between two generations. Respect an explicit setting if one was given.
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", "600");
+        }
+    }
+
+    private final Map<ClientKey, PooledClient> clients = new ConcurrentHashMap<>();
+
+    /**
+     * Identifies a connection pool: requests with the same key share connections.
+     */
+    private record ClientKey(String baseUrl, String proxyHost, Integer proxyPort) {
+        static ClientKey of(LLMSettings settings) {
+            return settings.isProxyEnabled()
+                ? new ClientKey(settings.base_url(), settings.proxy_host().trim(), settings.proxy_port())
+                : new ClientKey(settings.base_url(), null, null);
+        }
+    }
+
+    private static final class PooledClient {
+        final HttpClient client;
+        final long createdNanos = System.nanoTime();
+        final AtomicLong requests = new AtomicLong();
+
+        PooledClient(HttpClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * Sends a POST request with a JSON body, reusing the pooled client for these settings.
+     * The request timeout bounds the wait for the response headers only, so a streamed body may
+     * take as long as the model needs.
+     * @param jsonBody Read while the request is sent; it must stay open until the response has been read.
+     */
+    public <T> HttpResponse<T> postJson(LLMSettings settings, String path, SpillBuffer jsonBody,
+                                        HttpResponse.BodyHandler<T> bodyHandler, Duration headersTimeout)
+            throws IOException, InterruptedException {
+        PooledClient pooled = clientFor(settings);
+        long sequence = pooled.requests.incrementAndGet();
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(settings.base_url() + path))
+            .header("Authorization", "Bearer " + settings.api_key())
+            .header("Content-Type", "application/json")
+            .timeout(headersTimeout)
+            .POST(jsonBody.bodyPublisher())
+            .build();
+
+        long start = System.nanoTime();
+        HttpResponse<T> response = pooled.client.send(request, bodyHandler);
+        long headersMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // The first request on a pool pays for DNS, TCP, TLS (and the proxy CONNECT); later ones
+        // should show the warm time-to-headers. The difference is the handshake cost saved.
+        Logger.debug(() -> String.format("LLM %s %s: headers in %d ms over %s (%s, request #%d on pool, pool age %d s)",
+            request.method(), request.uri().getHost(), headersMillis, response.version(),
+            sequence == 1 ? "cold connection" : "pooled connection", sequence,
+            (System.nanoTime() - pooled.createdNanos) / 1_000_000_000L));
+        return response;
+    }
+
+    /**
+     * Drops every pool that does not match one of the endpoints of the given settings.
+     * Call this when the user saves new settings; unchanged endpoints keep their warm connections.
+     */
+    public void reconfigure(LLMSettings settings) {
+        Set<ClientKey> keep = settings.endpoints().stream().map(ClientKey::of).collect(Collectors.toSet());
+        clients.entrySet().removeIf(entry -> {
+            if (keep.contains(entry.getKey())) {
+                return false;
+            }
+            Logger.debug(() -> "Releasing LLM connection pool for " + entry.getKey().baseUrl());
+            entry.getValue().client.shutdown();
+            return true;
+        });
+    }
+
+    /**
+     * Releases all pools. In-flight requests are allowed to complete.
+     */
+    public void close() {
+        clients.values().forEach(pooled -> pooled.client.shutdown());
+        clients.clear();
+    }
+
+    private PooledClient clientFor(LLMSettings settings) {
+        return clients.computeIfAbsent(ClientKey.of(settings), key -> {
+            long start = System.nanoTime();
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+            if (key.proxyHost() != null) {
+                builder.proxy(ProxySelector.of(new InetSocketAddress(key.proxyHost(), key.proxyPort())));
+            }
+            HttpClient client = builder.build();
+            long buildMillis = (System.nanoTime() - start) / 1_000_000;
+            Logger.debug(() -> "Created LLM connection pool for " + key.baseUrl()
+                + (key.proxyHost() != null ? " via proxy " + key.proxyHost() + ":" + key.proxyPort() : "")
+                + " in " + buildMillis + " ms");
+            return new PooledClient(client);
+        });
+    }
+}
@@ -0,0 +1,18 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.Project;
+
+/**
+ * The commit logs of one project in a multi-project query.
+ * @param result The selected commits, or {@code null} if the repository could not be read.
+ * @param error Why the repository could not be read, or {@code null}.
+ */
+public record ProjectCommitLogs(
+    Project project,
+    CommitLogResult result,
+    String error
+) {
+    public int commitCount() {
+        return result == null ? 0 : result.entries().size();
+    }
+}
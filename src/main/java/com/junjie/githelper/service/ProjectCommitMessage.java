@@ -0,0 +1,18 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.Project;
+
+/**
+ * The generated commit message of one project in a batch.
+ * @param message The message, or {@code null} if nothing is staged or generation failed.
+ * @param error Why no message could be generated, or {@code null}.
+ */
+public record ProjectCommitMessage(
+    Project project,
+    String message,
+    String error
+) {
+    public boolean hasStagedChanges() {
+        return message != null || error != null;
+    }
+}
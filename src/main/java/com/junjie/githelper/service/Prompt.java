@@ -0,0 +1,101 @@
+package com.junjie.githelper.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A prompt assembled from text parts and {@link SpillBuffer}s. The parts are read one after another when the
+ * prompt is fingerprinted or sent, instead of being concatenated into one string first.
+ */
+final class Prompt {
+
+    private static final int CHUNK_CHARS = 8192;
+
+    private final List<Object> parts;
+
+    @FunctionalInterface
+    interface ChunkConsumer {
+        /**
+         * @param chars Holds the chunk at offset 0; only valid during the call. A chunk never ends between the
+         *              two halves of a surrogate pair.
+         */
+        void accept(char[] chars, int count) throws IOException;
+    }
+
+    private Prompt(List<Object> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * @param parts Text ({@link CharSequence}, {@code null} reads as "null" like string concatenation) or
+     *              {@link SpillBuffer}s, in prompt order.
+     */
+    static Prompt of(Object... parts) {
+        List<Object> checked = new ArrayList<>(parts.length);
+        for (Object part : parts) {
+            if (part == null || part instanceof CharSequence) {
+                checked.add(String.valueOf(part));
+            } else if (part instanceof SpillBuffer) {
+                checked.add(part);
+            } else {
+                throw new IllegalArgumentException("Unsupported prompt part: " + part.getClass().getName());
+            }
+        }
+        return new Prompt(checked);
+    }
+
+    /**
+     * @return Number of characters of the whole prompt.
+     */
+    long length() {
+        long length = 0;
+        for (Object part : parts) {
+            length += part instanceof SpillBuffer buffer ? buffer.length() : ((String) part).length();
+        }
+        return length;
+    }
+
+    /**
+     * Passes the prompt to a consumer in chunks of bounded size.
+     */
+    void forEachChunk(ChunkConsumer consumer) throws IOException {
+        char[] chunk = new char[CHUNK_CHARS];
+        for (Object part : parts) {
+            if (part instanceof SpillBuffer buffer) {
+                try (Reader reader = buffer.openReader()) {
+                    readChunks(reader, chunk, consumer);
+                }
+            } else {
+                String text = (String) part;
+                for (int start = 0; start < text.length(); ) {
+                    int end = Math.min(text.length(), start + CHUNK_CHARS);
+                    if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                        end--;
+                    }
+                    text.getChars(start, end, chunk, 0);
+                    consumer.accept(chunk, end - start);
+                    start = end;
+                }
+            }
+        }
+    }
+
+    private static void readChunks(Reader reader, char[] chunk, ChunkConsumer consumer) throws IOException {
+        int carried = 0;
+        int read;
+        while ((read = reader.read(chunk, carried, chunk.length - carried)) != -1) {
+            int available = carried + read;
+            int end = available > 0 && Character.isHighSurrogate(chunk[available - 1]) ? available - 1 : available;
+            consumer.accept(chunk, end);
+            carried = available - end;
+            if (carried > 0) {
+                chunk[0] = chunk[end];
+            }
+        }
+        if (carried > 0) {
+            consumer.accept(chunk, carried);
+        }
+    }
+}
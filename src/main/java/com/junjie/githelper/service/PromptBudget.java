@@ -0,0 +1,273 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.LLMSettings;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * How many tokens a prompt for a model may take, and how to cut its parts down to their share. Context sizes and
+ * prices of common models are built in, matched by model name prefix; the settings can override both.
+ * <p>
+ * Parts are cut where the model can still make sense of what is left: instructions and commit messages after a
+ * line, diffs after a hunk, logs after a commit. A note at the cut says how much was left out.
+ */
+public final class PromptBudget {
+
+    // Reserved from the context for the answer
+    static final int ANSWER_TOKENS = 1000;
+    // Context of unknown models; small enough for most models served today
+    private static final int DEFAULT_CONTEXT_WINDOW = 32_768;
+    // Room for notes about omitted parts
+    private static final int NOTE_TOKENS = 32;
+    private static final String COMMIT_SEPARATOR = "=".repeat(80);
+
+    private record ModelInfo(String prefix, int contextWindow, Double promptPrice, Double completionPrice) {
+    }
+
+    // Prices in US dollars per million tokens, as published by the providers
+    private static final List<ModelInfo> MODELS = List.of(
+        new ModelInfo("gpt-4o-mini", 128_000, 0.15, 0.60),
+        new ModelInfo("gpt-4o", 128_000, 2.50, 10.0),
+        new ModelInfo("chatgpt-4o", 128_000, 5.0, 15.0),
+        new ModelInfo("gpt-4.1-nano", 1_047_576, 0.10, 0.40),
+        new ModelInfo("gpt-4.1-mini", 1_047_576, 0.40, 1.60),
+        new ModelInfo("gpt-4.1", 1_047_576, 2.0, 8.0),
+        new ModelInfo("gpt-4-turbo", 128_000, 10.0, 30.0),
+        new ModelInfo("gpt-4", 8_192, 30.0, 60.0),
+        new ModelInfo("gpt-3.5-turbo", 16_385, 0.50, 1.50),
+        new ModelInfo("o1", 200_000, 15.0, 60.0),
+        new ModelInfo("o3-mini", 200_000, 1.10, 4.40),
+        new ModelInfo("o4-mini", 200_000, 1.10, 4.40),
+        new ModelInfo("o3", 200_000, 2.0, 8.0),
+        new ModelInfo("deepseek-chat", 65_536, 0.27, 1.10),
+        new ModelInfo("deepseek-reasoner", 65_536, 0.55, 2.19),
+        new ModelInfo("claude-", 200_000, null, null)
+    ).stream().sorted(Comparator.comparingInt((ModelInfo info) -> info.prefix().length()).reversed()).toList();
+
+    private final String model;
+    private final Tokenizer tokenizer;
+    private final int contextWindow;
+    private final Double promptPrice;
+    private final Double completionPrice;
+
+    private PromptBudget(String model, Tokenizer tokenizer, int contextWindow, Double promptPrice, Double completionPrice) {
+        this.model = model;
+        this.tokenizer = tokenizer;
+        this.contextWindow = contextWindow;
+        this.promptPrice = promptPrice;
+        this.completionPrice = completionPrice;
+    }
+
+    public static PromptBudget of(LLMSettings settings) {
+        String model = settings.model() == null ? "" : settings.model().trim();
+        ModelInfo info = lookup(model);
+        int contextWindow = settings.context_window() != null && settings.context_window() > 0
+            ? settings.context_window()
+            : info != null ? info.contextWindow() : DEFAULT_CONTEXT_WINDOW;
+        Double promptPrice = settings.prompt_price_per_million() != null
+            ? settings.prompt_price_per_million()
+            : info != null ? info.promptPrice() : null;
+        Double completionPrice = settings.completion_price_per_million() != null
+            ? settings.completion_price_per_million()
+            : info != null ? info.completionPrice() : null;
+        return new PromptBudget(model, Tokenizer.forModel(model), contextWindow, promptPrice, completionPrice);
+    }
+
+    private static ModelInfo lookup(String model) {
+        String name = model.toLowerCase(Locale.ROOT);
+        // "openai/gpt-4o" through a gateway is priced like "gpt-4o"
+        name = name.substring(name.lastIndexOf('/') + 1);
+        for (ModelInfo info : MODELS) {
+            if (name.startsWith(info.prefix())) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    public String model() {
+        return model;
+    }
+
+    public Tokenizer tokenizer() {
+        return tokenizer;
+    }
+
+    public int contextWindow() {
+        return contextWindow;
+    }
+
+    /**
+     * @return The tokens a prompt may take: the context less the answer and a safety margin, which is larger
+     *         when the counts are estimated.
+     */
+    public int promptTokens() {
+        double margin = tokenizer.isExact() ? 0.02 : 0.10;
+        return Math.max(NOTE_TOKENS * 4, (int) ((contextWindow - ANSWER_TOKENS) * (1 - margin)));
+    }
+
+    /**
+     * @return The cost in US dollars, or {@code null} if the model's price is unknown.
+     */
+    public Double cost(long promptTokens, long completionTokens) {
+        if (promptPrice == null || completionPrice == null) {
+            return null;
+        }
+        return (promptTokens * promptPrice + completionTokens * completionPrice) / 1_000_000;
+    }
+
+    /**
+     * Keeps the leading whole lines of a text that fit into the budget.
+     */
+    String truncateLines(String text, int maxTokens) {
+        if (text == null || tokenizer.count(text) <= maxTokens) {
+            return text;
+        }
+        StringBuilder kept = new StringBuilder();
+        int used = 0;
+        int omitted = 0;
+        for (String line : text.split("(?<=\n)")) {
+            int tokens = tokenizer.count(line);
+            if (omitted == 0 && used + tokens <= maxTokens - NOTE_TOKENS) {
+                kept.append(line);
+                used += tokens;
+            } else {
+                omitted++;
+            }
+        }
+        if (!kept.isEmpty() && kept.charAt(kept.length() - 1) != '\n') {
+            kept.append('\n');
+        }
+        return kept.append("[").append(omitted).append(omitted == 1 ? " line" : " lines")
+            .append(" omitted to fit the model's context]\n").toString();
+    }
+
+    /**
+     * Keeps the leading files and hunks of a diff that fit into the budget. A file is cut after a hunk and keeps
+     * its header; only a first hunk larger than the rest of the budget is cut after a line.
+     */
+    String truncateDiff(String diff, int maxTokens) {
+        if (tokenizer.count(diff) <= maxTokens) {
+            return diff;
+        }
+        int limit = Math.max(1, maxTokens - NOTE_TOKENS);
+        StringBuilder kept = new StringBuilder();
+        int used = 0;
+        int omittedHunks = 0;
+        int omittedFiles = 0;
+        for (String file : DiffChunker.splitBefore(diff, "diff --git ")) {
+            List<String> hunks = DiffChunker.splitBefore(file, "@@ ");
+            String header = hunks.get(0).startsWith("@@ ") ? "" : hunks.get(0);
+            int hunkCount = header.isEmpty() ? hunks.size() : hunks.size() - 1;
+            int fileTokens = used < limit ? tokenizer.count(file) : limit;
+            if (used + fileTokens <= limit) {
+                kept.append(file);
+                used += fileTokens;
+                continue;
+            }
+            int headerTokens = used < limit ? tokenizer.count(header) : limit;
+            if (used + headerTokens >= limit) {
+                omittedFiles++;
+                omittedHunks += hunkCount;
+                used = limit;
+                continue;
+            }
+            kept.append(header);
+            used += headerTokens;
+            int keptHunks = 0;
+            for (String hunk : hunks.subList(header.isEmpty() ? 0 : 1, hunks.size())) {
+                int tokens = used < limit ? tokenizer.count(hunk) : limit;
+                if (used + tokens <= limit) {
+                    kept.append(hunk);
+                    used += tokens;
+                    keptHunks++;
+                } else if (keptHunks == 0 && used < limit) {
+                    kept.append(truncateLines(hunk, limit - used));
+                    used = limit;
+                    keptHunks++;
+                } else {
+                    omittedHunks++;
+                    used = limit;
+                }
+            }
+            if (keptHunks < hunkCount) {
+                omittedFiles++;
+            }
+        }
+        return kept.append("[").append(omittedHunks).append(omittedHunks == 1 ? " hunk" : " hunks").append(" in ")
+            .append(omittedFiles).append(omittedFiles == 1 ? " file" : " files")
+            .append(" omitted to fit the model's context]\n").toString();
+    }
+
+    /**
+     * Keeps the leading commits of a log written by {@link CommitLogFormatter} that fit into the budget.
+     */
+    String truncateLog(String log, int maxTokens) {
+        if (tokenizer.count(log) <= maxTokens) {
+            return log;
+        }
+        try {
+            return truncateLog(new StringReader(log), maxTokens);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads a log written by {@link CommitLogFormatter} and keeps its leading commits that fit into the budget.
+     * The rest of the log is only scanned to count the omitted commits.
+     */
+    String truncateLog(Reader log, int maxTokens) throws IOException {
+        int limit = Math.max(1, maxTokens - NOTE_TOKENS);
+        StringBuilder kept = new StringBuilder();
+        StringBuilder entry = new StringBuilder();
+        int used = 0;
+        int omitted = 0;
+        boolean full = false;
+        try (BufferedReader reader = new BufferedReader(log)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals(COMMIT_SEPARATOR)) {
+                    // The lines read so far are the previous commit, or the log's header
+                    if (!full) {
+                        int tokens = tokenizer.count(entry);
+                        if (used + tokens <= limit) {
+                            kept.append(entry);
+                            used += tokens;
+                        } else {
+                            full = true;
+                            omitted += entry.indexOf(COMMIT_SEPARATOR) == 0 ? 1 : 0;
+                        }
+                        entry.setLength(0);
+                    }
+                    if (full) {
+                        omitted++;
+                        continue;
+                    }
+                }
+                if (!full) {
+                    entry.append(line).append('\n');
+                }
+            }
+        }
+        if (!full) {
+            if (used + tokenizer.count(entry) <= limit) {
+                kept.append(entry);
+            } else {
+                omitted += entry.indexOf(COMMIT_SEPARATOR) == 0 ? 1 : 0;
+            }
+        }
+        if (omitted == 0) {
+            return kept.toString();
+        }
+        return kept.append("[").append(omitted).append(omitted == 1 ? " more commit" : " more commits")
+            .append(" omitted to fit the model's context]\n").toString();
+    }
+}
@@ -0,0 +1,137 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.DiffFile;
+import org.eclipse.jgit.ignore.FastIgnoreRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Cuts the noise out of a staged diff before it goes into a prompt. Files that say little about the intent of a
+ * change, but may cost most of the tokens, are replaced by a one-line summary:
+ * <ul>
+ *     <li>paths matching the exclude patterns: lockfiles, minified bundles, source maps and snapshots by
+ *         default, plus the project's own {@code diff_excludes}, written like {@code .gitignore} lines.
+ *         A project pattern starting with {@code !} keeps matching files in full, default or not;</li>
+ *     <li>binary files and deleted files;</li>
+ *     <li>generated files, recognized by a marker such as {@code @generated} or {@code DO NOT EDIT} near the
+ *         top of the change, and minified files, recognized by very long added lines.</li>
+ * </ul>
+ */
+final class PromptDiffFilter {
+
+    static final List<String> DEFAULT_EXCLUDES = List.of(
+        "package-lock.json", "npm-shrinkwrap.json", "yarn.lock", "pnpm-lock.yaml", "bun.lockb",
+        "Cargo.lock", "Gemfile.lock", "composer.lock", "poetry.lock", "Pipfile.lock", "uv.lock", "go.sum",
+        "gradle.lockfile", "packages.lock.json", "*.min.js", "*.min.css", "*.map", "*.snap");
+
+    private static final List<String> GENERATED_MARKERS = List.of(
+        "@generated", "do not edit", "code generated by", "auto-generated", "autogenerated", "this file is generated");
+    // Markers are looked for in this many characters of the first hunk
+    private static final int MARKER_SCAN_CHARS = 2_000;
+    // An added line this long is minified code or data
+    private static final int MINIFIED_LINE_LENGTH = 1_000;
+
+    private final List<FastIgnoreRule> rules = new ArrayList<>();
+
+    /**
+     * @param projectExcludes The project's patterns, applied after the defaults; may be {@code null}.
+     */
+    PromptDiffFilter(List<String> projectExcludes) {
+        DEFAULT_EXCLUDES.forEach(pattern -> rules.add(new FastIgnoreRule(pattern)));
+        if (projectExcludes != null) {
+            for (String pattern : projectExcludes) {
+                if (pattern != null && !pattern.isBlank() && !pattern.strip().startsWith("#")) {
+                    rules.add(new FastIgnoreRule(pattern.strip()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param fileDiffs The diff of each file, as produced by {@code git diff}.
+     * @return The diff for the prompt.
+     */
+    String apply(List<String> fileDiffs) {
+        StringBuilder diff = new StringBuilder();
+        for (String fileDiff : fileDiffs) {
+            DiffFile file = UnifiedDiffParser.parseFile(fileDiff);
+            String reason = omitReason(file);
+            if (reason == null) {
+                diff.append(fileDiff);
+            } else {
+                diff.append(summary(file, reason));
+            }
+        }
+        return diff.toString();
+    }
+
+    /**
+     * @return Why the file's content should be left out, or {@code null} to keep it.
+     */
+    String omitReason(DiffFile file) {
+        Boolean excluded = null;
+        for (FastIgnoreRule rule : rules) {
+            // Like .gitignore, the last matching pattern decides
+            if (rule.isMatch(file.path(), false)) {
+                excluded = rule.getResult();
+            }
+        }
+        if (excluded != null) {
+            return excluded ? "excluded" : null;
+        }
+        if (file.binary()) {
+            return "binary";
+        }
+        if (file.header().contains("\ndeleted file mode")) {
+            return "deleted";
+        }
+        if (file.hunks().isEmpty()) {
+            return null;
+        }
+        String top = file.hunks().get(0);
+        top = top.substring(0, Math.min(top.length(), MARKER_SCAN_CHARS)).toLowerCase(Locale.ROOT);
+        for (String marker : GENERATED_MARKERS) {
+            if (top.contains(marker)) {
+                return "generated";
+            }
+        }
+        return isMinified(file) ? "minified" : null;
+    }
+
+    private static boolean isMinified(DiffFile file) {
+        for (String hunk : file.hunks()) {
+            int lineStart = 0;
+            while (lineStart < hunk.length()) {
+                int lineEnd = hunk.indexOf('\n', lineStart);
+                if (lineEnd < 0) {
+                    lineEnd = hunk.length();
+                }
+                if (hunk.charAt(lineStart) == '+' && lineEnd - lineStart > MINIFIED_LINE_LENGTH) {
+                    return true;
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps the "diff --git" line and describes the rest, e.g. "(excluded file, content omitted: +120 -80 lines)".
+     */
+    private static String summary(DiffFile file, String reason) {
+        String header = file.header();
+        int firstLineEnd = header.indexOf('\n');
+        String firstLine = firstLineEnd < 0 ? header : header.substring(0, firstLineEnd);
+        if (firstLine.isEmpty()) {
+            firstLine = "diff --git a/" + file.path() + " b/" + file.path();
+        }
+        String change = switch (reason) {
+            case "binary" -> "binary file changed";
+            case "deleted" -> "file deleted, -" + file.deletions() + " lines";
+            default -> reason + " file, content omitted: +" + file.additions() + " -" + file.deletions() + " lines";
+        };
+        return firstLine + "\n(" + change + ")\n";
+    }
+}
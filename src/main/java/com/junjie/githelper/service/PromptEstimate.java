@@ -0,0 +1,41 @@
+package com.junjie.githelper.service;
+
+import java.util.Locale;
+
+/**
+ * What a generation is expected to cost before it is sent.
+ * @param promptTokens The prompt tokens of all requests, including chunk summaries.
+ * @param requests Number of requests: 1, or the chunks plus the final request.
+ * @param exact Whether the tokens were counted with the model's vocabulary rather than estimated.
+ * @param truncated Whether part of the input is left out to fit the model's context.
+ * @param cost The expected cost in US dollars, or {@code null} if the model's price is unknown.
+ */
+public record PromptEstimate(
+    String model,
+    long promptTokens,
+    int requests,
+    int contextWindow,
+    boolean exact,
+    boolean truncated,
+    Double cost
+) {
+    /**
+     * @return e.g. "≈ 3,214 tokens · 1 request · ≈ $0.0083 · gpt-4o, 128k context"; counts estimated without the
+     *         model's vocabulary read "~ 3,214 tokens (estimated)".
+     */
+    public String describe() {
+        String approx = exact ? "≈ " : "~ ";
+        StringBuilder text = new StringBuilder()
+            .append(approx).append(String.format(Locale.ROOT, "%,d", promptTokens)).append(" tokens")
+            .append(exact ? "" : " (estimated)").append(" · ")
+            .append(requests).append(requests == 1 ? " request" : " requests");
+        if (cost != null) {
+            text.append(" · ≈ $").append(String.format(Locale.ROOT, cost < 0.01 ? "%.4f" : "%.2f", cost));
+        }
+        text.append(" · ").append(model).append(", ").append(contextWindow / 1000).append("k context");
+        if (truncated) {
+            text.append(" · truncated to fit");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,271 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The request and token quota of one LLM endpoint, kept as two token buckets that refill continuously:
+ * requests per minute (RPM) and tokens per minute (TPM). A request waits until both buckets cover it, so many
+ * requests at once run as fast as the quota allows instead of into 429 responses.
+ * <p>
+ * A limit comes from the settings or from the {@code x-ratelimit-*} headers of the responses, whichever is
+ * lower; without either, requests are not limited. The remaining quota the endpoint reports also counts other
+ * clients of the same API key, and once it is used up, requests wait until the reported reset.
+ */
+final class RateLimiter {
+
+    private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // Without a Retry-After, a 429 pauses the endpoint this long
+    private static final Duration DEFAULT_PAUSE = Duration.ofSeconds(1);
+    // Durations like "1s", "6m0s", "20ms" or "1h2m3.5s"
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    private final String name;
+    private final Bucket requests = new Bucket();
+    private final Bucket tokens = new Bucket();
+    // Guarded by this
+    private long pausedUntilNanos = System.nanoTime();
+
+    /**
+     * A token bucket. Its balance may go negative when a request costs more tokens than estimated, or more than
+     * the whole limit; later requests then wait until the debt is refilled.
+     */
+    private static final class Bucket {
+        // 0 while unknown
+        long configuredLimit;
+        long reportedLimit;
+        double available;
+        long refilledNanos = System.nanoTime();
+
+        long limit() {
+            if (configuredLimit > 0 && reportedLimit > 0) {
+                return Math.min(configuredLimit, reportedLimit);
+            }
+            return Math.max(configuredLimit, reportedLimit);
+        }
+
+        void setLimits(long configured, long reported, long now) {
+            refill(now);
+            boolean wasUnknown = limit() == 0;
+            configuredLimit = configured;
+            reportedLimit = reported;
+            long limit = limit();
+            // A new limit starts with a full bucket; a lower limit caps the balance
+            available = wasUnknown ? limit : Math.min(available, limit);
+        }
+
+        void refill(long now) {
+            long limit = limit();
+            if (limit > 0) {
+                available = Math.min(limit, available + (double) (now - refilledNanos) * limit / MINUTE_NANOS);
+            }
+            refilledNanos = now;
+        }
+
+        /**
+         * @return How long until the bucket covers the amount, or at least the whole limit; 0 if it does now.
+         */
+        long waitNanos(long amount) {
+            long limit = limit();
+            double needed = Math.min(amount, limit);
+            if (limit == 0 || available >= needed) {
+                return 0;
+            }
+            return (long) Math.ceil((needed - available) * MINUTE_NANOS / limit);
+        }
+
+        void take(long amount) {
+            if (limit() > 0) {
+                available -= amount;
+            }
+        }
+    }
+
+    /**
+     * One request's share of the quota. Tell it what the response said, so the buckets follow the endpoint.
+     */
+    final class Permit {
+        private final long reservedTokens;
+        private boolean settled;
+
+        private Permit(long reservedTokens) {
+            this.reservedTokens = reservedTokens;
+        }
+
+        /**
+         * Replaces the estimated token cost with the one the endpoint reported.
+         */
+        void settle(long usedTokens) {
+            synchronized (RateLimiter.this) {
+                if (settled) {
+                    return;
+                }
+                settled = true;
+                tokens.take(usedTokens - reservedTokens);
+                // Tokens reserved but not used may let a waiting request go
+                RateLimiter.this.notifyAll();
+            }
+        }
+
+        /**
+         * Takes over the limits and the remaining quota from the {@code x-ratelimit-*} headers.
+         */
+        void update(HttpHeaders headers) {
+            RateLimiter.this.update(headers);
+        }
+
+        /**
+         * Pauses every request to the endpoint after a 429 response.
+         * @param retryAfter How long the endpoint asked to wait, or {@code null}.
+         */
+        void rateLimited(Duration retryAfter) {
+            pause(retryAfter != null ? retryAfter : DEFAULT_PAUSE);
+        }
+    }
+
+    /**
+     * @param name Identifies the endpoint in logs and metrics.
+     */
+    RateLimiter(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Sets the limits from the settings; {@code null} or 0 leaves a limit to the response headers.
+     */
+    synchronized void configure(Integer requestsPerMinute, Integer tokensPerMinute) {
+        long now = System.nanoTime();
+        long rpm = requestsPerMinute != null ? Math.max(0, requestsPerMinute) : 0;
+        long tpm = tokensPerMinute != null ? Math.max(0, tokensPerMinute) : 0;
+        if (rpm != requests.configuredLimit) {
+            requests.setLimits(rpm, requests.reportedLimit, now);
+        }
+        if (tpm != tokens.configuredLimit) {
+            tokens.setLimits(tpm, tokens.reportedLimit, now);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits until the quota covers one more request of about this many tokens and takes it.
+     * @throws InterruptedException If the request is cancelled while it waits.
+     */
+    Permit acquire(long estimatedTokens) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        boolean waited = false;
+        synchronized (this) {
+            while (true) {
+                long now = System.nanoTime();
+                requests.refill(now);
+                tokens.refill(now);
+                long waitNanos = Math.max(Math.max(requests.waitNanos(1), tokens.waitNanos(estimatedTokens)),
+                    pausedUntilNanos - now);
+                if (waitNanos <= 0) {
+                    requests.take(1);
+                    tokens.take(estimatedTokens);
+                    break;
+                }
+                if (!waited) {
+                    waited = true;
+                    Logger.debug(() -> String.format("LLM endpoint %s quota exhausted, waiting %.1f s", name,
+                        waitNanos / 1e9));
+                }
+                // Woken early when the limits change or a request returns unused tokens
+                TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+            }
+        }
+        if (waited) {
+            Metrics.recordDuration(Metrics.LLM_RATE_LIMIT_WAIT_SECONDS, System.nanoTime() - startNanos, "endpoint", name);
+        }
+        return new Permit(estimatedTokens);
+    }
+
+    /**
+     * Pauses every request for at least the given time.
+     */
+    synchronized void pause(Duration duration) {
+        long until = System.nanoTime() + duration.toNanos();
+        if (until - pausedUntilNanos > 0) {
+            pausedUntilNanos = until;
+        }
+    }
+
+    private synchronized void update(HttpHeaders headers) {
+        long now = System.nanoTime();
+        report(requests, headers, "requests", now);
+        report(tokens, headers, "tokens", now);
+        notifyAll();
+    }
+
+    private void report(Bucket bucket, HttpHeaders headers, String kind, long now) {
+        long limit = longHeader(headers, "x-ratelimit-limit-" + kind);
+        long remaining = longHeader(headers, "x-ratelimit-remaining-" + kind);
+        if (limit > 0 && limit != bucket.reportedLimit) {
+            Logger.debug(() -> "LLM endpoint " + name + " reports a limit of " + limit + " " + kind + " per minute");
+            bucket.setLimits(bucket.configuredLimit, limit, now);
+        }
+        if (remaining < 0) {
+            return;
+        }
+        bucket.refill(now);
+        bucket.available = Math.min(bucket.available, remaining);
+        Duration reset = duration(headers.firstValue("x-ratelimit-reset-" + kind).orElse(null));
+        if (remaining == 0 && reset != null) {
+            long until = now + reset.toNanos();
+            if (until - pausedUntilNanos > 0) {
+                pausedUntilNanos = until;
+            }
+        }
+    }
+
+    /**
+     * @return The value, or -1 if the header is missing or not a number.
+     */
+    private static long longHeader(HttpHeaders headers, String name) {
+        String value = headers.firstValue(name).orElse(null);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses a reset time such as {@code 1s}, {@code 6m0s}, {@code 20ms}, or plain seconds.
+     * @return The duration, or {@code null} if it cannot be parsed.
+     */
+    static Duration duration(String text) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        String trimmed = text.trim();
+        try {
+            return Duration.ofMillis((long) (Double.parseDouble(trimmed) * 1000));
+        } catch (NumberFormatException ignored) {
+            // Not plain seconds
+        }
+        Matcher matcher = DURATION_PART.matcher(trimmed);
+        double millis = 0;
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            double value = Double.parseDouble(matcher.group(1));
+            millis += switch (matcher.group(2)) {
+                case "h" -> value * 3_600_000;
+                case "m" -> value * 60_000;
+                case "s" -> value * 1_000;
+                default -> value;
+            };
+            end = matcher.end();
+        }
+        return end == trimmed.length() && end > 0 ? Duration.ofMillis((long) millis) : null;
+    }
+}
@@ -0,0 +1,194 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.Project;
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, reference-counted cache of open JGit repositories.
+ * Keeping a repository open preserves its pack index, window cache and ref cache between calls,
+ * so switching between projects and regenerating works on a warm repository.
+ * <p>
+ * Entries are closed when they have been idle for too long, when the cache is over capacity,
+ * when their project is removed, or when {@code gc}/{@code pack-refs} rewrote packs or packed-refs
+ * on disk. A repository that is still leased is only closed after its last lease is released.
+ */
+public class RepositoryCache {
+
+    private static final int MAX_ENTRIES = 8;
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // Access-ordered, so iteration starts at the least recently used entry. Guarded by this.
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "repository-cache-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RepositoryCache() {
+        evictor.scheduleWithFixedDelay(this::evictIdle, 1, 1, TimeUnit.MINUTES);
+    }
+
+    private static final class Entry {
+        final String key;
+        final Repository repository;
+        final DiskState openedAt;
+        int leases;
+        long lastReleased = System.currentTimeMillis();
+        boolean retired;
+
+        Entry(String key, Repository repository, DiskState openedAt) {
+            this.key = key;
+            this.repository = repository;
+            this.openedAt = openedAt;
+        }
+    }
+
+    /**
+     * Modification stamps of the on-disk state that JGit caches: the pack directory listing and packed-refs.
+     * Loose objects and loose refs written by a normal commit do not change it.
+     */
+    private record DiskState(long packDirModified, long packedRefsModified, long packedRefsLength) {
+        static DiskState of(File gitDir) {
+            File packDir = new File(gitDir, "objects/pack");
+            File packedRefs = new File(gitDir, "packed-refs");
+            return new DiskState(packDir.lastModified(), packedRefs.lastModified(), packedRefs.length());
+        }
+    }
+
+    /**
+     * A lease on a cached repository. Closing the lease releases it back to the cache; it never closes
+     * the repository directly.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public Repository repository() {
+            return entry.repository;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * Leases the repository of the given project, opening it if it is not cached yet.
+     */
+    public synchronized Lease acquire(Project project) throws IOException {
+        File gitDir = gitDirOf(project);
+        String key = gitDir.getAbsolutePath();
+        DiskState diskState = DiskState.of(gitDir);
+
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.openedAt.equals(diskState)) {
+            Logger.debug(() -> "Packs or packed-refs changed on disk, reopening repository " + key);
+            retire(entry);
+            entry = null;
+        }
+        Metrics.increment(Metrics.CACHE_LOOKUPS, "cache", "repository", "result", entry != null ? "hit" : "miss");
+        if (entry == null) {
+            Repository repository = new FileRepositoryBuilder()
+                .setGitDir(gitDir)
+                // A moved or deleted project is an error, not an empty repository
+                .setMustExist(true)
+                .build();
+            entry = new Entry(key, repository, diskState);
+            entries.put(key, entry);
+            evictOverCapacity();
+        }
+        entry.leases++;
+        return new Lease(entry);
+    }
+
+    /**
+     * Closes the cached repository of a project, e.g. when the project is removed from the list.
+     */
+    public synchronized void invalidate(Project project) {
+        Entry entry = entries.get(gitDirOf(project).getAbsolutePath());
+        if (entry != null) {
+            retire(entry);
+        }
+    }
+
+    /**
+     * Closes all cached repositories and stops the idle evictor.
+     */
+    public synchronized void close() {
+        evictor.shutdownNow();
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            retire(entry);
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.leases--;
+        entry.lastReleased = System.currentTimeMillis();
+        if (entry.retired && entry.leases == 0) {
+            entry.repository.close();
+        } else {
+            evictOverCapacity();
+        }
+    }
+
+    /**
+     * Removes the entry from the cache; its repository is closed once no lease is left.
+     */
+    private void retire(Entry entry) {
+        entries.remove(entry.key);
+        entry.retired = true;
+        if (entry.leases == 0) {
+            entry.repository.close();
+        }
+    }
+
+    private void evictOverCapacity() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > MAX_ENTRIES && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest.leases == 0) {
+                iterator.remove();
+                eldest.retired = true;
+                eldest.repository.close();
+            }
+        }
+    }
+
+    private synchronized void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<Entry> idle = entries.values().stream()
+            .filter(entry -> entry.leases == 0 && now - entry.lastReleased > IDLE_TIMEOUT_MILLIS)
+            .toList();
+        for (Entry entry : idle) {
+            Logger.debug(() -> "Closing idle repository " + entry.key);
+            retire(entry);
+        }
+    }
+
+    private static File gitDirOf(Project project) {
+        return new File(new File(project.path()), ".git");
+    }
+}
@@ -0,0 +1,112 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.util.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An exclusive lock on a lock file, across the threads of this process and other processes such as the desktop
+ * app, the command line and the daemon. Where the file system does not support locks, only this process is
+ * excluded.
+ * <p>
+ * The lock file also holds a counter that holders can use to tell each other about changes that are not visible
+ * in the locked data itself, e.g. that a data file was replaced.
+ */
+final class SharedFileLock implements Closeable {
+
+    // File locks are held by the process, so threads and instances of this process queue here first
+    private static final Map<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final ReentrantLock localLock;
+    private final FileChannel channel;
+
+    private SharedFileLock(ReentrantLock localLock, FileChannel channel) {
+        this.localLock = localLock;
+        this.channel = channel;
+    }
+
+    static SharedFileLock acquire(Path lockFile) throws IOException {
+        ReentrantLock localLock = LOCAL_LOCKS.computeIfAbsent(lockFile.toAbsolutePath().normalize(),
+            path -> new ReentrantLock());
+        localLock.lock();
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(lockFile.getParent());
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            try {
+                channel.lock();
+            } catch (IOException e) {
+                Logger.debug(() -> "Cannot lock " + lockFile + ": " + e.getMessage());
+            }
+            return new SharedFileLock(localLock, channel);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Not locked, nothing to release
+                }
+            }
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The counter stored in the lock file, 0 before it is first written.
+     */
+    long readCounter() throws IOException {
+        return readCounter(channel);
+    }
+
+    /**
+     * Reads the counter without taking the lock, to tell whether taking it is worthwhile. The value may be
+     * outdated by the time it is used.
+     * @return The counter, 0 if the lock file does not exist or was never written.
+     */
+    static long peekCounter(Path lockFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.READ)) {
+            return readCounter(channel);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private static long readCounter(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    void writeCounter(long counter) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, counter);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // Releases the file lock
+            channel.close();
+        } finally {
+            localLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.util.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Text that is written once and then read back as a stream, e.g. a commit log on its way into a prompt.
+ * <p>
+ * The text stays in memory up to a limit and moves to a temporary file beyond it, so a multi-month log with
+ * diffs costs disk space instead of heap. It is written by one thread; once handed over it can be read any
+ * number of times. The buffer is reference counted: {@link #retain()} it before passing it to another task,
+ * and every user {@link #close()}s it when done. The file is deleted when the last user closes it.
+ */
+public final class SpillBuffer extends Writer {
+
+    // About 2 MB of heap
+    private static final int DEFAULT_MEMORY_LIMIT = 1 << 20;
+
+    private final int memoryLimit;
+    private StringBuilder memory = new StringBuilder();
+    private Path file;
+    private Writer fileWriter;
+    private long length;
+    private int users = 1;
+
+    public SpillBuffer() {
+        this(DEFAULT_MEMORY_LIMIT);
+    }
+
+    /**
+     * @param memoryLimit Number of characters kept in memory before the text moves to a file.
+     */
+    public SpillBuffer(int memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int count) throws IOException {
+        reserve(count);
+        if (fileWriter != null) {
+            fileWriter.write(chars, offset, count);
+        } else {
+            memory.append(chars, offset, count);
+        }
+    }
+
+    @Override
+    public void write(String text, int offset, int count) throws IOException {
+        reserve(count);
+        if (fileWriter != null) {
+            fileWriter.write(text, offset, count);
+        } else {
+            memory.append(text, offset, offset + count);
+        }
+    }
+
+    @Override
+    public SpillBuffer append(CharSequence text) throws IOException {
+        CharSequence nonNull = text == null ? "null" : text;
+        return append(nonNull, 0, nonNull.length());
+    }
+
+    @Override
+    public SpillBuffer append(CharSequence text, int start, int end) throws IOException {
+        CharSequence nonNull = text == null ? "null" : text;
+        reserve(end - start);
+        if (fileWriter != null) {
+            fileWriter.append(nonNull, start, end);
+        } else {
+            memory.append(nonNull, start, end);
+        }
+        return this;
+    }
+
+    @Override
+    public SpillBuffer append(char c) throws IOException {
+        reserve(1);
+        if (fileWriter != null) {
+            fileWriter.write(c);
+        } else {
+            memory.append(c);
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileWriter != null) {
+            fileWriter.flush();
+        }
+    }
+
+    /**
+     * @return Number of characters written.
+     */
+    public long length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Opens a reader over everything written so far.
+     */
+    public Reader openReader() throws IOException {
+        ensureOpen();
+        if (fileWriter == null) {
+            return new StringReader(memory.toString());
+        }
+        fileWriter.flush();
+        return Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Publishes the text as a UTF-8 request body. The length is known up front, so the body is not sent chunked.
+     */
+    HttpRequest.BodyPublisher bodyPublisher() throws IOException {
+        ensureOpen();
+        if (fileWriter == null) {
+            return HttpRequest.BodyPublishers.ofString(memory.toString());
+        }
+        fileWriter.flush();
+        return HttpRequest.BodyPublishers.ofFile(file);
+    }
+
+    /**
+     * Registers one more user, who must {@link #close()} the buffer when done.
+     * @return This buffer.
+     */
+    public synchronized SpillBuffer retain() {
+        ensureOpen();
+        users++;
+        return this;
+    }
+
+    /**
+     * Releases this user's hold; the last user drops the text and deletes its file.
+     */
+    @Override
+    public synchronized void close() {
+        if (users == 0 || --users > 0) {
+            return;
+        }
+        memory = null;
+        if (fileWriter == null) {
+            return;
+        }
+        try {
+            fileWriter.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Still registered for deletion on exit
+            Logger.debug(() -> "Failed to delete spill file " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void reserve(int count) throws IOException {
+        ensureOpen();
+        if (fileWriter == null && memory.length() + count > memoryLimit) {
+            spill();
+        }
+        length += count;
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile("commit-pal-", ".txt");
+        file.toFile().deleteOnExit();
+        fileWriter = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 64 * 1024);
+        fileWriter.append(memory);
+        memory = null;
+        Logger.debug(() -> "Text over " + memoryLimit + " characters moved to " + file);
+    }
+
+    private void ensureOpen() {
+        if (users == 0) {
+            throw new IllegalStateException("Buffer already closed");
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.util.Logger;
+import com.junjie.githelper.util.Metrics;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the staged diff (HEAD against the index) of each repository and updates it incrementally.
+ * <p>
+ * When neither HEAD nor the index checksum changed, the previous diff is returned as is. When only the
+ * index changed, the entries are compared with a compact fingerprint of the previous index and only the
+ * paths whose entries changed are diffed again. A moved HEAD, removed index entries or a very large
+ * change set fall back to a full recompute.
+ * <p>
+ * With rename detection, a rename pairs an added path with a deleted one, so it only shows in a diff of both
+ * paths. A change to either path of a rename, or a new path while deletions are staged, is therefore also
+ * recomputed in full.
+ */
+final class StagedDiffTracker {
+
+    // Re-diffing path by path stops paying off beyond this many changed entries
+    private static final int MAX_INCREMENTAL_PATHS = 2000;
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * The staged diff of one repository at one index version. Guarded by its own monitor.
+     */
+    private static final class Snapshot {
+        ObjectId headTree;
+        byte[] indexChecksum;
+        // Parallel arrays sorted by path hash
+        long[] pathHashes = new long[0];
+        long[] entryHashes = new long[0];
+        final TreeMap<String, String> diffsByPath = new TreeMap<>();
+        // Both paths of every rename or copy, and whether a deletion is staged; only kept with rename detection
+        final Set<String> renamedPaths = new HashSet<>();
+        boolean deletions;
+        List<String> files;
+    }
+
+    /**
+     * @return The staged diff of each file, ordered by path.
+     */
+    List<String> getStagedFileDiffs(Repository repository, DiffOptions options) throws IOException {
+        String key = repository.getDirectory().getAbsolutePath() + ":" + options;
+        Snapshot snapshot = snapshots.computeIfAbsent(key, k -> new Snapshot());
+        synchronized (snapshot) {
+            ObjectId headTree = repository.resolve(Constants.HEAD + "^{tree}");
+            byte[] indexChecksum = readIndexChecksum(repository.getDirectory());
+            if (snapshot.files != null && Objects.equals(headTree, snapshot.headTree)
+                    && indexChecksum != null && Arrays.equals(indexChecksum, snapshot.indexChecksum)) {
+                Metrics.increment(Metrics.CACHE_LOOKUPS, "cache", "staged_diff", "result", "hit");
+                return snapshot.files;
+            }
+            Metrics.increment(Metrics.CACHE_LOOKUPS, "cache", "staged_diff", "result", "miss");
+
+            DirCache dirCache = repository.readDirCache();
+            List<String> changedPaths = snapshot.files != null && Objects.equals(headTree, snapshot.headTree)
+                ? changedPaths(snapshot, dirCache)
+                : null;
+            updateFingerprint(snapshot, dirCache);
+
+            if (changedPaths == null || changedPaths.size() > MAX_INCREMENTAL_PATHS
+                    || options.detectRenames() && mayChangeRenames(snapshot, repository, headTree, changedPaths)) {
+                snapshot.diffsByPath.clear();
+                snapshot.renamedPaths.clear();
+                snapshot.deletions = false;
+                diff(repository, headTree, dirCache, null, options, snapshot);
+                Logger.debug(() -> "Staged diff fully recomputed: " + snapshot.diffsByPath.size() + " files");
+            } else if (!changedPaths.isEmpty()) {
+                changedPaths.forEach(snapshot.diffsByPath::remove);
+                diff(repository, headTree, dirCache, changedPaths, options, snapshot);
+                Logger.debug(() -> "Staged diff updated for " + changedPaths.size() + " changed index entries");
+            }
+
+            snapshot.headTree = headTree;
+            snapshot.indexChecksum = indexChecksum;
+            snapshot.files = List.copyOf(snapshot.diffsByPath.values());
+            return snapshot.files;
+        }
+    }
+
+    /**
+     * @return The paths of the staged changes, ordered by path; the new path of a renamed file.
+     */
+    List<String> getStagedPaths(Repository repository, DiffOptions options) throws IOException {
+        getStagedFileDiffs(repository, options);
+        Snapshot snapshot = snapshots.get(repository.getDirectory().getAbsolutePath() + ":" + options);
+        synchronized (snapshot) {
+            return List.copyOf(snapshot.diffsByPath.keySet());
+        }
+    }
+
+    /**
+     * Forgets the state of a repository, e.g. when its project is removed.
+     */
+    void invalidate(File gitDir) {
+        String prefix = gitDir.getAbsolutePath() + ":";
+        snapshots.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * Reads the trailing checksum of the index file, which changes whenever the index content changes.
+     * @return The checksum, or {@code null} when there is no index yet.
+     */
+    static byte[] readIndexChecksum(File gitDir) {
+        File index = new File(gitDir, "index");
+        try (RandomAccessFile file = new RandomAccessFile(index, "r")) {
+            long length = file.length();
+            if (length < Constants.OBJECT_ID_LENGTH) {
+                return null;
+            }
+            byte[] checksum = new byte[Constants.OBJECT_ID_LENGTH];
+            file.seek(length - checksum.length);
+            file.readFully(checksum);
+            return checksum;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The paths whose index entries were added or changed, or {@code null} if entries were removed
+     *         and the diff has to be recomputed completely.
+     */
+    private static List<String> changedPaths(Snapshot snapshot, DirCache dirCache) {
+        List<String> changed = new ArrayList<>();
+        int matched = 0;
+        for (int i = 0; i < dirCache.getEntryCount(); i++) {
+            DirCacheEntry entry = dirCache.getEntry(i);
+            int position = Arrays.binarySearch(snapshot.pathHashes, pathHash(entry));
+            if (position >= 0) {
+                matched++;
+                if (snapshot.entryHashes[position] == entryHash(entry)) {
+                    continue;
+                }
+            }
+            changed.add(entry.getPathString());
+        }
+        return matched < snapshot.pathHashes.length ? null : changed;
+    }
+
+    /**
+     * @return Whether diffing only the changed paths could miss a rename that a full diff pairs up or splits.
+     */
+    private static boolean mayChangeRenames(Snapshot snapshot, Repository repository, ObjectId headTree,
+                                            List<String> changedPaths) throws IOException {
+        for (String path : changedPaths) {
+            if (snapshot.renamedPaths.contains(path)) {
+                return true;
+            }
+        }
+        if (!snapshot.deletions || changedPaths.isEmpty()) {
+            return false;
+        }
+        if (headTree == null) {
+            return true;
+        }
+        // A path that is not in HEAD is an addition, which may be the other half of a staged deletion
+        Set<String> added = new HashSet<>(changedPaths);
+        try (TreeWalk walk = new TreeWalk(repository)) {
+            walk.addTree(headTree);
+            walk.setRecursive(true);
+            walk.setFilter(PathFilterGroup.createFromStrings(changedPaths));
+            while (walk.next()) {
+                added.remove(walk.getPathString());
+            }
+        }
+        return !added.isEmpty();
+    }
+
+    private static void updateFingerprint(Snapshot snapshot, DirCache dirCache) {
+        int count = dirCache.getEntryCount();
+        long[][] pairs = new long[count][];
+        for (int i = 0; i < count; i++) {
+            DirCacheEntry entry = dirCache.getEntry(i);
+            pairs[i] = new long[] {pathHash(entry), entryHash(entry)};
+        }
+        Arrays.sort(pairs, (a, b) -> Long.compare(a[0], b[0]));
+        snapshot.pathHashes = new long[count];
+        snapshot.entryHashes = new long[count];
+        for (int i = 0; i < count; i++) {
+            snapshot.pathHashes[i] = pairs[i][0];
+            snapshot.entryHashes[i] = pairs[i][1];
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a of the path and stage, so conflicting stages of one path stay distinct.
+     */
+    private static long pathHash(DirCacheEntry entry) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : entry.getRawPath()) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return (hash ^ entry.getStage()) * 0x100000001b3L;
+    }
+
+    private static long entryHash(DirCacheEntry entry) {
+        ObjectId id = entry.getObjectId();
+        return (id.hashCode() * 31L + entry.getRawMode()) * 1_000_003L ^ id.getFirstByte();
+    }
+
+    /**
+     * Diffs HEAD against the index, optionally limited to some paths, into the snapshot.
+     */
+    private static void diff(Repository repository, ObjectId headTree, DirCache dirCache, List<String> paths,
+                             DiffOptions options, Snapshot snapshot) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ObjectReader reader = repository.newObjectReader();
+             DiffFormatter formatter = new DiffFormatter(output)) {
+            formatter.setReader(reader, repository.getConfig());
+            formatter.setContext(options.contextLines());
+            if (options.detectRenames()) {
+                formatter.setDetectRenames(true);
+            }
+            if (paths != null) {
+                formatter.setPathFilter(PathFilterGroup.createFromStrings(paths));
+            }
+
+            AbstractTreeIterator oldTree;
+            if (headTree != null) {
+                CanonicalTreeParser parser = new CanonicalTreeParser();
+                parser.reset(reader, headTree);
+                oldTree = parser;
+            } else {
+                oldTree = new EmptyTreeIterator();
+            }
+
+            for (DiffEntry entry : formatter.scan(oldTree, new DirCacheIterator(dirCache))) {
+                output.reset();
+                formatter.format(entry);
+                formatter.flush();
+                String path = entry.getChangeType() == DiffEntry.ChangeType.DELETE ? entry.getOldPath() : entry.getNewPath();
+                snapshot.diffsByPath.merge(path, output.toString(StandardCharsets.UTF_8), String::concat);
+                switch (entry.getChangeType()) {
+                    case RENAME, COPY -> {
+                        snapshot.renamedPaths.add(entry.getOldPath());
+                        snapshot.renamedPaths.add(entry.getNewPath());
+                    }
+                    case DELETE -> snapshot.deletions = true;
+                    default -> {
+                    }
+                }
+            }
+        }
+    }
+}
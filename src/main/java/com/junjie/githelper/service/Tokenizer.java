@@ -0,0 +1,368 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.util.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts tokens offline the way OpenAI-style byte-pair encodings do: the text is split into pieces by the
+ * encoding's pattern, and each piece is merged from UTF-8 bytes by rank.
+ * <p>
+ * The ranks are read from a {@code .tiktoken} file ({@code <base64 token> <rank>} per line), shipped as the
+ * resource {@code /com/junjie/githelper/tokenizer/<name>.tiktoken}; one placed in {@code ~/.commit-pal/tokenizers}
+ * takes precedence.
+ * Without one, every piece is estimated from its length and script instead, which is much closer than a
+ * characters-per-token ratio, in particular for code and CJK text; {@link #isExact()} tells which is used.
+ * <p>
+ * Counting allocates no strings or arrays per piece. Safe for concurrent use.
+ */
+public final class Tokenizer {
+
+    public static final Tokenizer CL100K = new Tokenizer("cl100k_base", Pattern.compile(
+        "'(?i:[sdmt]|ll|ve|re)|[^\\r\\n\\p{L}\\p{N}]?+\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]++[\\r\\n]*"
+            + "|\\s*[\\r\\n]|\\s+(?!\\S)|\\s+"), 1.2);
+    public static final Tokenizer O200K = new Tokenizer("o200k_base", Pattern.compile(
+        "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+"), 0.8);
+
+    private static final String RESOURCE_DIR = "/com/junjie/githelper/tokenizer/";
+    // Pieces are merged in a scratch buffer of this size; longer ones grow it
+    private static final int SCRATCH_BYTES = 256;
+    private static final Vocabulary MISSING = new Vocabulary(new byte[0][], new int[0]);
+
+    private final String name;
+    private final Pattern pattern;
+    // Estimated tokens per non-ASCII character when there is no vocabulary
+    private final double nonAsciiTokensPerChar;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+    private volatile Vocabulary vocabulary;
+
+    /**
+     * Per-thread buffers for the UTF-8 bytes of a piece and its merge state.
+     */
+    private static final class Scratch {
+        byte[] bytes = new byte[SCRATCH_BYTES];
+        int[] starts = new int[SCRATCH_BYTES + 1];
+        int[] ranks = new int[SCRATCH_BYTES + 1];
+
+        void ensureCapacity(int length) {
+            if (bytes.length < length) {
+                int capacity = Math.max(length, bytes.length * 2);
+                bytes = new byte[capacity];
+                starts = new int[capacity + 1];
+                ranks = new int[capacity + 1];
+            }
+        }
+    }
+
+    private Tokenizer(String name, Pattern pattern, double nonAsciiTokensPerChar) {
+        this.name = name;
+        this.pattern = pattern;
+        this.nonAsciiTokensPerChar = nonAsciiTokensPerChar;
+    }
+
+    /**
+     * @return The encoding of an OpenAI model: o200k for GPT-4o, GPT-4.1, GPT-5 and o-series models, cl100k for
+     *         older models and, as the closest widely used encoding, for models of other providers.
+     */
+    public static Tokenizer forModel(String model) {
+        String lower = model == null ? "" : model.toLowerCase(Locale.ROOT);
+        int slash = lower.lastIndexOf('/');
+        lower = lower.substring(slash + 1);
+        if (lower.startsWith("gpt-4o") || lower.startsWith("gpt-4.1") || lower.startsWith("gpt-4.5")
+                || lower.startsWith("gpt-5") || lower.startsWith("chatgpt-4o") || lower.matches("o\\d.*")) {
+            return O200K;
+        }
+        return CL100K;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return Whether counts come from the encoding's vocabulary rather than an estimate.
+     */
+    public boolean isExact() {
+        return vocabulary() != MISSING;
+    }
+
+    public int count(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        Vocabulary ranks = vocabulary();
+        Scratch buffers = scratch.get();
+        Matcher matcher = pattern.matcher(text);
+        int tokens = 0;
+        while (matcher.find()) {
+            tokens += ranks == MISSING
+                ? estimatePiece(text, matcher.start(), matcher.end())
+                : countPiece(ranks, buffers, text, matcher.start(), matcher.end());
+        }
+        return tokens;
+    }
+
+    /**
+     * Counts a prompt chunk by chunk, without reading it into one string. A piece cut by a chunk boundary is
+     * counted as two, which over a whole prompt makes a negligible difference.
+     */
+    long count(Prompt prompt) throws IOException {
+        long[] tokens = {0};
+        prompt.forEachChunk((chars, count) -> tokens[0] += count(CharBuffer.wrap(chars, 0, count)));
+        return tokens[0];
+    }
+
+    private int countPiece(Vocabulary ranks, Scratch buffers, CharSequence text, int start, int end) {
+        int length = encodeUtf8(buffers, text, start, end);
+        byte[] bytes = buffers.bytes;
+        if (ranks.rank(bytes, 0, length) >= 0) {
+            return 1;
+        }
+        // Byte pair merge: starts[i] is where part i begins, pairRanks[i] the rank of parts i and i + 1 merged
+        int[] starts = buffers.starts;
+        int[] pairRanks = buffers.ranks;
+        int parts = length;
+        for (int i = 0; i <= length; i++) {
+            starts[i] = i;
+        }
+        for (int i = 0; i < parts - 1; i++) {
+            pairRanks[i] = pairRank(ranks, bytes, starts, i);
+        }
+        while (parts > 1) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for (int i = 0; i < parts - 1; i++) {
+                if (pairRanks[i] < bestRank) {
+                    bestRank = pairRanks[i];
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            // Part best + 1 joins part best
+            System.arraycopy(starts, best + 2, starts, best + 1, parts - best - 1);
+            System.arraycopy(pairRanks, best + 2, pairRanks, best + 1, Math.max(0, parts - best - 3));
+            parts--;
+            if (best < parts - 1) {
+                pairRanks[best] = pairRank(ranks, bytes, starts, best);
+            }
+            if (best > 0) {
+                pairRanks[best - 1] = pairRank(ranks, bytes, starts, best - 1);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * @return The rank of parts i and i + 1 merged, or {@link Integer#MAX_VALUE} if they do not merge.
+     */
+    private static int pairRank(Vocabulary ranks, byte[] bytes, int[] starts, int i) {
+        // starts[parts] is the end of the piece, so part i + 1 always has an end
+        int rank = ranks.rank(bytes, starts[i], starts[i + 2]);
+        return rank >= 0 ? rank : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return Number of bytes written to the scratch buffer.
+     */
+    private static int encodeUtf8(Scratch buffers, CharSequence text, int start, int end) {
+        buffers.ensureCapacity((end - start) * 3);
+        byte[] bytes = buffers.bytes;
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xc0 | c >> 6);
+                bytes[length++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                bytes[length++] = (byte) (0xf0 | codePoint >> 18);
+                bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                bytes[length++] = (byte) (0x80 | codePoint & 0x3f);
+            } else {
+                // A lone surrogate is encoded as U+FFFD, like String.getBytes
+                char encoded = Character.isSurrogate(c) ? '\uFFFD' : c;
+                bytes[length++] = (byte) (0xe0 | encoded >> 12);
+                bytes[length++] = (byte) (0x80 | encoded >> 6 & 0x3f);
+                bytes[length++] = (byte) (0x80 | encoded & 0x3f);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Estimates a piece without a vocabulary: words of up to about five letters, short numbers and whitespace
+     * are usually one token, longer identifiers split every few letters, punctuation runs every two characters,
+     * and characters of other scripts cost about one token each.
+     */
+    private int estimatePiece(CharSequence text, int start, int end) {
+        int letters = 0;
+        int symbols = 0;
+        int nonAscii = 0;
+        boolean whitespace = true;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (!Character.isLowSurrogate(c)) {
+                    nonAscii++;
+                }
+                whitespace = false;
+            } else if (Character.isLetterOrDigit(c)) {
+                letters++;
+                whitespace = false;
+            } else if (!Character.isWhitespace(c)) {
+                symbols++;
+                whitespace = false;
+            }
+        }
+        if (whitespace) {
+            return 1;
+        }
+        int tokens = (letters + 4) / 5 + (symbols + 1) / 2 + (int) Math.ceil(nonAscii * nonAsciiTokensPerChar);
+        return Math.max(1, tokens);
+    }
+
+    private Vocabulary vocabulary() {
+        Vocabulary loaded = vocabulary;
+        if (loaded == null) {
+            synchronized (this) {
+                loaded = vocabulary;
+                if (loaded == null) {
+                    loaded = load();
+                    vocabulary = loaded;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private Vocabulary load() {
+        String file = name + ".tiktoken";
+        long startNanos = System.nanoTime();
+        Path local = ConfigService.CONFIG_DIR.resolve("tokenizers").resolve(file);
+        try {
+            // A local file replaces the bundled one
+            InputStream input = Files.isRegularFile(local) ? Files.newInputStream(local)
+                : Tokenizer.class.getResourceAsStream(RESOURCE_DIR + file);
+            if (input == null) {
+                Logger.info("No " + file + " vocabulary found, token counts are estimated");
+                return MISSING;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII))) {
+                Vocabulary vocabulary = Vocabulary.read(reader);
+                Logger.debug(() -> "Loaded " + vocabulary.size() + " tokens of " + name + " in "
+                    + (System.nanoTime() - startNanos) / 1_000_000 + " ms");
+                return vocabulary;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Logger.error("Failed to load the " + file + " vocabulary, token counts are estimated: " + e.getMessage());
+            return MISSING;
+        }
+    }
+
+    /**
+     * Byte sequences and their ranks in an open-addressing hash table, looked up by slices of a byte array.
+     */
+    private static final class Vocabulary {
+        private final byte[][] tokens;
+        private final int[] ranks;
+        // Indexes into tokens and ranks, -1 for an empty slot
+        private final int[] table;
+        private final int mask;
+
+        Vocabulary(byte[][] tokens, int[] ranks) {
+            this.tokens = tokens;
+            this.ranks = ranks;
+            int capacity = Integer.highestOneBit(Math.max(4, tokens.length * 2 - 1)) << 1;
+            table = new int[capacity];
+            mask = capacity - 1;
+            Arrays.fill(table, -1);
+            for (int i = 0; i < tokens.length; i++) {
+                int slot = hash(tokens[i], 0, tokens[i].length) & mask;
+                while (table[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i;
+            }
+        }
+
+        static Vocabulary read(BufferedReader reader) throws IOException {
+            byte[][] tokens = new byte[1 << 17][];
+            int[] ranks = new int[tokens.length];
+            int count = 0;
+            Base64.Decoder decoder = Base64.getDecoder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator < 0) {
+                    continue;
+                }
+                if (count == tokens.length) {
+                    tokens = Arrays.copyOf(tokens, count * 2);
+                    ranks = Arrays.copyOf(ranks, count * 2);
+                }
+                tokens[count] = decoder.decode(line.substring(0, separator));
+                ranks[count] = Integer.parseInt(line.substring(separator + 1).trim());
+                count++;
+            }
+            // Every byte must be a token, or text could not be encoded and the counts would be wrong
+            boolean[] singleBytes = new boolean[256];
+            int covered = 0;
+            for (int i = 0; i < count; i++) {
+                if (tokens[i].length == 1 && !singleBytes[tokens[i][0] & 0xFF]) {
+                    singleBytes[tokens[i][0] & 0xFF] = true;
+                    covered++;
+                }
+            }
+            if (covered < singleBytes.length) {
+                throw new IllegalArgumentException("only " + covered + " of 256 single bytes are tokens");
+            }
+            return new Vocabulary(Arrays.copyOf(tokens, count), Arrays.copyOf(ranks, count));
+        }
+
+        int size() {
+            return tokens.length;
+        }
+
+        /**
+         * @return The rank of the bytes from start to end, or -1 if they are not a token.
+         */
+        int rank(byte[] bytes, int start, int end) {
+            int slot = hash(bytes, start, end) & mask;
+            int index;
+            while ((index = table[slot]) >= 0) {
+                if (Arrays.equals(tokens[index], 0, tokens[index].length, bytes, start, end)) {
+                    return ranks[index];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int hash(byte[] bytes, int start, int end) {
+            int hash = 0x811c9dc5;
+            for (int i = start; i < end; i++) {
+                hash = (hash ^ (bytes[i] & 0xff)) * 0x01000193;
+            }
+            return hash ^ hash >>> 16;
+        }
+    }
+}
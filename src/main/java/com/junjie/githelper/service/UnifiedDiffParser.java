@@ -0,0 +1,85 @@
+package com.junjie.githelper.service;
+
+import com.junjie.githelper.model.DiffFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses unified diff text, as produced by {@code git diff}, into files and hunks.
+ */
+public final class UnifiedDiffParser {
+
+    private UnifiedDiffParser() {
+    }
+
+    /**
+     * Parses a diff that may span several files.
+     */
+    public static List<DiffFile> parse(String diff) {
+        List<DiffFile> files = new ArrayList<>();
+        for (String file : DiffChunker.splitBefore(diff, "diff --git ")) {
+            files.add(parseFile(file));
+        }
+        return files;
+    }
+
+    /**
+     * Parses the diff of a single file.
+     */
+    public static DiffFile parseFile(String fileDiff) {
+        List<String> hunks = DiffChunker.splitBefore(fileDiff, "@@ ");
+        String header = !hunks.isEmpty() && !hunks.get(0).startsWith("@@ ") ? hunks.remove(0) : "";
+
+        int additions = 0;
+        int deletions = 0;
+        for (String hunk : hunks) {
+            int lineStart = 0;
+            while (lineStart < hunk.length()) {
+                char first = hunk.charAt(lineStart);
+                if (first == '+') {
+                    additions++;
+                } else if (first == '-') {
+                    deletions++;
+                }
+                int lineEnd = hunk.indexOf('\n', lineStart);
+                lineStart = lineEnd < 0 ? hunk.length() : lineEnd + 1;
+            }
+        }
+        boolean binary = header.contains("\nBinary files ") || header.contains("\nGIT binary patch");
+        return new DiffFile(pathOf(header), header, List.copyOf(hunks), additions, deletions, binary);
+    }
+
+    /**
+     * Takes the path from the "+++ b/" line, or from "--- a/" for deleted files, or from the "diff --git" line.
+     */
+    private static String pathOf(String header) {
+        String newPath = lineValue(header, "+++ ");
+        if (newPath != null && !newPath.equals("/dev/null")) {
+            return stripPrefix(newPath);
+        }
+        String oldPath = lineValue(header, "--- ");
+        if (oldPath != null && !oldPath.equals("/dev/null")) {
+            return stripPrefix(oldPath);
+        }
+        String gitLine = lineValue(header, "diff --git ");
+        if (gitLine != null) {
+            int separator = gitLine.lastIndexOf(" b/");
+            return separator >= 0 ? gitLine.substring(separator + 3) : gitLine;
+        }
+        return "";
+    }
+
+    private static String lineValue(String header, String prefix) {
+        int start = header.startsWith(prefix) ? 0 : header.indexOf("\n" + prefix) + 1;
+        if (start == 0 && !header.startsWith(prefix)) {
+            return null;
+        }
+        int end = header.indexOf('\n', start);
+        return header.substring(start + prefix.length(), end < 0 ? header.length() : end).trim();
+    }
+
+    private static String stripPrefix(String path) {
+        return path.startsWith("a/") || path.startsWith("b/") ? path.substring(2) : path;
+    }
+}
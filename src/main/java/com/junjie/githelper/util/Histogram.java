@@ -0,0 +1,87 @@
+package com.junjie.githelper.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * 对数线性分桶的直方图（与 HdrHistogram 相同的思路）：内存固定，记录无锁，分位数的相对误差不超过约 3%
+ */
+public final class Histogram {
+
+    // 32 buckets per power of two; values below 64 are counted exactly
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int BUCKETS = LINEAR_LIMIT + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator sum = new LongAccumulator(Long::sum, 0);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param count Number of recorded values.
+     * @param p50 Median, as the highest value of its bucket; likewise for the other percentiles.
+     */
+    public record Snapshot(long count, long sum, long max, long p50, long p90, long p99) {
+    }
+
+    /**
+     * Records a value; negative values count as 0.
+     */
+    public void record(long value) {
+        long nonNegative = Math.max(0, value);
+        counts.incrementAndGet(index(nonNegative));
+        sum.accumulate(nonNegative);
+        max.accumulate(nonNegative);
+    }
+
+    /**
+     * Copies the current state. Values recorded concurrently may or may not be included.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        long maxValue = max.get();
+        return new Snapshot(count, sum.get(), maxValue,
+            percentile(copy, count, 0.5, maxValue),
+            percentile(copy, count, 0.9, maxValue),
+            percentile(copy, count, 0.99, maxValue));
+    }
+
+    private static long percentile(long[] counts, long count, double quantile, long maxValue) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalent(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long top = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        // Wraps to Long.MAX_VALUE for the last bucket
+        return ((top + 1) << shift) - 1;
+    }
+}
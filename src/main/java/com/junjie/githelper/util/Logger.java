@@ -1,41 +1,304 @@
 package com.junjie.githelper.util;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 /**
- * 简单的日志工具类
+ * 异步日志工具类
+ * 调用线程只把消息放入无锁环形缓冲区，由后台线程统一格式化并写到控制台和按大小滚动的日志文件
  */
-public class Logger {
+public final class Logger {
+    // Power of two, so a sequence maps to its slot with a mask
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    private static final int FULL_RETRIES = 100;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_FILE_BYTES = 5L * 1024 * 1024;
+    private static final int MAX_FILES = 5;
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    private static boolean debugEnabled = true;
+
+    private enum Level { DEBUG, INFO, ERROR }
+
+    /**
+     * A reusable slot of the ring. The fields are written by the producer that claimed the slot and become
+     * visible to the writer through the volatile write of {@code sequence}.
+     */
+    private static final class Entry {
+        volatile long sequence = -1;
+        long millis;
+        Level level;
+        String thread;
+        String message;
+        Throwable throwable;
+    }
+
+    private record FileTarget(Path directory, String name) {
+    }
+
+    private static final Entry[] ring = new Entry[CAPACITY];
+    // Next sequence to hand out to a producer
+    private static final AtomicLong claimed = new AtomicLong();
+    // Next sequence the writer reads; every slot below it is free again
+    private static volatile long consumed;
+    // Every message below this sequence has been written and flushed
+    private static volatile long flushed;
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile boolean writerParked;
+
+    private static volatile boolean debugEnabled = Boolean.getBoolean("commitpal.debug");
+    private static volatile PrintStream out = System.out;
+    private static volatile FileTarget fileTarget;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Entry();
+        }
+    }
+
+    private static final Thread writer = startWriter();
+
+    private Logger() {
+    }
 
     public static void info(String message) {
-        log("INFO", message);
+        log(Level.INFO, message, null);
     }
 
     public static void debug(String message) {
         if (debugEnabled) {
-            log("DEBUG", message);
+            log(Level.DEBUG, message, null);
+        }
+    }
+
+    /**
+     * Logs a debug message that is only built when debug logging is enabled. Prefer this overload whenever the
+     * message is concatenated or formatted.
+     */
+    public static void debug(Supplier<String> message) {
+        if (debugEnabled) {
+            log(Level.DEBUG, message.get(), null);
         }
     }
 
     public static void error(String message) {
-        log("ERROR", message);
+        log(Level.ERROR, message, null);
     }
 
+    /**
+     * Logs an error with the stack trace of its cause. The stack trace is formatted on the writer thread.
+     */
     public static void error(String message, Throwable throwable) {
-        log("ERROR", message);
-        throwable.printStackTrace();
+        log(Level.ERROR, message, throwable);
     }
 
-    private static void log(String level, String message) {
-        String timestamp = LocalDateTime.now().format(formatter);
-        System.out.println(String.format("[%s] [%s] %s", timestamp, level, message));
+    public static boolean isDebugEnabled() {
+        return debugEnabled;
     }
 
+    /**
+     * Debug logging is off unless enabled here or with {@code -Dcommitpal.debug=true}.
+     */
     public static void setDebugEnabled(boolean enabled) {
         debugEnabled = enabled;
     }
-}
 
+    // 命令行模式下日志输出到 stderr，stdout 只保留结果
+    public static void setOutput(PrintStream stream) {
+        out = stream;
+    }
+
+    /**
+     * Also writes the log to {@code <directory>/<name>.log}, rolled over to {@code <name>.1.log} and so on
+     * at 5 MB, keeping five files. The file is opened by the writer thread.
+     */
+    public static void startFileOutput(Path directory, String name) {
+        fileTarget = new FileTarget(directory, name);
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Waits until every message logged so far has been written and flushed, for at most five seconds.
+     * Runs automatically when the JVM shuts down.
+     */
+    public static void flush() {
+        long target = claimed.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (flushed < target && System.nanoTime() < deadline && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static void log(Level level, String message, Throwable throwable) {
+        long sequence;
+        int retries = 0;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - consumed >= CAPACITY) {
+                // Full: give the writer a chance to catch up. Errors wait for it, everything else is eventually
+                // dropped rather than blocking the caller
+                if (Thread.currentThread() == writer || (level != Level.ERROR && ++retries > FULL_RETRIES)) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                LockSupport.unpark(writer);
+                Thread.yield();
+            } else if (claimed.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        Entry entry = ring[(int) (sequence & MASK)];
+        entry.millis = System.currentTimeMillis();
+        entry.level = level;
+        entry.thread = Thread.currentThread().getName();
+        entry.message = message;
+        entry.throwable = throwable;
+        entry.sequence = sequence;
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static Thread startWriter() {
+        Thread thread = new Thread(new Writer(), "logger");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush, "logger-flush"));
+        return thread;
+    }
+
+    /**
+     * Drains the ring in sequence order and flushes the outputs whenever it runs empty.
+     */
+    private static final class Writer implements Runnable {
+        private final StringBuilder line = new StringBuilder(256);
+        private FileTarget openedTarget;
+        private RollingLogFile file;
+        private PrintStream console;
+        private long timestampSecond = Long.MIN_VALUE;
+        private String timestamp;
+
+        @Override
+        public void run() {
+            while (true) {
+                updateFile();
+                long next = consumed;
+                Entry entry = ring[(int) (next & MASK)];
+                if (entry.sequence == next) {
+                    format(entry.millis, entry.level, entry.thread, entry.message, entry.throwable);
+                    entry.message = null;
+                    entry.throwable = null;
+                    consumed = next + 1;
+                    write();
+                    continue;
+                }
+                long droppedCount = dropped.getAndSet(0);
+                if (droppedCount > 0) {
+                    format(System.currentTimeMillis(), Level.ERROR, "logger",
+                        droppedCount + " log messages dropped, the log buffer was full", null);
+                    write();
+                }
+                flushOutputs();
+                flushed = next;
+                writerParked = true;
+                // Re-check after announcing the park, so a message published in between is not missed
+                if (entry.sequence != next && fileTarget == openedTarget) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                writerParked = false;
+            }
+        }
+
+        private void format(long millis, Level level, String thread, String message, Throwable throwable) {
+            long second = millis / 1000;
+            if (second != timestampSecond) {
+                timestampSecond = second;
+                timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).format(formatter);
+            }
+            line.setLength(0);
+            line.append('[').append(timestamp).append("] [").append(level).append("] [").append(thread).append("] ")
+                .append(message).append(System.lineSeparator());
+            if (throwable != null) {
+                StringWriter trace = new StringWriter();
+                throwable.printStackTrace(new PrintWriter(trace));
+                line.append(trace.getBuffer());
+            }
+        }
+
+        private void write() {
+            PrintStream stream = out;
+            if (stream != console) {
+                if (console != null) {
+                    console.flush();
+                }
+                console = stream;
+            }
+            console.append(line);
+            if (file != null) {
+                try {
+                    file.write(line);
+                } catch (IOException e) {
+                    fileFailed(e);
+                }
+            }
+        }
+
+        private void flushOutputs() {
+            if (console != null) {
+                console.flush();
+            }
+            if (file != null) {
+                try {
+                    file.flush();
+                } catch (IOException e) {
+                    fileFailed(e);
+                }
+            }
+        }
+
+        private void updateFile() {
+            FileTarget target = fileTarget;
+            if (target == openedTarget) {
+                return;
+            }
+            closeFile();
+            openedTarget = target;
+            try {
+                file = new RollingLogFile(target.directory(), target.name(), MAX_FILE_BYTES, MAX_FILES);
+            } catch (IOException e) {
+                fileFailed(e);
+            }
+        }
+
+        // Logging to the console still works, so report there and carry on without the file
+        private void fileFailed(IOException e) {
+            closeFile();
+            format(System.currentTimeMillis(), Level.ERROR, "logger", "Failed to write log file: " + e.getMessage(), null);
+            out.append(line);
+        }
+
+        private void closeFile() {
+            if (file == null) {
+                return;
+            }
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // Nothing left to report to
+            }
+            file = null;
+        }
+    }
+}
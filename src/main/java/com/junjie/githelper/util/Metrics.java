@@ -0,0 +1,275 @@
+package com.junjie.githelper.util;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内指标：Git 操作耗时、LLM 延迟与 token 用量、缓存命中率
+ * 数据只保存在内存中，可以定期以 Prometheus 文本格式和 JSON 导出到本地文件
+ */
+public final class Metrics {
+
+    public static final String GIT_OPERATION_SECONDS = "commitpal_git_operation_seconds";
+    public static final String LLM_FIRST_TOKEN_SECONDS = "commitpal_llm_first_token_seconds";
+    public static final String LLM_REQUEST_SECONDS = "commitpal_llm_request_seconds";
+    public static final String LLM_REQUESTS = "commitpal_llm_requests_total";
+    public static final String LLM_ATTEMPTS = "commitpal_llm_attempts_total";
+    public static final String LLM_RATE_LIMIT_WAIT_SECONDS = "commitpal_llm_rate_limit_wait_seconds";
+    public static final String LLM_TOKENS = "commitpal_llm_tokens_total";
+    public static final String CACHE_LOOKUPS = "commitpal_cache_lookups_total";
+
+    private static final Map<String, String> HELP = Map.of(
+        GIT_OPERATION_SECONDS, "Duration of GitService operations.",
+        LLM_FIRST_TOKEN_SECONDS, "Time from sending an LLM request to the first content, per model.",
+        LLM_REQUEST_SECONDS, "Duration of complete LLM requests, per model.",
+        LLM_REQUESTS, "LLM requests sent, per model and outcome.",
+        LLM_ATTEMPTS, "Attempts per LLM endpoint and outcome (ok, failed, lost to another endpoint, skipped while paused).",
+        LLM_RATE_LIMIT_WAIT_SECONDS, "Time LLM requests waited for the quota of their endpoint, per endpoint.",
+        LLM_TOKENS, "Tokens reported by the LLM endpoint, per model and type (prompt, completion, cached).",
+        CACHE_LOOKUPS, "Cache lookups, per cache and result (hit, miss).");
+
+    private static final Map<Key, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<Key, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Comparator<Key> KEY_ORDER = Comparator.comparing(Key::name)
+        .thenComparing(key -> String.join("\u0000", key.labels()));
+
+    private static ScheduledExecutorService exporter;
+    private static Path exportBase;
+
+    /**
+     * @param labels Alternating label names and values.
+     */
+    private record Key(String name, List<String> labels) {
+        Map<String, String> labelMap() {
+            Map<String, String> map = new LinkedHashMap<>();
+            for (int i = 0; i + 1 < labels.size(); i += 2) {
+                map.put(labels.get(i), labels.get(i + 1));
+            }
+            return map;
+        }
+    }
+
+    /**
+     * A duration histogram; the snapshot values are microseconds.
+     */
+    public record HistogramSample(String name, Map<String, String> labels, Histogram.Snapshot micros) {
+    }
+
+    public record CounterSample(String name, Map<String, String> labels, long value) {
+    }
+
+    /**
+     * Measures a duration from its creation until it is closed.
+     */
+    public static final class Timer implements AutoCloseable {
+        private final Histogram histogram;
+        private final long startNanos = System.nanoTime();
+
+        private Timer(Histogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public void close() {
+            histogram.record((System.nanoTime() - startNanos) / 1_000);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Starts timing an operation, to be recorded into a duration histogram when the timer is closed.
+     * @param labels Alternating label names and values, e.g. {@code "operation", "commit"}.
+     */
+    public static Timer startTimer(String name, String... labels) {
+        return new Timer(histogram(name, labels));
+    }
+
+    /**
+     * Records a duration measured elsewhere.
+     */
+    public static void recordDuration(String name, long nanos, String... labels) {
+        histogram(name, labels).record(nanos / 1_000);
+    }
+
+    public static void increment(String name, String... labels) {
+        add(name, 1, labels);
+    }
+
+    public static void add(String name, long amount, String... labels) {
+        COUNTERS.computeIfAbsent(key(name, labels), key -> new LongAdder()).add(amount);
+    }
+
+    public static List<HistogramSample> histograms() {
+        return HISTOGRAMS.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey(KEY_ORDER))
+            .map(entry -> new HistogramSample(entry.getKey().name(), entry.getKey().labelMap(), entry.getValue().snapshot()))
+            .toList();
+    }
+
+    public static List<CounterSample> counters() {
+        return COUNTERS.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey(KEY_ORDER))
+            .map(entry -> new CounterSample(entry.getKey().name(), entry.getKey().labelMap(), entry.getValue().sum()))
+            .toList();
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text exposition format; durations are summaries in seconds.
+     */
+    public static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        String family = null;
+        for (HistogramSample sample : histograms()) {
+            if (!sample.name().equals(family)) {
+                family = sample.name();
+                appendFamily(text, family, "summary");
+            }
+            Histogram.Snapshot micros = sample.micros();
+            appendSample(text, sample.name(), sample.labels(), "quantile", "0.5", seconds(micros.p50()));
+            appendSample(text, sample.name(), sample.labels(), "quantile", "0.9", seconds(micros.p90()));
+            appendSample(text, sample.name(), sample.labels(), "quantile", "0.99", seconds(micros.p99()));
+            appendSample(text, sample.name() + "_sum", sample.labels(), null, null, seconds(micros.sum()));
+            appendSample(text, sample.name() + "_count", sample.labels(), null, null, Long.toString(micros.count()));
+        }
+        for (CounterSample sample : counters()) {
+            if (!sample.name().equals(family)) {
+                family = sample.name();
+                appendFamily(text, family, "counter");
+            }
+            appendSample(text, sample.name(), sample.labels(), null, null, Long.toString(sample.value()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Renders all metrics as one JSON document; durations are in milliseconds.
+     */
+    public static String toJson() {
+        List<Map<String, Object>> histograms = new ArrayList<>();
+        for (HistogramSample sample : histograms()) {
+            Histogram.Snapshot micros = sample.micros();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", sample.name());
+            entry.put("labels", sample.labels());
+            entry.put("count", micros.count());
+            entry.put("sum_ms", micros.sum() / 1_000.0);
+            entry.put("p50_ms", micros.p50() / 1_000.0);
+            entry.put("p90_ms", micros.p90() / 1_000.0);
+            entry.put("p99_ms", micros.p99() / 1_000.0);
+            entry.put("max_ms", micros.max() / 1_000.0);
+            histograms.add(entry);
+        }
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("timestamp", Instant.now().toString());
+        document.put("histograms", histograms);
+        document.put("counters", counters());
+        return new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(document);
+    }
+
+    /**
+     * Writes {@code <base>.prom} and {@code <base>.json} now and then periodically, replacing the previous files.
+     * @param base Path of the export files without extension, e.g. {@code ~/.commit-pal/metrics/app}.
+     */
+    public static synchronized void startExport(Path base, Duration interval) {
+        stopExport();
+        exportBase = base;
+        exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exporter.scheduleWithFixedDelay(() -> export(base), interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic export after writing the files one last time.
+     */
+    public static synchronized void stopExport() {
+        if (exporter == null) {
+            return;
+        }
+        exporter.shutdownNow();
+        exporter = null;
+        export(exportBase);
+    }
+
+    private static void export(Path base) {
+        try {
+            Files.createDirectories(base.getParent());
+            write(base.resolveSibling(base.getFileName() + ".prom"), toPrometheus());
+            write(base.resolveSibling(base.getFileName() + ".json"), toJson());
+        } catch (IOException | RuntimeException e) {
+            Logger.error("Failed to export metrics: " + e.getMessage());
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Histogram histogram(String name, String... labels) {
+        return HISTOGRAMS.computeIfAbsent(key(name, labels), key -> new Histogram());
+    }
+
+    private static Key key(String name, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs: " + List.of(labels));
+        }
+        List<String> values = new ArrayList<>(labels.length);
+        for (String label : labels) {
+            values.add(String.valueOf(label));
+        }
+        return new Key(name, List.copyOf(values));
+    }
+
+    private static void appendFamily(StringBuilder text, String name, String type) {
+        text.append("# HELP ").append(name).append(' ').append(HELP.getOrDefault(name, name)).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendSample(StringBuilder text, String name, Map<String, String> labels,
+                                     String extraLabel, String extraValue, String value) {
+        text.append(name);
+        Map<String, String> all = new LinkedHashMap<>(labels);
+        if (extraLabel != null) {
+            all.put(extraLabel, extraValue);
+        }
+        if (!all.isEmpty()) {
+            text.append('{');
+            boolean first = true;
+            for (Map.Entry<String, String> label : all.entrySet()) {
+                text.append(first ? "" : ",").append(label.getKey()).append("=\"")
+                    .append(label.getValue().replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+                first = false;
+            }
+            text.append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return Double.toString(micros / 1_000_000.0);
+    }
+}
@@ -0,0 +1,79 @@
+package com.junjie.githelper.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 按大小滚动的日志文件：{@code <name>.log} 写满后依次改名为 {@code <name>.1.log}、{@code <name>.2.log}……
+ * 只由日志写线程使用，不是线程安全的
+ */
+final class RollingLogFile implements AutoCloseable {
+
+    private final Path directory;
+    private final String name;
+    private final long maxBytes;
+    private final int maxFiles;
+    private Writer writer;
+    private long size;
+
+    /**
+     * @param maxFiles Number of files kept, including the current one.
+     */
+    RollingLogFile(Path directory, String name, long maxBytes, int maxFiles) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        Files.createDirectories(directory);
+        open();
+    }
+
+    /**
+     * Appends a line; the size counts characters, which is exact for the mostly ASCII log text.
+     */
+    void write(CharSequence text) throws IOException {
+        if (size > 0 && size + text.length() > maxBytes) {
+            roll();
+        }
+        writer.append(text);
+        size += text.length();
+    }
+
+    void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void open() throws IOException {
+        Path current = file(0);
+        size = Files.exists(current) ? Files.size(current) : 0;
+        writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(current,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8), 16 * 1024);
+    }
+
+    private void roll() throws IOException {
+        writer.close();
+        Files.deleteIfExists(file(maxFiles - 1));
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            if (Files.exists(file(i))) {
+                Files.move(file(i), file(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        open();
+    }
+
+    private Path file(int index) {
+        return directory.resolve(index == 0 ? name + ".log" : name + "." + index + ".log");
+    }
+}
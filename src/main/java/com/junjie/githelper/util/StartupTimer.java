@@ -0,0 +1,22 @@
+package com.junjie.githelper.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 记录启动各阶段距 JVM 启动的耗时，用于测量冷启动
+ */
+public final class StartupTimer {
+    // The JVM records its own start time; the process start time of the OS is only second-precise on Linux
+    private static final long JVM_START = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    private StartupTimer() {
+    }
+
+    /**
+     * Logs that a startup phase has finished. Phases may finish on different threads, so every
+     * entry is measured from JVM start rather than from the previous phase.
+     */
+    public static void mark(String phase) {
+        Logger.info(String.format("Startup: %s at +%d ms", phase, System.currentTimeMillis() - JVM_START));
+    }
+}